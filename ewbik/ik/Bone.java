@@ -38,6 +38,11 @@ public class Bone implements ewbik.asj.Saveable, Comparable<Bone> {
     public Skeleton3D parentArmature;
     public Kusudama constraints;
     public int ancestorCount = 0;
+    /**
+     * dense index of this bone within its armature, assigned whenever the
+     * armature's bonechains are rebuilt. -1 until then.
+     */
+    public int boneIndex = -1;
     protected String tag;
     protected Quaternion lastRotation;
     protected Node3D previousOrientation;
@@ -879,12 +884,22 @@ public class Bone implements ewbik.asj.Saveable, Comparable<Bone> {
         return this.pin.getAxes();
     }
 
+    /**
+     * adds this bone if it's pinned, otherwise the rootmost pinned bones among its
+     * descendants, depth first. Uses an explicit stack, so long chains are fine.
+     */
     public void addSelfIfPinned(ArrayList<Bone> pinnedBones2) {
-        if (this.isPinned()) {
-            pinnedBones2.add(this);
-        } else {
-            for (Bone child : getChildren()) {
-                child.addSelfIfPinned(pinnedBones2);
+        ArrayList<Bone> stack = new ArrayList<>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            Bone b = stack.remove(stack.size() - 1);
+            if (b.isPinned()) {
+                pinnedBones2.add(b);
+            } else {
+                ArrayList<Bone> children = b.getChildren();
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.add(children.get(i));
+                }
             }
         }
     }
@@ -917,8 +932,17 @@ public class Bone implements ewbik.asj.Saveable, Comparable<Bone> {
         } else {
             effectoredChildren.add(Bone);
         }
-        if (this.parent != null) {
-            parent.addToEffectored(this);
+        // the same for each ancestor in turn, as a loop rather than recursion.
+        Bone child = this;
+        Bone ancestor = this.parent;
+        while (ancestor != null) {
+            freeIndex = ancestor.freeChildren.indexOf(child);
+            if (freeIndex != -1)
+                ancestor.freeChildren.remove(freeIndex);
+            if (!ancestor.effectoredChildren.contains(child))
+                ancestor.effectoredChildren.add(child);
+            child = ancestor;
+            ancestor = ancestor.parent;
         }
     }
 
@@ -931,8 +955,17 @@ public class Bone implements ewbik.asj.Saveable, Comparable<Bone> {
         } else {
             addFreeChild(Bone);
         }
-        if (this.parent != null && this.effectoredChildren.size() == 0 && this.pin != null && this.pin.isEnabled()) {
-            parent.removeFromEffectored(this);
+        // the same for each ancestor in turn, as a loop rather than recursion.
+        Bone child = this;
+        while (child.parent != null && child.effectoredChildren.size() == 0 && child.pin != null
+                && child.pin.isEnabled()) {
+            Bone ancestor = child.parent;
+            effectoredIndex = ancestor.effectoredChildren.indexOf(child);
+            if (effectoredIndex != -1)
+                ancestor.effectoredChildren.remove(effectoredIndex);
+            if (!ancestor.freeChildren.contains(child))
+                ancestor.addFreeChild(child);
+            child = ancestor;
         }
     }
 
@@ -1006,18 +1039,15 @@ public class Bone implements ewbik.asj.Saveable, Comparable<Bone> {
     }
 
     public boolean hasPinnedDescendant() {
-        if (this.isPinned())
-            return true;
-        else {
-            boolean result = false;
-            for (Bone c : getChildren()) {
-                if (c.hasPinnedDescendant()) {
-                    result = true;
-                    break;
-                }
-            }
-            return result;
+        ArrayList<Bone> stack = new ArrayList<>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            Bone b = stack.remove(stack.size() - 1);
+            if (b.isPinned())
+                return true;
+            stack.addAll(b.getChildren());
         }
+        return false;
 
     }
 
@@ -1056,9 +1086,18 @@ public class Bone implements ewbik.asj.Saveable, Comparable<Bone> {
     }
 
     public void addDescendantsToArmature() {
-        for (Bone b : getChildren()) {
+        // depth first, children in order, as a loop rather than recursion.
+        ArrayList<Bone> stack = new ArrayList<>();
+        for (int i = getChildren().size() - 1; i >= 0; i--) {
+            stack.add(getChildren().get(i));
+        }
+        while (!stack.isEmpty()) {
+            Bone b = stack.remove(stack.size() - 1);
             parentArmature.addToBoneList(b);
-            b.addDescendantsToArmature();
+            ArrayList<Bone> children = b.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.add(children.get(i));
+            }
         }
     }
 
@@ -1089,12 +1128,9 @@ public class Bone implements ewbik.asj.Saveable, Comparable<Bone> {
     public void setStiffness(float stiffness) {
         stiffnessScalar = stiffness;
         if (parentArmature != null) {
-            ewbik.ik.ShadowNode3D s = parentArmature.boneSegmentMap.get(this);
-            if (s != null) {
-                ShadowNode3D.ShadowBone wb = s.simulatedBones.get(this);
-                if (wb != null) {
-                    wb.updateCosDampening();
-                }
+            ShadowNode3D.ShadowBone wb = parentArmature.getSimulatedBone(this);
+            if (wb != null) {
+                wb.updateCosDampening();
             }
         }
     }
@@ -25,7 +25,9 @@ import ik.IKPin;
 import processing.Node3D;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.function.Consumer;
 
 /**
  * s
@@ -38,23 +40,71 @@ public class ShadowNode3D {
 
     public ArrayList<ewbik.ik.ShadowNode3D> bonechainChild = new ArrayList<ewbik.ik.ShadowNode3D>();
     public ArrayList<ewbik.ik.ShadowNode3D> pinnedDescendants = new ArrayList<ewbik.ik.ShadowNode3D>();
-    public HashMap<Bone, ShadowBone> simulatedBones = new HashMap<>();
+    /**
+     * the ShadowBones of this chain, ordered the same as bonechainList
+     * (rootmost first).
+     */
+    public ArrayList<ShadowBone> simulatedBones = new ArrayList<>();
     public ArrayList<Bone> bonechainList = new ArrayList<Bone>();
     public int distanceToRoot = 0;
     public int chainLength = 0;
+    /**
+     * the number of simulated bones in this chain and all of its descendant chains.
+     */
+    public int subtreeBoneCount = 0;
+    /**
+     * this chain's index in the armature's SolverPlan, or -1 if no plan has been
+     * compiled for it.
+     */
+    public int planIndex = -1;
     public Node3D debugTipNode3D;
     public Node3D debugTargetNode3D;
     ShadowBone[] pinnedBones;
+    /**
+     * see getPinnedTipChains().
+     */
+    private ewbik.ik.ShadowNode3D[] pinnedTipChains;
+    /**
+     * what each pinned tip chain's target froze in freezePinTargets().
+     */
+    private int[] pinTargetsFrozen = new int[0];
     boolean includeInIK = true;
     int pinDepth = 1;
     Vector3[] localizedTargetHeadings;
     Vector3[] localizedTipHeadings;
     float[] weights;
+    /**
+     * localizedTargetHeadings and localizedTipHeadings packed as interleaved
+     * (x, y, z) buffers, which QCP and the residual are computed from. Repacked
+     * whenever the headings are updated.
+     */
+    float[] packedTargetHeadings;
+    float[] packedTipHeadings;
     private ewbik.ik.ShadowNode3D bonechainParent = null;
     private boolean basePinned = false;
     private boolean tipPinned = false;
     private boolean processed = false;
     private boolean simAligned = false;
+    /**
+     * whether this chain needs solving, as of the last call to refreshSolveDirty().
+     */
+    private boolean solveDirty = true;
+    /**
+     * false until this chain has been recorded after a converged solve, and
+     * whenever something the stamps below can't see (pin weights, stiffness)
+     * changes.
+     */
+    private boolean solveStampsValid = false;
+    private long tipTargetVersion = -1;
+    private long[] boneVersions = new long[0];
+
+    /**
+     * scratch objects reused by updateOptimalRotationToPinnedDescendants so that
+     * the solver's hot path doesn't allocate.
+     */
+    private final Quaternion bestOrientation = new Quaternion();
+    private final Quaternion qcpRot = new Quaternion();
+    private final Vector3 qcpTranslateBy = new Vector3();
 
     public ShadowNode3D(Bone rootBone) {
         bonechainRoot = armatureRootBone(rootBone);
@@ -63,10 +113,19 @@ public class ShadowNode3D {
     }
 
     public ShadowNode3D(ewbik.ik.ShadowNode3D inputParentSegment, Bone inputSegmentRoot) {
+        this(inputParentSegment, inputSegmentRoot, true);
+    }
+
+    /**
+     * @param generate if false, the chain is left for the caller to build, see
+     *                 generateArmatureBonechains().
+     */
+    private ShadowNode3D(ewbik.ik.ShadowNode3D inputParentSegment, Bone inputSegmentRoot, boolean generate) {
         this.bonechainRoot = inputSegmentRoot;
         this.setBonechainParent(inputParentSegment);
         this.distanceToRoot = this.getBonechainParent().distanceToRoot + 1;
-        generateArmatureBonechains();
+        if (generate)
+            generateArmatureBonechains();
     }
 
     /**
@@ -75,23 +134,89 @@ public class ShadowNode3D {
      * segment reach for (based on modecode set in the IKPin)
      */
     public static void recursivelyCreateHeadingArraysFor(ewbik.ik.ShadowNode3D s) {
-        s.createHeadingArrays();
-        for (ewbik.ik.ShadowNode3D c : s.bonechainChild) {
-            recursivelyCreateHeadingArraysFor(c);
+        s.forEachChainInSubtree(ewbik.ik.ShadowNode3D::createHeadingArrays);
+    }
+
+    /**
+     * runs action on this chain and each of its descendants, in pre-order,
+     * without recursing. Once the armature's SolverPlan has been compiled the
+     * subtree is a range of it, so nothing is allocated.
+     *
+     * @param action
+     */
+    public void forEachChainInSubtree(Consumer<ewbik.ik.ShadowNode3D> action) {
+        SolverPlan plan = bonechainRoot == null || bonechainRoot.parentArmature == null ? null
+                : bonechainRoot.parentArmature.solverPlan;
+        if (plan != null && planIndex != -1 && plan.chains[planIndex] == this) {
+            int chainEnd = plan.chainSubtreeEnd[planIndex];
+            for (int c = planIndex; c < chainEnd; c++) {
+                action.accept(plan.chains[c]);
+            }
+            return;
+        }
+        ArrayList<ewbik.ik.ShadowNode3D> stack = new ArrayList<>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            ewbik.ik.ShadowNode3D chain = stack.remove(stack.size() - 1);
+            action.accept(chain);
+            // pushed last to first, so that the first child is visited next.
+            for (int i = chain.bonechainChild.size() - 1; i >= 0; i--) {
+                stack.add(chain.bonechainChild.get(i));
+            }
         }
     }
 
+    /**
+     * builds this chain and every chain descending from it. Iterative, and linear
+     * in the number of bones, so that very long chains are fine.
+     */
     private void generateArmatureBonechains() {
+        HashSet<Bone> withPinnedDescendants = bonesWithPinnedDescendants(bonechainRoot);
+
+        // children are pushed in order, so the reverse of the visiting order is a
+        // post-order with earlier children first.
+        ArrayList<ewbik.ik.ShadowNode3D> visited = new ArrayList<>();
+        ArrayList<ewbik.ik.ShadowNode3D> stack = new ArrayList<>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            ewbik.ik.ShadowNode3D chain = stack.remove(stack.size() - 1);
+            chain.findBonechainTip(withPinnedDescendants);
+            visited.add(chain);
+            stack.addAll(chain.bonechainChild);
+        }
+        // each chain finishes after its descendants, as when this recursed.
+        for (int i = visited.size() - 1; i >= 0; i--) {
+            ewbik.ik.ShadowNode3D chain = visited.get(i);
+            chain.updatePinnedDescendants();
+            chain.generateSegmentMaps();
+            chain.subtreeBoneCount = chain.simulatedBones.size();
+            for (ewbik.ik.ShadowNode3D c : chain.bonechainChild) {
+                chain.subtreeBoneCount += c.subtreeBoneCount;
+            }
+        }
+    }
+
+    /**
+     * walks outward from the root of this chain to its tip, and creates (but
+     * doesn't build) a child chain for each branch of the tip that leads to a
+     * pin.
+     */
+    private void findBonechainTip(HashSet<Bone> withPinnedDescendants) {
+        planIndex = -1;
         bonechainChild.clear();
         setTipPinned(false);
         this.setBasePinned(bonechainRoot.getParent() != null && bonechainRoot.getParent().isPinned());
 
+        ArrayList<Bone> childrenWithPinnedDescendants = new ArrayList<>();
         Bone temporaryBonechainTip = this.bonechainRoot;
         this.chainLength = -1;
         while (true) {
             this.chainLength++;
-            ArrayList<Bone> childrenWithPinnedDescendants = temporaryBonechainTip
-                    .returnChildrenWithPinnedDescendants();
+            childrenWithPinnedDescendants.clear();
+            for (Bone c : temporaryBonechainTip.getChildren()) {
+                if (withPinnedDescendants.contains(c))
+                    childrenWithPinnedDescendants.add(c);
+            }
 
             if (childrenWithPinnedDescendants.size() > 1 || (temporaryBonechainTip.isPinned())) {
                 if (temporaryBonechainTip.isPinned()) {
@@ -100,7 +225,7 @@ public class ShadowNode3D {
                 this.bonechainTip = temporaryBonechainTip;
 
                 for (Bone childBone : childrenWithPinnedDescendants) {
-                    this.bonechainChild.add(new ewbik.ik.ShadowNode3D(this, childBone));
+                    this.bonechainChild.add(new ewbik.ik.ShadowNode3D(this, childBone, false));
                 }
 
                 break;
@@ -111,11 +236,42 @@ public class ShadowNode3D {
                 break;
             }
         }
-        updatePinnedDescendants();
-        generateSegmentMaps();
+    }
+
+    /**
+     * @return every bone from root outward which is pinned or has a pinned
+     *         descendant (the same bones for which Bone.hasPinnedDescendant()
+     *         is true), found in a single pass.
+     */
+    private static HashSet<Bone> bonesWithPinnedDescendants(Bone root) {
+        ArrayList<Bone> preOrder = new ArrayList<>();
+        ArrayList<Bone> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Bone b = stack.remove(stack.size() - 1);
+            preOrder.add(b);
+            stack.addAll(b.getChildren());
+        }
+        HashSet<Bone> result = new HashSet<>();
+        for (int i = preOrder.size() - 1; i >= 0; i--) {
+            Bone b = preOrder.get(i);
+            if (b.isPinned()) {
+                result.add(b);
+            } else {
+                for (Bone c : b.getChildren()) {
+                    if (result.contains(c)) {
+                        result.add(b);
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
     }
 
     public void createHeadingArrays() {
+        solveStampsValid = false;
+        pinnedTipChains = null;
         ArrayList<ArrayList<Float>> penaltyArray = new ArrayList<ArrayList<Float>>();
         ArrayList<ShadowBone> pinSequence = new ArrayList<>();
         recursivelyCreatePenaltyArray(this, penaltyArray, pinSequence, 1f);
@@ -130,6 +286,8 @@ public class ShadowNode3D {
         localizedTargetHeadings = new Vector3[totalHeadings];
         localizedTipHeadings = new Vector3[totalHeadings];
         weights = new float[totalHeadings];
+        packedTargetHeadings = new float[totalHeadings * 3];
+        packedTipHeadings = new float[totalHeadings * 3];
         int currentHeading = 0;
         for (ArrayList<Float> a : penaltyArray) {
             for (Float ad : a) {
@@ -180,8 +338,7 @@ public class ShadowNode3D {
                     innerWeightArray.add(subTargetWeight);
                     innerWeightArray.add(subTargetWeight);
                 }
-                pinSequence.add(pin.forBone().parentArmature.boneSegmentMap.get(pin.forBone()).simulatedBones
-                        .get(pin.forBone()));
+                pinSequence.add(pin.forBone().parentArmature.getSimulatedBone(pin.forBone()));
             }
             float thisFalloff = pin == null ? 1f : pin.getDepthFalloff();
             for (ewbik.ik.ShadowNode3D s : from.bonechainChild) {
@@ -201,19 +358,66 @@ public class ShadowNode3D {
         while (rootStrand.bonechainParent != null) {
             rootStrand = rootStrand.bonechainParent;
         }
-        recursivelyEnsureAxesHeirarchyFor(rootStrand.bonechainRoot,
-                rootStrand.bonechainRoot.parentArmature.localAxes());
+        rootStrand.recursivelyEnsureAxesHeirarchyFor(rootStrand.bonechainRoot.parentArmature.localAxes());
     }
 
-    private void recursivelyEnsureAxesHeirarchyFor(Bone b, Node3D parentTo) {
-        ewbik.ik.ShadowNode3D chain = getChainFor(b);
-        if (chain != null) {
-            ShadowBone sb = chain.simulatedBones.get(b);
-            sb.simLocalNode3D.setParent(parentTo);
+    /**
+     * parents each simulated bone of this chain to the one before it, the first
+     * to the given axes, and then does the same for each child chain, starting
+     * from this chain's tip. (child chains always begin at a child of their parent
+     * chain's tip).
+     */
+    private void recursivelyEnsureAxesHeirarchyFor(Node3D parentTo) {
+        for (ShadowBone sb : simulatedBones) {
+            // constraint first, so that the next bone's axes are parented to axes
+            // which are still up to date (see Node3D.markDirty()).
             sb.simConstraintNode3D.setParent(parentTo);
-            for (Bone c : b.getChildren()) {
-                chain.recursivelyEnsureAxesHeirarchyFor(c, sb.simLocalNode3D);
-            }
+            sb.simLocalNode3D.setParent(parentTo);
+            parentTo = sb.simLocalNode3D;
+        }
+        for (ewbik.ik.ShadowNode3D c : bonechainChild) {
+            c.recursivelyEnsureAxesHeirarchyFor(parentTo);
+        }
+    }
+
+    /**
+     * Freezes the global transform of this chain's tip, and so of every simulated
+     * bone rootward of it (see Node3D.freezeAncestry()). Child chains only read
+     * these while being solved, so while they're frozen, sibling child chains can
+     * be solved concurrently without any of them writing a node they share.
+     *
+     * @return what to pass to thawTip().
+     */
+    public int freezeTip() {
+        return simulatedBones.get(simulatedBones.size() - 1).simLocalNode3D.freezeAncestry();
+    }
+
+    public void thawTip(int frozen) {
+        simulatedBones.get(simulatedBones.size() - 1).simLocalNode3D.thawAncestry(frozen);
+    }
+
+    /**
+     * Freezes every pin target this chain and its descendant chains reach for,
+     * along with their ancestors, until thawPinTargets(). Targets don't move
+     * during a solve, and concurrently solved chains may share ancestors of
+     * theirs.
+     */
+    public void freezePinTargets() {
+        ewbik.ik.ShadowNode3D[] tipChains = getPinnedTipChains();
+        if (pinTargetsFrozen.length != tipChains.length)
+            pinTargetsFrozen = new int[tipChains.length];
+        for (int i = 0; i < tipChains.length; i++) {
+            IKPin pin = tipChains[i].bonechainTip.getIKPin();
+            pinTargetsFrozen[i] = pin == null ? 0 : pin.getAxes().freezeAncestry();
+        }
+    }
+
+    public void thawPinTargets() {
+        ewbik.ik.ShadowNode3D[] tipChains = getPinnedTipChains();
+        for (int i = tipChains.length - 1; i >= 0; i--) {
+            IKPin pin = tipChains[i].bonechainTip.getIKPin();
+            if (pin != null)
+                pin.getAxes().thawAncestry(pinTargetsFrozen[i]);
         }
     }
 
@@ -227,7 +431,7 @@ public class ShadowNode3D {
     }
 
     public void generateSegmentMaps() {
-        for (ShadowBone b : simulatedBones.values()) {
+        for (ShadowBone b : simulatedBones) {
             b.simConstraintNode3D.emancipate();
             b.simLocalNode3D.emancipate();
         }
@@ -237,17 +441,34 @@ public class ShadowNode3D {
         Bone currentBone = bonechainTip;
         Bone stopOn = bonechainRoot;
         while (currentBone != null) {
-            ShadowBone sb = simulatedBones.get(currentBone);
-            if (sb == null) {
-                simulatedBones.put(currentBone, new ShadowBone(currentBone));
-                bonechainList.add(0, currentBone);
-            }
+            simulatedBones.add(new ShadowBone(currentBone));
+            bonechainList.add(currentBone);
 
             if (currentBone == stopOn)
                 break;
             currentBone = currentBone.getParent();
 
         }
+        // walked from tip to root, but both are kept rootmost first.
+        Collections.reverse(simulatedBones);
+        Collections.reverse(bonechainList);
+    }
+
+    /**
+     * @param b
+     * @return the ShadowBone simulating b in this chain, or null if b isn't part
+     *         of this chain.
+     */
+    public ShadowBone getSimulatedBone(Bone b) {
+        ShadowBone sb = b.parentArmature.getSimulatedBone(b);
+        if (sb != null && sb.getChain() == this)
+            return sb;
+        // the armature's index may not be built yet while chains are being generated.
+        for (ShadowBone candidate : simulatedBones) {
+            if (candidate.forBone == b)
+                return candidate;
+        }
+        return null;
     }
 
     public ArrayList<Bone> getStrandFromTip(Bone pinnedBone) {
@@ -285,19 +506,118 @@ public class ShadowNode3D {
         return innerPinnedChains;
     }
 
-    public float getManualMSD(Vector3[] locTips, Vector3[] locTargets, float[] weights) {
-        float manualRMSD = 0f;
-        float wsum = 0f;
-        for (int i = 0; i < locTargets.length; i++) {
-            float xd = locTargets[i].x - locTips[i].x;
-            float yd = locTargets[i].y - locTips[i].y;
-            float zd = locTargets[i].z - locTips[i].z;
-            float magsq = weights[i] * (xd * xd + yd * yd + zd * zd);
-            manualRMSD += magsq;
-            wsum += weights[i];
+    /**
+     * @return the weighted mean squared error between every pinned tip in this
+     *         chain and its descendant chains, and that tip's target. Each pin
+     *         contributes its squared tip to target distance, weighted by its pin
+     *         weight, and for each axis it aligns on, the squared distance
+     *         between the tip's and the target's unit headings, scaled by the
+     *         tip bone's height and weighted by pin weight times that axis'
+     *         priority. Returns 0 if no enabled pins are reachable.
+     */
+    public float getCurrentResidual() {
+        ewbik.ik.ShadowNode3D[] tipChains = getPinnedTipChains();
+        float error = 0f;
+        float totalWeight = 0f;
+        for (int i = 0; i < tipChains.length; i++) {
+            ewbik.ik.ShadowNode3D c = tipChains[i];
+            IKPin pin = c.bonechainTip.getIKPin();
+            if (pin == null || !pin.isEnabled())
+                continue;
+            Node3D tipNode3D = c.simulatedBones.get(c.simulatedBones.size() - 1).simLocalNode3D;
+            Node3D targetNode3D = pin.forBone.getPinnedAxes();
+            tipNode3D.updateGlobal();
+            targetNode3D.updateGlobal();
+            Transform3D tip = tipNode3D.getGlobalMBasis();
+            Transform3D target = targetNode3D.getGlobalMBasis();
+            float pinWeight = pin.getPinWeight();
+            error += pinWeight * tip.getOrigin().distSq(target.getOrigin());
+            totalWeight += pinWeight;
+
+            byte modeCode = pin.getModeCode();
+            float heightSq = c.bonechainTip.getBoneHeight() * c.bonechainTip.getBoneHeight();
+            if ((modeCode & IKPin.XDir) != 0) {
+                float w = pinWeight * pin.getXPriority();
+                error += w * heightSq * headingErrorSq(tip.getXHeading(), target.getXHeading());
+                totalWeight += w;
+            }
+            if ((modeCode & IKPin.YDir) != 0) {
+                float w = pinWeight * pin.getYPriority();
+                error += w * heightSq * headingErrorSq(tip.getYHeading(), target.getYHeading());
+                totalWeight += w;
+            }
+            if ((modeCode & IKPin.ZDir) != 0) {
+                float w = pinWeight * pin.getZPriority();
+                error += w * heightSq * headingErrorSq(tip.getZHeading(), target.getZHeading());
+                totalWeight += w;
+            }
         }
-        manualRMSD /= wsum;
-        return manualRMSD;
+        if (totalWeight <= 0f)
+            return 0f;
+        float residual = error / totalWeight;
+        return Float.isNaN(residual) ? 0f : residual;
+    }
+
+    /**
+     * @return the squared distance between a and b after normalizing both.
+     */
+    private static float headingErrorSq(Vector3 a, Vector3 b) {
+        float aMag = a.mag();
+        float bMag = b.mag();
+        if (aMag == 0f || bMag == 0f)
+            return 0f;
+        float xd = a.x / aMag - b.x / bMag;
+        float yd = a.y / aMag - b.y / bMag;
+        float zd = a.z / aMag - b.z / bMag;
+        return xd * xd + yd * yd + zd * zd;
+    }
+
+    /**
+     * @return this chain and each of its descendant chains whose tip is pinned,
+     *         collected on first use and kept until createHeadingArrays() is
+     *         called again.
+     */
+    ewbik.ik.ShadowNode3D[] getPinnedTipChains() {
+        if (pinnedTipChains == null) {
+            ArrayList<ewbik.ik.ShadowNode3D> found = new ArrayList<>();
+            ArrayList<ewbik.ik.ShadowNode3D> stack = new ArrayList<>();
+            stack.add(this);
+            while (!stack.isEmpty()) {
+                ewbik.ik.ShadowNode3D c = stack.remove(stack.size() - 1);
+                if (c.isTipPinned() && !c.simulatedBones.isEmpty())
+                    found.add(c);
+                stack.addAll(c.bonechainChild);
+            }
+            pinnedTipChains = found.toArray(new ewbik.ik.ShadowNode3D[0]);
+        }
+        return pinnedTipChains;
+    }
+
+    /**
+     * @return the weighted mean of the squared distances between corresponding
+     *         tips and targets. The solver computes this from its packed
+     *         headings instead (see getPackedMSD()).
+     */
+    public float getManualMSD(Vector3[] locTips, Vector3[] locTargets, float[] weights) {
+        int count = locTargets.length;
+        float[] tips = new float[count * 3];
+        float[] targets = new float[count * 3];
+        HeadingKernels.pack(locTips, 0, count, tips, 0);
+        HeadingKernels.pack(locTargets, 0, count, targets, 0);
+        return HeadingKernels.weightedMSD(tips, 0, targets, 0, weights, 0, count);
+    }
+
+    /**
+     * @return getManualMSD() of the packed tip and target headings.
+     */
+    private float getPackedMSD() {
+        return HeadingKernels.weightedMSD(packedTipHeadings, 0, packedTargetHeadings, 0, weights, 0,
+                weights.length);
+    }
+
+    private void updatePackedTipHeadings(Node3D thisBoneNode3D) {
+        upateTipHeadings(localizedTipHeadings, thisBoneNode3D);
+        HeadingKernels.pack(localizedTipHeadings, 0, localizedTipHeadings.length, packedTipHeadings, 0);
     }
 
     /**
@@ -325,12 +645,28 @@ public class ShadowNode3D {
             int stabilizationPasses,
             int iteration,
             float totalIterations) {
+        updateOptimalRotationToPinnedDescendants(getSimulatedBone(forBone), dampening, translate,
+                stabilizationPasses, iteration, totalIterations);
+    }
 
-        ShadowBone sb = simulatedBones.get(forBone);
+    /**
+     * same as {@link #updateOptimalRotationToPinnedDescendants(Bone, float, boolean, int, int, float)},
+     * but takes the bone's ShadowBone directly, so that callers walking a
+     * SolverPlan don't need to look it up.
+     */
+    public void updateOptimalRotationToPinnedDescendants(
+            ShadowBone sb,
+            float dampening,
+            boolean translate,
+            int stabilizationPasses,
+            int iteration,
+            float totalIterations) {
+
+        Bone forBone = sb.forBone;
         Node3D thisBoneNode3D = sb.simLocalNode3D;
         thisBoneNode3D.updateGlobal();
 
-        Quaternion bestOrientation = new Quaternion(thisBoneNode3D.getGlobalMBasis().rotation.rotation);
+        bestOrientation.set(thisBoneNode3D.getGlobalMBasis().rotation.rotation);
         float newDampening = -1;
         if (forBone.getParent() == null || localizedTargetHeadings.length == 1)
             stabilizationPasses = 0;
@@ -339,29 +675,26 @@ public class ShadowNode3D {
         }
 
         updateTargetHeadings(localizedTargetHeadings, weights, thisBoneNode3D);
-        upateTipHeadings(localizedTipHeadings, thisBoneNode3D);
+        HeadingKernels.pack(localizedTargetHeadings, 0, localizedTargetHeadings.length, packedTargetHeadings, 0);
+        updatePackedTipHeadings(thisBoneNode3D);
 
         float bestRMSD = 0f;
-        QCP qcpConvergenceCheck = new QCP(MathUtils.FLOAT_ROUNDING_ERROR, MathUtils.FLOAT_ROUNDING_ERROR);
         float newRMSD = 999999f;
 
         if (stabilizationPasses > 0)
-            bestRMSD = getManualMSD(localizedTipHeadings, localizedTargetHeadings, weights);
+            bestRMSD = getPackedMSD();
 
         for (int i = 0; i < stabilizationPasses + 1; i++) {
             updateOptimalRotationToPinnedDescendants(
                     sb, newDampening,
                     translate,
-                    localizedTipHeadings,
-                    localizedTargetHeadings,
-                    weights,
-                    qcpConvergenceCheck,
+                    sb.aligner,
                     iteration,
                     totalIterations);
 
             if (stabilizationPasses > 0) {
-                upateTipHeadings(localizedTipHeadings, thisBoneNode3D);
-                newRMSD = getManualMSD(localizedTipHeadings, localizedTargetHeadings, weights);
+                updatePackedTipHeadings(thisBoneNode3D);
+                newRMSD = getPackedMSD();
 
                 if (bestRMSD >= newRMSD) {
                     if (sb.springy) {
@@ -379,8 +712,8 @@ public class ShadowNode3D {
                                     sb.cosHalfReturnfullnessDampened[iteration],
                                     sb.halfReturnfullnessDampened[iteration]);
                         }
-                        upateTipHeadings(localizedTipHeadings, thisBoneNode3D);
-                        newRMSD = getManualMSD(localizedTipHeadings, localizedTargetHeadings, weights);
+                        updatePackedTipHeadings(thisBoneNode3D);
+                        newRMSD = getPackedMSD();
                     }
                     bestOrientation.set(thisBoneNode3D.getGlobalMBasis().rotation.rotation);
                     bestRMSD = newRMSD;
@@ -400,19 +733,20 @@ public class ShadowNode3D {
             ShadowBone sb,
             float dampening,
             boolean translate,
-            Vector3[] localizedTipHeadings,
-            Vector3[] localizedTargetHeadings,
-            float[] weights,
             QCP qcpOrientationAligner,
             int iteration,
             float totalIterations) {
 
-        qcpOrientationAligner.setMaxIterations(0);
-        Quaternion qcpRot = qcpOrientationAligner.weightedSuperpose(localizedTipHeadings, localizedTargetHeadings,
-                weights,
-                translate);
+        int newtonSteps = sb.forBone.parentArmature.getQCPNewtonSteps();
+        qcpOrientationAligner.setMaxIterations(newtonSteps);
+        if (newtonSteps > 0)
+            qcpOrientationAligner.setEigenvaluePrecision(sb.forBone.parentArmature.getQCPPrecision());
+        qcpOrientationAligner.weightedSuperpose(packedTipHeadings, 0, packedTargetHeadings, 0,
+                weights, 0, weights.length,
+                translate,
+                qcpRot, qcpTranslateBy);
 
-        Vector3 translateBy = qcpOrientationAligner.getTranslation();
+        Vector3 translateBy = qcpTranslateBy;
         float boneDamp = sb.cosHalfDampen;
 
         if (dampening != -1) {
@@ -446,21 +780,24 @@ public class ShadowNode3D {
             hdx++;
 
             if ((modeCode & IKPin.XDir) != 0) {
-                Ray3D xTarget = effectorNode3D.calculateX().getRayScaledBy(weights[hdx]);
-                localizedTargetHeadings[hdx].set(xTarget.p2()).sub(origin);
-                xTarget.setToInvertedTip(localizedTargetHeadings[hdx + 1]).sub(origin);
+                Ray3D xTarget = effectorNode3D.calculateX();
+                float scaleBy = weights[hdx];
+                xTarget.setToScaledTip(scaleBy, localizedTargetHeadings[hdx]).sub(origin);
+                xTarget.setToInvertedScaledTip(scaleBy, localizedTargetHeadings[hdx + 1]).sub(origin);
                 hdx += 2;
             }
             if ((modeCode & IKPin.YDir) != 0) {
-                Ray3D yTarget = effectorNode3D.calculateY().getRayScaledBy(weights[hdx]);
-                localizedTargetHeadings[hdx] = Vector3.sub(yTarget.p2(), origin);
-                yTarget.setToInvertedTip(localizedTargetHeadings[hdx + 1]).sub(origin);
+                Ray3D yTarget = effectorNode3D.calculateY();
+                float scaleBy = weights[hdx];
+                yTarget.setToScaledTip(scaleBy, localizedTargetHeadings[hdx]).sub(origin);
+                yTarget.setToInvertedScaledTip(scaleBy, localizedTargetHeadings[hdx + 1]).sub(origin);
                 hdx += 2;
             }
             if ((modeCode & IKPin.ZDir) != 0) {
-                Ray3D zTarget = effectorNode3D.calculateZ().getRayScaledBy(weights[hdx]);
-                localizedTargetHeadings[hdx] = Vector3.sub(zTarget.p2(), origin);
-                zTarget.setToInvertedTip(localizedTargetHeadings[hdx + 1]).sub(origin);
+                Ray3D zTarget = effectorNode3D.calculateZ();
+                float scaleBy = weights[hdx];
+                zTarget.setToScaledTip(scaleBy, localizedTargetHeadings[hdx]).sub(origin);
+                zTarget.setToInvertedScaledTip(scaleBy, localizedTargetHeadings[hdx + 1]).sub(origin);
                 hdx += 2;
             }
         }
@@ -481,24 +818,25 @@ public class ShadowNode3D {
             Node3D targetNode3D = pin.forBone.getPinnedAxes();
             targetNode3D.updateGlobal();
             float scaleBy = thisBoneNode3D.calculatePosition().dist(targetNode3D.calculatePosition());
+            localizedTipHeadings[hdx].set(tipNode3D.calculatePosition()).sub(origin);
             hdx++;
 
             if ((modeCode & IKPin.XDir) != 0) {
-                Ray3D xTip = tipNode3D.calculateX().getRayScaledBy(scaleBy);
-                localizedTipHeadings[hdx].set(xTip.p2()).sub(origin);
-                xTip.setToInvertedTip(localizedTipHeadings[hdx + 1]).sub(origin);
+                Ray3D xTip = tipNode3D.calculateX();
+                xTip.setToScaledTip(scaleBy, localizedTipHeadings[hdx]).sub(origin);
+                xTip.setToInvertedScaledTip(scaleBy, localizedTipHeadings[hdx + 1]).sub(origin);
                 hdx += 2;
             }
             if ((modeCode & IKPin.YDir) != 0) {
-                Ray3D yTip = tipNode3D.calculateY().getRayScaledBy(scaleBy);
-                localizedTipHeadings[hdx].set(yTip.p2()).sub(origin);
-                yTip.setToInvertedTip(localizedTipHeadings[hdx + 1]).sub(origin);
+                Ray3D yTip = tipNode3D.calculateY();
+                yTip.setToScaledTip(scaleBy, localizedTipHeadings[hdx]).sub(origin);
+                yTip.setToInvertedScaledTip(scaleBy, localizedTipHeadings[hdx + 1]).sub(origin);
                 hdx += 2;
             }
             if ((modeCode & IKPin.ZDir) != 0) {
-                Ray3D zTip = tipNode3D.calculateZ().getRayScaledBy(scaleBy);
-                localizedTipHeadings[hdx].set(zTip.p2()).sub(origin);
-                zTip.setToInvertedTip(localizedTipHeadings[hdx + 1]).sub(origin);
+                Ray3D zTip = tipNode3D.calculateZ();
+                zTip.setToScaledTip(scaleBy, localizedTipHeadings[hdx]).sub(origin);
+                zTip.setToInvertedScaledTip(scaleBy, localizedTipHeadings[hdx + 1]).sub(origin);
                 hdx += 2;
             }
         }
@@ -510,36 +848,61 @@ public class ShadowNode3D {
      *         which the inputBone belongs.
      */
     public ewbik.ik.ShadowNode3D getChainFor(Bone chainMember) {
-        ewbik.ik.ShadowNode3D result = null;
-        if (this.bonechainList.contains(chainMember))
-            return this;
-        if (this.bonechainParent != null)
-            result = this.bonechainParent.getAncestorSegmentContaining(chainMember);
+        ewbik.ik.ShadowNode3D result = getAncestorSegmentContaining(chainMember);
         if (result == null)
             result = getChildSegmentContaining(chainMember);
         return result;
     }
 
+    /**
+     * @return the chain containing b if it is this chain or one of its
+     *         descendants, otherwise null.
+     */
     public ewbik.ik.ShadowNode3D getChildSegmentContaining(Bone b) {
-        if (bonechainList.contains(b)) {
-            return this;
-        } else {
-            for (ewbik.ik.ShadowNode3D s : bonechainChild) {
-                ewbik.ik.ShadowNode3D childContaining = s.getChildSegmentContaining(b);
-                if (childContaining != null)
-                    return childContaining;
+        ewbik.ik.ShadowNode3D chain = chainContaining(b);
+        if (chain != null && chain.distanceToRoot >= this.distanceToRoot) {
+            ewbik.ik.ShadowNode3D ancestor = chain;
+            while (ancestor.distanceToRoot > this.distanceToRoot) {
+                ancestor = ancestor.bonechainParent;
             }
+            if (ancestor == this)
+                return chain;
         }
         return null;
     }
 
+    /**
+     * @return the chain containing b if it is this chain or one of its
+     *         ancestors, otherwise null.
+     */
     public ewbik.ik.ShadowNode3D getAncestorSegmentContaining(Bone b) {
-        if (bonechainList.contains(b))
-            return this;
-        else if (this.bonechainParent != null)
-            return this.bonechainParent.getAncestorSegmentContaining(b);
-        else
-            return null;
+        ewbik.ik.ShadowNode3D chain = chainContaining(b);
+        if (chain != null && chain.distanceToRoot <= this.distanceToRoot) {
+            ewbik.ik.ShadowNode3D descendant = this;
+            while (descendant.distanceToRoot > chain.distanceToRoot) {
+                descendant = descendant.bonechainParent;
+            }
+            if (descendant == chain)
+                return chain;
+        }
+        return null;
+    }
+
+    /**
+     * looks up b's chain through the armature's index.
+     *
+     * @return b's chain, or null if b isn't part of any chain.
+     * @throws IllegalStateException if b hasn't been indexed, which means its
+     *                               armature's bonechains haven't been rebuilt
+     *                               since b was added.
+     */
+    private ewbik.ik.ShadowNode3D chainContaining(Bone b) {
+        if (b.boneIndex == -1 || b.parentArmature == null) {
+            throw new IllegalStateException("bone " + b.getTag()
+                    + " hasn't been indexed, call updateBonechains() on its armature first");
+        }
+        ShadowBone sb = b.parentArmature.getSimulatedBone(b);
+        return sb == null ? null : sb.getChain();
     }
 
     /**
@@ -610,25 +973,50 @@ public class ShadowNode3D {
         }
     }
 
+    /**
+     * work stacks for recursivelyAlignSimAxesOutwardFrom, kept so that aligning
+     * the simulation before every solve doesn't allocate. Both are empty between
+     * calls.
+     */
+    private final ArrayList<Bone> alignBoneStack = new ArrayList<>();
+    private final ArrayList<ewbik.ik.ShadowNode3D> alignChainStack = new ArrayList<>();
+
+    /**
+     * Despite the name, walks the bones with an explicit stack, so that very long
+     * chains don't overflow the call stack. Bones are visited depth first,
+     * parents before children.
+     */
     public void recursivelyAlignSimAxesOutwardFrom(Bone b, boolean forceGlobal) {
-        ewbik.ik.ShadowNode3D bChain = getChildSegmentContaining(b);
-        if (bChain != null) {
-            ShadowBone sb = bChain.simulatedBones.get(b);
+        // each entry is a bone, and the chain whose getChildSegmentContaining() to
+        // look it up with.
+        ArrayList<Bone> boneStack = alignBoneStack;
+        ArrayList<ewbik.ik.ShadowNode3D> chainStack = alignChainStack;
+        boneStack.add(b);
+        chainStack.add(this);
+        while (!boneStack.isEmpty()) {
+            Bone current = boneStack.remove(boneStack.size() - 1);
+            ewbik.ik.ShadowNode3D bChain = chainStack.remove(chainStack.size() - 1)
+                    .getChildSegmentContaining(current);
+            if (bChain == null)
+                continue;
+            ShadowBone sb = bChain.getSimulatedBone(current);
             Node3D bNode3D = sb.simLocalNode3D;
             Node3D cNode3D = sb.simConstraintNode3D;
-            if (forceGlobal) {
-                bNode3D.alignGlobalsTo(b.localAxes());
+            if (forceGlobal && current == b) {
+                bNode3D.alignGlobalsTo(current.localAxes());
                 bNode3D.markDirty();
                 bNode3D.updateGlobal();
-                cNode3D.alignGlobalsTo(b.getMajorRotationAxes());
+                cNode3D.alignGlobalsTo(current.getMajorRotationAxes());
                 cNode3D.markDirty();
                 cNode3D.updateGlobal();
             } else {
-                bNode3D.alignLocalsTo(b.localAxes());
-                cNode3D.alignLocalsTo(b.getMajorRotationAxes());
+                bNode3D.alignLocalsTo(current.localAxes());
+                cNode3D.alignLocalsTo(current.getMajorRotationAxes());
             }
-            for (Bone bc : b.getChildren()) {
-                bChain.recursivelyAlignSimAxesOutwardFrom(bc, false);
+            ArrayList<Bone> children = current.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                boneStack.add(children.get(i));
+                chainStack.add(bChain);
             }
         }
     }
@@ -640,24 +1028,29 @@ public class ShadowNode3D {
      * @param b bone to start from
      */
     public void recursivelyAlignBonesToSimAxesFrom(Bone b) {
-        ewbik.ik.ShadowNode3D chain = b.parentArmature.boneSegmentMap.get(b); // getChainFor(b);
-        if (chain != null) {
-            ShadowBone sb = chain.simulatedBones.get(b);
+        // depth first with an explicit stack, parents before children, so that
+        // very long chains don't overflow the call stack.
+        ArrayList<Bone> stack = new ArrayList<>();
+        stack.add(b);
+        while (!stack.isEmpty()) {
+            Bone current = stack.remove(stack.size() - 1);
+            ShadowBone sb = current.parentArmature.getSimulatedBone(current);
+            ewbik.ik.ShadowNode3D chain = sb == null ? null : sb.getChain();
+            if (chain == null)
+                continue;
             Node3D simulatedLocalNode3D = sb.simLocalNode3D;
-            if (b.getParent() != null) {
-                b.localAxes().alignOrientationTo(simulatedLocalNode3D);
+            if (current.getParent() != null) {
+                current.localAxes().alignOrientationTo(simulatedLocalNode3D);
             } else {
-                b.localAxes().alignLocalsTo(simulatedLocalNode3D);
+                current.localAxes().alignLocalsTo(simulatedLocalNode3D);
             }
-            for (Bone bc : b.getChildren()) {
-                recursivelyAlignBonesToSimAxesFrom(bc);
+            ArrayList<Bone> children = current.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.add(children.get(i));
             }
             chain.simAligned = false;
             chain.processed = false;
-        } else {
-            int debug = 0;
         }
-
     }
 
     /**
@@ -679,12 +1072,114 @@ public class ShadowNode3D {
         }
     }
 
-    public void setProcessed(boolean b) {
-        this.processed = b;
-        if (processed == false) {
-            for (ewbik.ik.ShadowNode3D c : bonechainChild) {
-                c.setProcessed(false);
+    /**
+     * Determines which chains in this chain's subtree need solving. A chain needs
+     * solving if the target of any pin in its subtree, or any bone in its subtree,
+     * has moved since its last converged solve, or if its parent chain needs
+     * solving (which would move this chain's base).
+     * <p>
+     * Chains which don't need solving also have no descendants which do.
+     *
+     * @return true if this chain needs solving
+     */
+    public boolean refreshSolveDirty() {
+        markChangedSubtrees();
+        propagateSolveDirty(false);
+        return solveDirty;
+    }
+
+    private boolean markChangedSubtrees() {
+        boolean changed = !solveStampsValid || ownInputsChanged();
+        for (ewbik.ik.ShadowNode3D c : bonechainChild) {
+            if (c.markChangedSubtrees())
+                changed = true;
+        }
+        solveDirty = changed;
+        return changed;
+    }
+
+    private void propagateSolveDirty(boolean ancestorDirty) {
+        solveDirty = solveDirty || ancestorDirty;
+        for (ewbik.ik.ShadowNode3D c : bonechainChild) {
+            c.propagateSolveDirty(solveDirty);
+        }
+    }
+
+    private boolean ownInputsChanged() {
+        IKPin pin = bonechainTip.getIKPin();
+        if (pin != null) {
+            Node3D target = pin.getAxes();
+            target.updateGlobal();
+            if (target.getTransformVersion() != tipTargetVersion)
+                return true;
+        }
+        if (boneVersions.length != simulatedBones.size())
+            return true;
+        for (int i = 0; i < boneVersions.length; i++) {
+            Node3D boneAxes = simulatedBones.get(i).forBone.localAxes();
+            boneAxes.updateGlobal();
+            if (boneAxes.getTransformVersion() != boneVersions[i])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the current transform versions of the pin targets and bones
+     * throughout this chain's subtree, so that the next refreshSolveDirty() can
+     * tell what has moved since. Should be called once the bones have been aligned
+     * to the solution.
+     *
+     * @param converged if false, the chains which were just solved will be
+     *                  considered dirty by the next refreshSolveDirty() even if
+     *                  nothing moves, so that they can keep converging.
+     */
+    public void recordSolveStamps(boolean converged) {
+        forEachChainInSubtree((c) -> c.recordOwnSolveStamps(converged));
+    }
+
+    private void recordOwnSolveStamps(boolean converged) {
+        if (solveDirty && !converged) {
+            solveStampsValid = false;
+        } else {
+            IKPin pin = bonechainTip.getIKPin();
+            if (pin != null) {
+                Node3D target = pin.getAxes();
+                target.updateGlobal();
+                tipTargetVersion = target.getTransformVersion();
             }
+            if (boneVersions.length != simulatedBones.size())
+                boneVersions = new long[simulatedBones.size()];
+            for (int i = 0; i < boneVersions.length; i++) {
+                Node3D boneAxes = simulatedBones.get(i).forBone.localAxes();
+                boneAxes.updateGlobal();
+                boneVersions[i] = boneAxes.getTransformVersion();
+            }
+            solveStampsValid = true;
+        }
+    }
+
+    /**
+     * @return false if refreshSolveDirty() found that nothing this chain's
+     *         solution depends on has changed since it was last solved.
+     */
+    public boolean isSolveDirty() {
+        return solveDirty;
+    }
+
+    void resetSolveState() {
+        this.simAligned = false;
+        this.processed = false;
+    }
+
+    /**
+     * @param b if false, this chain's descendants are marked unprocessed too.
+     */
+    public void setProcessed(boolean b) {
+        if (b) {
+            this.processed = true;
+        } else {
+            forEachChainInSubtree((c) -> c.processed = false);
         }
     }
 
@@ -701,9 +1196,20 @@ public class ShadowNode3D {
         float[] cosHalfReturnfullnessDampened;
         float[] halfReturnfullnessDampened;
         boolean springy = false;
+        /**
+         * this bone's index in the armature's SolverPlan.
+         */
+        int planIndex = -1;
+        /**
+         * aligns this bone's tip headings to its target headings. Kept for the
+         * bone's lifetime so that its eigenvalue refinement can start from where
+         * the previous iteration ended up.
+         */
+        final QCP aligner = new QCP(MathUtils.FLOAT_ROUNDING_ERROR, MathUtils.FLOAT_ROUNDING_ERROR);
 
         public ShadowBone(Bone toSimulate) {
             forBone = toSimulate;
+            aligner.setWarmStart(true);
             simLocalNode3D = forBone.localAxes().getGlobalCopy();
             simConstraintNode3D = forBone.getMajorRotationAxes().getGlobalCopy();
             float predamp = 1f - forBone.getStiffness();
@@ -719,7 +1225,19 @@ public class ShadowNode3D {
             }
         }
 
+        public Bone forBone() {
+            return forBone;
+        }
+
+        /**
+         * @return the chain this bone is simulated in.
+         */
+        public ewbik.ik.ShadowNode3D getChain() {
+            return ShadowNode3D.this;
+        }
+
         public void updateCosDampening() {
+            solveStampsValid = false;
             float predamp = 1f - forBone.getStiffness();
             float defaultDampening = forBone.parentArmature.getDampening();
             float dampening = forBone.getParent() == null ? MathUtils.PI : predamp * defaultDampening;
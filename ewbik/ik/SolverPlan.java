@@ -0,0 +1,199 @@
+package ewbik.ik;
+
+import ik.Bone;
+import processing.Node3D;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A flat, index based snapshot of a ShadowNode3D hierarchy, compiled whenever
+ * the bonechains are rebuilt.
+ * <p>
+ * Chains are stored in pre-order, so the chains descending from any chain
+ * occupy the contiguous range [chainIndex, chainSubtreeEnd[chainIndex]).
+ * Simulated bones are stored chain by chain, rootmost first, so each chain's
+ * bones occupy [chainBoneStart[chainIndex], chainBoneEnd[chainIndex]) and
+ * every bone comes after its parent.
+ * <p>
+ * This lets the solver walk chains and bones as array ranges instead of
+ * following Bone.getParent() and looking up simulatedBones, and lets the
+ * solved pose be copied back to the armature in a single linear pass. The plan
+ * only holds indices: the transforms themselves stay in each bone's simulated
+ * axes.
+ */
+public final class SolverPlan {
+    public final ShadowNode3D[] chains;
+    /**
+     * index of each chain's parent chain, or -1 for the root chain.
+     */
+    public final int[] chainParent;
+    /**
+     * exclusive end of the range of chains descending from each chain.
+     */
+    public final int[] chainSubtreeEnd;
+    public final int[] chainBoneStart;
+    public final int[] chainBoneEnd;
+
+    public final ShadowNode3D.ShadowBone[] bones;
+
+    private SolverPlan(ArrayList<ShadowNode3D> chainList, ArrayList<ShadowNode3D.ShadowBone> boneList,
+            int[] chainParent, int[] chainSubtreeEnd, int[] chainBoneStart, int[] chainBoneEnd) {
+        this.chains = chainList.toArray(new ShadowNode3D[0]);
+        this.bones = boneList.toArray(new ShadowNode3D.ShadowBone[0]);
+        this.chainParent = chainParent;
+        this.chainSubtreeEnd = chainSubtreeEnd;
+        this.chainBoneStart = chainBoneStart;
+        this.chainBoneEnd = chainBoneEnd;
+
+        for (int c = 0; c < chains.length; c++) {
+            chains[c].planIndex = c;
+            for (int i = chainBoneStart[c]; i < chainBoneEnd[c]; i++) {
+                bones[i].planIndex = i;
+            }
+        }
+    }
+
+    /**
+     * compiles a plan for the given chain and all of its descendants.
+     *
+     * @param root
+     * @return the compiled plan
+     */
+    public static SolverPlan compile(ShadowNode3D root) {
+        ArrayList<ShadowNode3D> chainList = new ArrayList<>();
+        collectChains(root, chainList);
+        int chainCount = chainList.size();
+        int[] chainParent = new int[chainCount];
+        int[] chainSubtreeEnd = new int[chainCount];
+        int[] chainBoneStart = new int[chainCount];
+        int[] chainBoneEnd = new int[chainCount];
+
+        HashMap<ShadowNode3D, Integer> chainIndex = new HashMap<>();
+        for (int c = 0; c < chainCount; c++) {
+            chainIndex.put(chainList.get(c), c);
+        }
+
+        ArrayList<ShadowNode3D.ShadowBone> boneList = new ArrayList<>();
+        for (int c = 0; c < chainCount; c++) {
+            ShadowNode3D chain = chainList.get(c);
+            Integer parent = chainIndex.get(chain.getBonechainParent());
+            chainParent[c] = parent == null ? -1 : parent;
+            chainBoneStart[c] = boneList.size();
+            boneList.addAll(chain.simulatedBones);
+            chainBoneEnd[c] = boneList.size();
+        }
+        // in pre-order every chain comes after its parent, so walking backwards
+        // finishes each chain's subtree before extending its parent's over it.
+        for (int c = chainCount - 1; c >= 0; c--) {
+            chainSubtreeEnd[c] = Math.max(chainSubtreeEnd[c], c + 1);
+            int parent = chainParent[c];
+            if (parent != -1) {
+                chainSubtreeEnd[parent] = Math.max(chainSubtreeEnd[parent], chainSubtreeEnd[c]);
+            }
+        }
+        return new SolverPlan(chainList, boneList, chainParent, chainSubtreeEnd, chainBoneStart, chainBoneEnd);
+    }
+
+    /**
+     * adds root and its descendant chains to chainList in pre-order.
+     */
+    private static void collectChains(ShadowNode3D root, ArrayList<ShadowNode3D> chainList) {
+        ArrayList<ShadowNode3D> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            ShadowNode3D chain = stack.remove(stack.size() - 1);
+            chainList.add(chain);
+            // pushed last to first, so that the first child is visited next.
+            for (int i = chain.bonechainChild.size() - 1; i >= 0; i--) {
+                stack.add(chain.bonechainChild.get(i));
+            }
+        }
+    }
+
+    /**
+     * aligns every bone in the given chain and its descendants to its simulated
+     * axes, rootmost bones first. Equivalent to
+     * ShadowNode3D.recursivelyAlignBonesToSimAxesFrom, but as a single pass over
+     * the plan.
+     *
+     * @param fromChain index of the chain to start from
+     */
+    public void alignBonesToSimAxes(int fromChain) {
+        alignBonesToSimAxes(fromChain, false);
+    }
+
+    /**
+     * @param fromChain       index of the chain to start from
+     * @param dirtyChainsOnly if true, chains for which
+     *                        ShadowNode3D.isSolveDirty() is false are left as
+     *                        they are.
+     */
+    public void alignBonesToSimAxes(int fromChain, boolean dirtyChainsOnly) {
+        int chainEnd = chainSubtreeEnd[fromChain];
+        for (int c = fromChain; c < chainEnd; c++) {
+            if (dirtyChainsOnly && !chains[c].isSolveDirty())
+                continue;
+            int start = chainBoneStart[c];
+            int end = chainBoneEnd[c];
+            for (int i = start; i < end; i++) {
+                Bone b = bones[i].forBone;
+                Node3D sim = bones[i].simLocalNode3D;
+                if (b.getParent() != null) {
+                    b.localAxes().alignOrientationTo(sim);
+                } else {
+                    b.localAxes().alignLocalsTo(sim);
+                }
+            }
+            chains[c].resetSolveState();
+        }
+    }
+
+    /**
+     * brings the global transform of every bone in the given chain and its
+     * descendants up to date. Bones are stored after their parents, so each
+     * update finds its parent already current and the pass stays linear in the
+     * number of bones visited. Nodes outside the plan are left to update lazily.
+     *
+     * @param fromChain       index of the chain to start from
+     * @param dirtyChainsOnly if true, bones in chains for which
+     *                        ShadowNode3D.isSolveDirty() is false are skipped.
+     */
+    public void updateBoneGlobals(int fromChain, boolean dirtyChainsOnly) {
+        int chainEnd = chainSubtreeEnd[fromChain];
+        for (int c = fromChain; c < chainEnd; c++) {
+            if (dirtyChainsOnly && !chains[c].isSolveDirty())
+                continue;
+            for (int i = chainBoneStart[c]; i < chainBoneEnd[c]; i++) {
+                bones[i].forBone.localAxes().updateGlobal();
+            }
+        }
+    }
+
+    /**
+     * calls IKUpdateNotification() on every bone in the given chain and its
+     * descendants.
+     *
+     * @param fromChain index of the chain to start from
+     */
+    public void notifyBonesOfCompletedIKSolution(int fromChain) {
+        notifyBonesOfCompletedIKSolution(fromChain, false);
+    }
+
+    /**
+     * @param fromChain       index of the chain to start from
+     * @param dirtyChainsOnly if true, bones in chains for which
+     *                        ShadowNode3D.isSolveDirty() is false aren't
+     *                        notified.
+     */
+    public void notifyBonesOfCompletedIKSolution(int fromChain, boolean dirtyChainsOnly) {
+        int chainEnd = chainSubtreeEnd[fromChain];
+        for (int c = fromChain; c < chainEnd; c++) {
+            if (dirtyChainsOnly && !chains[c].isSolveDirty())
+                continue;
+            for (int i = chainBoneStart[c]; i < chainBoneEnd[c]; i++) {
+                bones[i].forBone.IKUpdateNotification();
+            }
+        }
+    }
+}
@@ -677,6 +677,28 @@ public class Basis {
         return new Basis(w, x, y, z);
     }
 
+    /**
+     * same as {@link #multiply(Basis, Basis)}, but stores the product in storeIn
+     * instead of allocating. storeIn may be q1 or q2.
+     */
+    public static void multiply(final Basis q1, final Basis q2, final Basis storeIn) {
+        final float q1a = q1.getQ0();
+        final float q1b = q1.getQ1();
+        final float q1c = q1.getQ2();
+        final float q1f = q1.getQ3();
+
+        final float q2a = q2.getQ0();
+        final float q2b = q2.getQ1();
+        final float q2c = q2.getQ2();
+        final float q2f = q2.getQ3();
+
+        storeIn.set(q1a * q2a - q1b * q2b - q1c * q2c - q1f * q2f,
+                q1a * q2b + q1b * q2a + q1c * q2f - q1f * q2c,
+                q1a * q2c - q1b * q2f + q1c * q2a + q1f * q2b,
+                q1a * q2f + q1b * q2c - q1c * q2b + q1f * q2a,
+                false);
+    }
+
     /**
      * Computes the dot-product of two quaternions.
      *
@@ -920,6 +942,26 @@ public class Basis {
                 -q3 / squareNorm);
     }
 
+    /**
+     * same as {@link #getInverse()}, but stores the result in storeIn instead of
+     * allocating.
+     */
+    public void getInverse(Basis storeIn) {
+        final float squareNorm = q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3;
+        if (squareNorm < MathUtils.SAFE_MIN_DOUBLE) {
+            try {
+                throw new Exception("Zero Norm");
+            } catch (Exception e) {
+                e.printStackTrace(System.out);
+            }
+        }
+
+        storeIn.set(q0 / squareNorm,
+                -q1 / squareNorm,
+                -q2 / squareNorm,
+                -q3 / squareNorm, false);
+    }
+
     /**
      * Get the angle of the rotation.
      *
@@ -1414,6 +1456,25 @@ public class Basis {
         return result;
     }
 
+    /**
+     * Apply the rotation to a vector, storing the image in storeIn. storeIn may
+     * be u.
+     *
+     * @param u       vector to apply the rotation to
+     * @param storeIn the vector to store the image of u in
+     */
+    public void applyTo(Vector3 u, Vector3 storeIn) {
+
+        float x = u.x;
+        float y = u.y;
+        float z = u.z;
+
+        float s = q1 * x + q2 * y + q3 * z;
+        storeIn.set(2 * (q0 * (x * q0 - (q2 * z - q3 * y)) + s * q1) - x,
+                2 * (q0 * (y * q0 - (q3 * x - q1 * z)) + s * q2) - y,
+                2 * (q0 * (z * q0 - (q1 * y - q2 * x)) + s * q3) - z);
+    }
+
     /**
      * Multiplies the instance by a scalar.
      *
@@ -1491,6 +1552,27 @@ public class Basis {
 
     }
 
+    /**
+     * Apply the inverse of the rotation to a vector, storing the result in
+     * storeIn. storeIn may be u.
+     *
+     * @param u       vector to apply the inverse of the rotation to
+     * @param storeIn the vector to store the result in
+     */
+    public void applyInverseTo(Vector3 u, Vector3 storeIn) {
+
+        float x = u.x;
+        float y = u.y;
+        float z = u.z;
+
+        float s = q1 * x + q2 * y + q3 * z;
+        float m0 = -q0;
+
+        storeIn.set(2 * (m0 * (x * m0 - (q2 * z - q3 * y)) + s * q1) - x,
+                2 * (m0 * (y * m0 - (q3 * x - q1 * z)) + s * q2) - y,
+                2 * (m0 * (z * m0 - (q1 * y - q2 * x)) + s * q3) - z);
+    }
+
     /**
      * Apply the inverse of the rotation to a vector stored in an array.
      *
@@ -1665,11 +1747,13 @@ public class Basis {
 
         float normProduct = u.mag() * v.mag();
         if (normProduct == 0) {
-            try {
-                throw new Exception("Zero Norm for Rotation defining vector");
-            } catch (Exception e) {
-                e.printStackTrace(System.out);
-            }
+            // same as the Basis(u, v) constructor, so that callers can reuse an
+            // instance in place of constructing one.
+            q0 = 1f;
+            q1 = 0f;
+            q2 = 0f;
+            q3 = 0f;
+            return;
         }
 
         float dot = u.dot(v);
@@ -1687,10 +1771,10 @@ public class Basis {
             // the shortest possible rotation: axis orthogonal to this plane
             q0 = MathUtils.sqrt(0.5f * (1.0f + dot / normProduct));
             float coeff = 1.0f / (2.0f * q0 * normProduct);
-            Vector3 q = (Vector3) v.crossCopy(u);
-            q1 = coeff * q.x;
-            q2 = coeff * q.y;
-            q3 = coeff * q.z;
+            // v x u, computed inline to avoid allocating in the single heading QCP case
+            q1 = coeff * (v.y * u.z - v.z * u.y);
+            q2 = coeff * (v.z * u.x - v.x * u.z);
+            q3 = coeff * (v.x * u.y - v.y * u.x);
         }
 
     }
@@ -0,0 +1,191 @@
+package ewbik.math;
+
+/**
+ * The inner loops of QCP and the solver's residual measurement, over packed
+ * buffers of headings instead of arrays of Vector3.
+ * <p>
+ * Headings are stored interleaved (x0, y0, z0, x1, y1, z1, ...) starting at the
+ * given offset, and weights are stored one per heading. A null weights array
+ * weighs every heading as 1. Each kernel is a single forward pass with no
+ * allocation or indirection, so that the JIT can keep the accumulators in
+ * registers and unroll the loop.
+ * <p>
+ * QCP runs every overload of weightedSuperpose on these kernels, and the
+ * solver keeps its tip and target headings packed to feed them directly. Every
+ * kernel accumulates in the same order as the Vector3 loop it replaced, so
+ * solves give identical results.
+ */
+public final class HeadingKernels {
+
+    private HeadingKernels() {
+    }
+
+    /**
+     * copies count Vector3s into an interleaved buffer.
+     *
+     * @return the offset just past the last value written
+     */
+    public static int pack(Vector3[] from, int fromIndex, int count, float[] into, int offset) {
+        for (int i = fromIndex; i < fromIndex + count; i++) {
+            Vector3 v = from[i];
+            into[offset++] = v.x;
+            into[offset++] = v.y;
+            into[offset++] = v.z;
+        }
+        return offset;
+    }
+
+    /**
+     * copies count headings from an interleaved buffer into Vector3s.
+     */
+    public static void unpack(float[] from, int offset, int count, Vector3[] into, int intoIndex) {
+        for (int i = intoIndex; i < intoIndex + count; i++) {
+            into[i].set(from[offset], from[offset + 1], from[offset + 2]);
+            offset += 3;
+        }
+    }
+
+    /**
+     * writes the weighted mean of count headings into storeIn.
+     *
+     * @return the sum of the weights
+     */
+    public static float weightedCenter(float[] headings, int offset, float[] weights, int weightOffset, int count,
+            Vector3 storeIn) {
+        float cx = 0f, cy = 0f, cz = 0f;
+        float wsum = 0f;
+        if (weights != null) {
+            for (int i = 0; i < count; i++) {
+                float w = weights[weightOffset + i];
+                int h = offset + i * 3;
+                cx += headings[h] * w;
+                cy += headings[h + 1] * w;
+                cz += headings[h + 2] * w;
+                wsum += w;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                int h = offset + i * 3;
+                cx += headings[h];
+                cy += headings[h + 1];
+                cz += headings[h + 2];
+                wsum++;
+            }
+        }
+        storeIn.set(cx / wsum, cy / wsum, cz / wsum);
+        return wsum;
+    }
+
+    /**
+     * subtracts by from each of count headings, in place.
+     */
+    public static void untranslate(float[] headings, int offset, int count, Vector3 by) {
+        for (int i = 0; i < count; i++) {
+            int h = offset + i * 3;
+            headings[h] -= by.x;
+            headings[h + 1] -= by.y;
+            headings[h + 2] -= by.z;
+        }
+    }
+
+    /**
+     * computes the (optionally weighted) cross covariance matrix of two heading
+     * sets, as needed by QCP.
+     *
+     * @param storeIn receives Sxx, Sxy, Sxz, Syx, Syy, Syz, Szx, Szy, Szz in that
+     *                order, starting at index 0.
+     * @return half the sum of the weighted squared magnitudes of both sets (QCP's
+     *         E0)
+     */
+    public static float innerProduct(float[] coords1, int offset1, float[] coords2, int offset2, float[] weights,
+            int weightOffset, int count, float[] storeIn) {
+        float g1 = 0f, g2 = 0f;
+        float Sxx = 0f, Sxy = 0f, Sxz = 0f, Syx = 0f, Syy = 0f, Syz = 0f, Szx = 0f, Szy = 0f, Szz = 0f;
+
+        if (weights != null) {
+            for (int i = 0; i < count; i++) {
+                float w = weights[weightOffset + i];
+                int a = offset1 + i * 3;
+                int b = offset2 + i * 3;
+                float ax = coords1[a], ay = coords1[a + 1], az = coords1[a + 2];
+                float x1 = w * ax;
+                float y1 = w * ay;
+                float z1 = w * az;
+
+                g1 += x1 * ax + y1 * ay + z1 * az;
+
+                float x2 = coords2[b];
+                float y2 = coords2[b + 1];
+                float z2 = coords2[b + 2];
+
+                g2 += w * (x2 * x2 + y2 * y2 + z2 * z2);
+
+                Sxx += (x1 * x2);
+                Sxy += (x1 * y2);
+                Sxz += (x1 * z2);
+
+                Syx += (y1 * x2);
+                Syy += (y1 * y2);
+                Syz += (y1 * z2);
+
+                Szx += (z1 * x2);
+                Szy += (z1 * y2);
+                Szz += (z1 * z2);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                int a = offset1 + i * 3;
+                int b = offset2 + i * 3;
+                float x1 = coords1[a], y1 = coords1[a + 1], z1 = coords1[a + 2];
+                float x2 = coords2[b], y2 = coords2[b + 1], z2 = coords2[b + 2];
+
+                g1 += x1 * x1 + y1 * y1 + z1 * z1;
+                g2 += x2 * x2 + y2 * y2 + z2 * z2;
+
+                Sxx += x1 * x2;
+                Sxy += x1 * y2;
+                Sxz += x1 * z2;
+
+                Syx += y1 * x2;
+                Syy += y1 * y2;
+                Syz += y1 * z2;
+
+                Szx += z1 * x2;
+                Szy += z1 * y2;
+                Szz += z1 * z2;
+            }
+        }
+
+        storeIn[0] = Sxx;
+        storeIn[1] = Sxy;
+        storeIn[2] = Sxz;
+        storeIn[3] = Syx;
+        storeIn[4] = Syy;
+        storeIn[5] = Syz;
+        storeIn[6] = Szx;
+        storeIn[7] = Szy;
+        storeIn[8] = Szz;
+        return (g1 + g2) * 0.5f;
+    }
+
+    /**
+     * @return the weighted mean of the squared distances between corresponding
+     *         tips and targets.
+     */
+    public static float weightedMSD(float[] tips, int tipOffset, float[] targets, int targetOffset, float[] weights,
+            int weightOffset, int count) {
+        float msd = 0f;
+        float wsum = 0f;
+        for (int i = 0; i < count; i++) {
+            int a = tipOffset + i * 3;
+            int b = targetOffset + i * 3;
+            float w = weights == null ? 1f : weights[weightOffset + i];
+            float xd = targets[b] - tips[a];
+            float yd = targets[b + 1] - tips[a + 1];
+            float zd = targets[b + 2] - tips[a + 2];
+            msd += w * (xd * xd + yd * yd + zd * zd);
+            wsum += w;
+        }
+        return msd / wsum;
+    }
+}
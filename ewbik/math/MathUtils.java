@@ -45,17 +45,121 @@ public final class MathUtils {
     static private final double BIG_ENOUGH_ROUND = BIG_ENOUGH_INT + 0.5f;
 
     /**
-     * Returns the sine in radians from a lookup table.
+     * The implementations sin() and cos() can use. See
+     * {@link MathUtils#setTrigBackend(TrigBackend)}.
+     */
+    public enum TrigBackend {
+        /**
+         * Math.sin / Math.cos, rounded to float. The default.
+         */
+        EXACT,
+        /**
+         * linear interpolation into a 4096 entry table. Maximum absolute error is
+         * below 1e-6 at any magnitude.
+         */
+        LUT,
+        /**
+         * range reduction to [-PI/2, PI/2] followed by a degree 9 minimax
+         * polynomial. Maximum absolute error is below 1e-7 (about one float ulp
+         * around 1) at any magnitude.
+         */
+        POLY
+    }
+
+    static private TrigBackend trigBackend = TrigBackend.EXACT;
+
+    static private final int SIN_BITS = 12;
+    static private final int SIN_MASK = ~(-1 << SIN_BITS);
+    static private final int SIN_COUNT = SIN_MASK + 1;
+    static private final double RADIANS_TO_INDEX = SIN_COUNT / (Math.PI * 2d);
+    static private final int COS_INDEX_OFFSET = SIN_COUNT / 4;
+    /**
+     * one full period, plus one entry so that interpolation never needs to wrap.
+     */
+    static private final float[] SIN_TABLE = new float[SIN_COUNT + 1];
+
+    static {
+        for (int i = 0; i <= SIN_COUNT; i++) {
+            SIN_TABLE[i] = (float) Math.sin(i * (Math.PI * 2d) / SIN_COUNT);
+        }
+    }
+
+    /**
+     * minimax coefficients for sin(x) / x on [-PI/2, PI/2], as a polynomial in
+     * x^2.
+     */
+    static private final float SIN_C3 = -0.16666647791862488f;
+    static private final float SIN_C5 = 0.008332900702953339f;
+    static private final float SIN_C7 = -0.00019800935115199536f;
+    static private final float SIN_C9 = 2.5905630991474027e-06f;
+
+    /**
+     * Selects how sin() and cos() are computed, trading accuracy for speed. This
+     * is global, so it should be set up front rather than while anything might be
+     * solving.
+     *
+     * @param backend
+     */
+    static public void setTrigBackend(TrigBackend backend) {
+        trigBackend = backend;
+    }
+
+    static public TrigBackend getTrigBackend() {
+        return trigBackend;
+    }
+
+    /**
+     * Returns the sine in radians, computed by the current
+     * {@link MathUtils.TrigBackend}.
      */
     static public float sin(float radians) {
-        return (float) Math.sin(radians);
+        switch (trigBackend) {
+            case LUT:
+                return sinLUT(radians, 0);
+            case POLY:
+                return sinPoly(radians);
+            default:
+                return (float) Math.sin(radians);
+        }
     }
 
     /**
-     * Returns the cosine in radians from a lookup table.
+     * Returns the cosine in radians, computed by the current
+     * {@link MathUtils.TrigBackend}.
      */
     static public float cos(float radians) {
-        return (float) Math.cos(radians);
+        switch (trigBackend) {
+            case LUT:
+                return sinLUT(radians, COS_INDEX_OFFSET);
+            case POLY:
+                return sinPoly(radians + (Math.PI / 2d));
+            default:
+                return (float) Math.cos(radians);
+        }
+    }
+
+    static private float sinLUT(float radians, int indexOffset) {
+        // in double, so that the fraction keeps its precision for large angles.
+        double index = radians * RADIANS_TO_INDEX;
+        long i = (long) index;
+        if (index < i)
+            i--;
+        float fraction = (float) (index - i);
+        int a = (int) ((i + indexOffset) & SIN_MASK);
+        float low = SIN_TABLE[a];
+        return low + (SIN_TABLE[a + 1] - low) * fraction;
+    }
+
+    static private float sinPoly(double radians) {
+        // reduce to [-PI/2, PI/2] in double precision, flipping the sign for odd
+        // multiples of PI.
+        double k = Math.rint(radians * (1d / Math.PI));
+        double x = radians - k * Math.PI;
+        double x2 = x * x;
+        // evaluated in double, since rounding every step to float costs more
+        // accuracy than the polynomial itself.
+        float result = (float) (x * (1d + x2 * (SIN_C3 + x2 * (SIN_C5 + x2 * (SIN_C7 + x2 * SIN_C9)))));
+        return (((long) k) & 1L) == 0L ? result : -result;
     }
 
     /**
@@ -1,5 +1,7 @@
 package ewbik.math;
 
+import math.Basis;
+
 public class QCP {
 
     public Vector3[] target;
@@ -104,6 +106,29 @@ public class QCP {
     private boolean transformationCalculated = false;
     private boolean innerProductCalculated = false;
     private int length;
+    private boolean eigenvalueCalculated = false;
+    /**
+     * see {@link #setWarmStart(boolean)}
+     */
+    private boolean warmStart = false;
+    private float lastEigenRatio = -1f;
+    private int lastNewtonSteps = 0;
+
+    /**
+     * scratch for the HeadingKernels loops every overload of weightedSuperpose
+     * runs on, so that they neither allocate (once warmed up) nor modify their
+     * inputs.
+     */
+    private final float[] covariance = new float[9];
+    private float[] movedBuffer = new float[0];
+    private float[] targetBuffer = new float[0];
+    /**
+     * the Vector3 inputs, packed.
+     */
+    private float[] packedMoved = new float[0];
+    private float[] packedTarget = new float[0];
+    private final Vector3 singleMoved = new Vector3();
+    private final Vector3 singleTarget = new Vector3();
 
     /**
      * Constructor with option to set the precision values.
@@ -125,6 +150,12 @@ public class QCP {
         }
     }
 
+    public static void untranslate(Vector3 trans, Vector3[] x) {
+        for (Vector3 p : x) {
+            p.sub(trans);
+        }
+    }
+
     /**
      * Sets the maximum number of iterations QCP should run before giving up.
      * In most situations QCP converges in 3 or 4 iterations, but in some situations
@@ -139,6 +170,43 @@ public class QCP {
         max_iterations = max;
     }
 
+    /**
+     * Sets the relative precision at which Newton iteration on the largest
+     * eigenvalue stops early.
+     *
+     * @param precision
+     */
+    public void setEigenvaluePrecision(float precision) {
+        eval_prec = precision;
+    }
+
+    /**
+     * Meant for an instance which is reused to align the same point sets over and
+     * over as they change gradually (for example, once per solver iteration for
+     * the same bone).
+     * <p>
+     * When enabled, the largest eigenvalue is refined with up to
+     * {@link #setMaxIterations(int)} Newton steps before the rotation is computed
+     * (not only when the RMSD is asked for), and the refinement starts from where
+     * the previous call ended up (relative to the new upper bound) instead of from
+     * the upper bound itself. For slowly changing inputs this usually reaches the
+     * eigenvalue precision within a step or two, giving a more accurate rotation
+     * than not refining at all for little extra cost.
+     *
+     * @param warmStart
+     */
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+        lastEigenRatio = -1f;
+    }
+
+    /**
+     * @return the number of Newton steps the last eigenvalue refinement took.
+     */
+    public int getLastNewtonSteps() {
+        return lastNewtonSteps;
+    }
+
     /**
      * Sets the two input coordinate arrays. These input arrays must be of equal
      * length. Input coordinates are not modified.
@@ -169,13 +237,16 @@ public class QCP {
         rmsdCalculated = false;
         transformationCalculated = false;
         innerProductCalculated = false;
+        wsum = 0f; // instances are reused across calls, so don't accumulate from the last one.
+        movedCenter.set(0f, 0f, 0f);
+        targetCenter.set(0f, 0f, 0f);
 
         if (translate) {
             moveToWeightedCenter(this.moved, weight, movedCenter);
             wsum = 0f; // set wsum to 0 so we don't float up.
             moveToWeightedCenter(this.target, weight, targetCenter);
-            translate(movedCenter.multCopy(-1f), this.moved);
-            translate(targetCenter.multCopy(-1f), this.target);
+            untranslate(movedCenter, this.moved);
+            untranslate(targetCenter, this.target);
         } else {
             if (weight != null) {
                 for (int i = 0; i < weight.length; i++) {
@@ -198,7 +269,12 @@ public class QCP {
      */
     public float getRmsd() {
         if (!rmsdCalculated) {
-            calcRmsd(moved, target);
+            if (moved != null) {
+                calcRmsd(moved, target);
+            } else {
+                // set through the packed overload of weightedSuperpose
+                calcRmsd(wsum);
+            }
             rmsdCalculated = true;
         }
         return rmsd;
@@ -213,20 +289,129 @@ public class QCP {
      * @return
      */
     public Quaternion weightedSuperpose(Vector3[] moved, Vector3[] target, float[] weight, boolean translate) {
-        set(moved, target, weight, translate);
-        Quaternion result = getRotation();
+        Quaternion result = new Quaternion();
+        weightedSuperpose(moved, target, weight, translate, result);
         return result;
     }
 
-    private Quaternion getRotation() {
-        Quaternion result = null;
+    /**
+     * Weighted superposition. Same as
+     * {@link #weightedSuperpose(Vector3[], Vector3[], float[], boolean)}, but
+     * writes the resulting rotation into storeIn instead of allocating a new one.
+     * The headings are packed and superposed by
+     * {@link #weightedSuperpose(float[], int, float[], int, float[], int, int, boolean, Quaternion, Vector3)},
+     * so they aren't modified, even when translating.
+     *
+     * @param moved
+     * @param target
+     * @param weight    array of weigths for each equivalent point position
+     * @param translate
+     * @param storeIn   the quaternion to write the resulting rotation into
+     * @return storeIn, for chaining
+     */
+    public Quaternion weightedSuperpose(Vector3[] moved, Vector3[] target, float[] weight, boolean translate,
+            Quaternion storeIn) {
+        int count = moved.length;
+        packInputs(moved, target, count);
+        return weightedSuperpose(packedMoved, 0, packedTarget, 0, weight, 0, count, translate, storeIn, null);
+    }
+
+    private void packInputs(Vector3[] moved, Vector3[] target, int count) {
+        if (packedMoved.length < count * 3) {
+            packedMoved = new float[count * 3];
+            packedTarget = new float[count * 3];
+        }
+        HeadingKernels.pack(moved, 0, count, packedMoved, 0);
+        HeadingKernels.pack(target, 0, count, packedTarget, 0);
+    }
+
+    /**
+     * Weighted superposition of headings stored in interleaved (x, y, z) float
+     * buffers. The input buffers are never modified (translation is done on an
+     * internal copy) and nothing is allocated once this QCP instance has seen the
+     * largest count it will be given.
+     *
+     * @param moved              buffer holding the headings to be rotated
+     * @param movedOffset        index of the first moved x coordinate
+     * @param target             buffer holding the headings to rotate onto
+     * @param targetOffset       index of the first target x coordinate
+     * @param weight             one weight per heading, or null to weigh all
+     *                           headings equally
+     * @param weightOffset       index of the first weight
+     * @param count              the number of headings
+     * @param translate          whether to also solve for translation
+     * @param storeIn            the quaternion to write the resulting rotation into
+     * @param translationStoreIn the vector to write the resulting translation into,
+     *                           or null if it isn't needed
+     * @return storeIn, for chaining
+     */
+    public Quaternion weightedSuperpose(float[] moved, int movedOffset, float[] target, int targetOffset,
+            float[] weight, int weightOffset, int count, boolean translate, Quaternion storeIn,
+            Vector3 translationStoreIn) {
+        this.moved = null;
+        this.target = null;
+        this.weight = null;
+        rmsdCalculated = false;
+        transformationCalculated = false;
+        innerProductCalculated = false;
+        movedCenter.set(0f, 0f, 0f);
+        targetCenter.set(0f, 0f, 0f);
+
+        if (translate) {
+            int values = count * 3;
+            if (movedBuffer.length < values) {
+                movedBuffer = new float[values];
+                targetBuffer = new float[values];
+            }
+            System.arraycopy(moved, movedOffset, movedBuffer, 0, values);
+            System.arraycopy(target, targetOffset, targetBuffer, 0, values);
+            wsum = HeadingKernels.weightedCenter(movedBuffer, 0, weight, weightOffset, count, movedCenter);
+            HeadingKernels.weightedCenter(targetBuffer, 0, weight, weightOffset, count, targetCenter);
+            HeadingKernels.untranslate(movedBuffer, 0, count, movedCenter);
+            HeadingKernels.untranslate(targetBuffer, 0, count, targetCenter);
+            moved = movedBuffer;
+            movedOffset = 0;
+            target = targetBuffer;
+            targetOffset = 0;
+        } else if (weight != null) {
+            wsum = 0f;
+            for (int i = weightOffset; i < weightOffset + count; i++) {
+                wsum += weight[i];
+            }
+        } else {
+            wsum = count;
+        }
+
+        if (count == 1) {
+            singleMoved.set(moved[movedOffset], moved[movedOffset + 1], moved[movedOffset + 2]);
+            singleTarget.set(target[targetOffset], target[targetOffset + 1], target[targetOffset + 2]);
+            storeIn.set(singleMoved, singleTarget);
+            rmsd = singleMoved.dist(singleTarget);
+            rmsdCalculated = true;
+        } else {
+            finishInnerProduct(HeadingKernels.innerProduct(target, targetOffset, moved, movedOffset, weight,
+                    weightOffset, count, covariance));
+            if (warmStart)
+                calcMaxEigenvalue();
+            calcRotationFromInnerProduct(storeIn);
+        }
+        transformationCalculated = true;
+
+        if (translationStoreIn != null) {
+            getTranslation(translationStoreIn);
+        }
+        return storeIn;
+    }
+
+    private void getRotation(Quaternion storeIn) {
         if (!transformationCalculated) {
             if (!innerProductCalculated)
                 innerProduct(target, moved);
-            result = calcRotation();
+            if (warmStart)
+                calcMaxEigenvalue();
+            calcRotation(storeIn);
             transformationCalculated = true;
         }
-        return result;
     }
 
     /**
@@ -261,65 +446,28 @@ public class QCP {
      * @return
      */
     private void innerProduct(Vector3[] coords1, Vector3[] coords2) {
-        float x1, x2, y1, y2, z1, z2;
-        float g1 = 0f, g2 = 0f;
-
-        Sxx = 0;
-        Sxy = 0;
-        Sxz = 0;
-        Syx = 0;
-        Syy = 0;
-        Syz = 0;
-        Szx = 0;
-        Szy = 0;
-        Szz = 0;
-
-        if (weight != null) {
-            for (int i = 0; i < coords1.length; i++) {
-                x1 = weight[i] * coords1[i].x;
-                y1 = weight[i] * coords1[i].y;
-                z1 = weight[i] * coords1[i].z;
-
-                g1 += x1 * coords1[i].x + y1 * coords1[i].y + z1 * coords1[i].z;
-
-                x2 = coords2[i].x;
-                y2 = coords2[i].y;
-                z2 = coords2[i].z;
-
-                g2 += weight[i] * (x2 * x2 + y2 * y2 + z2 * z2);
-
-                Sxx += (x1 * x2);
-                Sxy += (x1 * y2);
-                Sxz += (x1 * z2);
-
-                Syx += (y1 * x2);
-                Syy += (y1 * y2);
-                Syz += (y1 * z2);
-
-                Szx += (z1 * x2);
-                Szy += (z1 * y2);
-                Szz += (z1 * z2);
-            }
-        } else {
-            for (int i = 0; i < coords1.length; i++) {
-                g1 += coords1[i].x * coords1[i].x + coords1[i].y * coords1[i].y + coords1[i].z * coords1[i].z;
-                g2 += coords2[i].x * coords2[i].x + coords2[i].y * coords2[i].y + coords2[i].z * coords2[i].z;
-
-                Sxx += coords1[i].x * coords2[i].x;
-                Sxy += coords1[i].x * coords2[i].y;
-                Sxz += coords1[i].x * coords2[i].z;
-
-                Syx += coords1[i].y * coords2[i].x;
-                Syy += coords1[i].y * coords2[i].y;
-                Syz += coords1[i].y * coords2[i].z;
-
-                Szx += coords1[i].z * coords2[i].x;
-                Szy += coords1[i].z * coords2[i].y;
-                Szz += coords1[i].z * coords2[i].z;
-            }
-        }
+        int count = coords1.length;
+        packInputs(coords2, coords1, count);
+        finishInnerProduct(HeadingKernels.innerProduct(packedTarget, 0, packedMoved, 0, weight, 0, count,
+                covariance));
+    }
 
-        e0 = (g1 + g2) * 0.5f;
+    /**
+     * computes the sums QCP needs from E0 and the cross covariance terms in
+     * covariance, as written by HeadingKernels.innerProduct.
+     */
+    private void finishInnerProduct(float e0) {
+        Sxx = covariance[0];
+        Sxy = covariance[1];
+        Sxz = covariance[2];
+        Syx = covariance[3];
+        Syy = covariance[4];
+        Syz = covariance[5];
+        Szx = covariance[6];
+        Szy = covariance[7];
+        Szz = covariance[8];
+        this.e0 = e0;
+        eigenvalueCalculated = false;
 
         SxzpSzx = Sxz + Szx;
         SyzpSzy = Syz + Szy;
@@ -335,6 +483,20 @@ public class QCP {
     }
 
     private void calcRmsd(float len) {
+        calcMaxEigenvalue();
+        rmsd = MathUtils.sqrt(MathUtils.abs(2.0f * (e0 - mxEigenV) / len));
+    }
+
+    /**
+     * refines mxEigenV (initially the upper bound e0) towards the largest root of
+     * the characteristic polynomial with up to max_iterations Newton steps,
+     * stopping early once a step is smaller than eval_prec relative to the root.
+     */
+    private void calcMaxEigenvalue() {
+        if (eigenvalueCalculated)
+            return;
+        eigenvalueCalculated = true;
+        lastNewtonSteps = 0;
         if (max_iterations > 0) {
             float Sxx2 = Sxx * Sxx;
             float Syy2 = Syy * Syy;
@@ -368,6 +530,12 @@ public class QCP {
                     + (+(SxypSyx) * (SyzmSzy) + (SxzmSzx) * (SxxmSyy - Szz))
                             * (-(SxymSyx) * (SyzpSzy) + (SxzmSzx) * (SxxpSyy - Szz));
 
+            if (warmStart && lastEigenRatio > 0f) {
+                float seed = MathUtils.min(e0, e0 * lastEigenRatio);
+                if (isAboveLargestRoot(seed, c2, c1, c0))
+                    mxEigenV = seed;
+            }
+
             int i;
             for (i = 1; i < (max_iterations + 1); ++i) {
                 float oldg = mxEigenV;
@@ -375,100 +543,127 @@ public class QCP {
                 float Y2 = Y * Y;
                 float delta = ((((Y * c0 + c1) * Y + c2) * Y2 + 1) / ((Y * c1 + 2 * c2) * Y2 * Y + 4));
                 mxEigenV -= delta;
+                lastNewtonSteps = i;
 
                 if (MathUtils.abs(mxEigenV - oldg) < MathUtils.abs(eval_prec * mxEigenV))
                     break;
             }
+            if (Float.isNaN(mxEigenV) || mxEigenV > e0) {
+                mxEigenV = e0;
+                lastEigenRatio = -1f;
+            } else if (e0 > 0f) {
+                lastEigenRatio = mxEigenV / e0;
+            }
         }
+    }
 
-        rmsd = MathUtils.sqrt(MathUtils.abs(2.0f * (e0 - mxEigenV) / len));
+    /**
+     * Newton's method only converges monotonically onto the largest root of the
+     * (all real rooted) characteristic polynomial x^4 + c2 x^2 + c1 x + c0 from
+     * above it, where the polynomial is non-negative, increasing and convex.
+     * Between the third largest root and the local maximum above it the
+     * polynomial is also positive and increasing, but concave, and Newton steps
+     * from there head away from the largest root.
+     *
+     * @return true if x passes all three checks, and so is safe to start from.
+     */
+    static boolean isAboveLargestRoot(float x, float c2, float c1, float c0) {
+        float x2 = x * x;
+        float p = (x2 + c2) * x2 + c1 * x + c0;
+        float dp = (4f * x2 + 2f * c2) * x + c1;
+        float ddp = 12f * x2 + 2f * c2;
+        return p >= 0f && dp > 0f && ddp >= 0f;
     }
 
-    private Quaternion calcRotation() {
+    private void calcRotation(Quaternion storeIn) {
 
         // QCP doesn't handle single targets, so if we only have one point and one
         // target, we just rotate by the angular distance between them
         if (moved.length == 1) {
-            return new Quaternion(moved[0], target[0]);
+            storeIn.set(moved[0], target[0]);
         } else {
+            calcRotationFromInnerProduct(storeIn);
+        }
+    }
+
+    private void calcRotationFromInnerProduct(Quaternion storeIn) {
+        float a11 = SxxpSyy + Szz - mxEigenV;
+        float a12 = SyzmSzy;
+        float a13 = -SxzmSzx;
+        float a14 = SxymSyx;
+        float a21 = SyzmSzy;
+        float a22 = SxxmSyy - Szz - mxEigenV;
+        float a23 = SxypSyx;
+        float a24 = SxzpSzx;
+        float a31 = a13;
+        float a32 = a23;
+        float a33 = Syy - Sxx - Szz - mxEigenV;
+        float a34 = SyzpSzy;
+        float a41 = a14;
+        float a42 = a24;
+        float a43 = a34;
+        float a44 = Szz - SxxpSyy - mxEigenV;
+        float a3344_4334 = a33 * a44 - a43 * a34;
+        float a3244_4234 = a32 * a44 - a42 * a34;
+        float a3243_4233 = a32 * a43 - a42 * a33;
+        float a3143_4133 = a31 * a43 - a41 * a33;
+        float a3144_4134 = a31 * a44 - a41 * a34;
+        float a3142_4132 = a31 * a42 - a41 * a32;
+        float q1 = a22 * a3344_4334 - a23 * a3244_4234 + a24 * a3243_4233;
+        float q2 = -a21 * a3344_4334 + a23 * a3144_4134 - a24 * a3143_4133;
+        float q3 = a21 * a3244_4234 - a22 * a3144_4134 + a24 * a3142_4132;
+        float q4 = -a21 * a3243_4233 + a22 * a3143_4133 - a23 * a3142_4132;
+
+        float qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
+
+        /*
+         * The following code tries to calculate another column in the adjoint
+         * matrix when the norm of the current column is too small. Usually this
+         * commented block will never be activated. To be absolutely safe this
+         * should be uncommented, but it is most likely unnecessary.
+         */
+        if (qsqr < evec_prec) {
+            q1 = a12 * a3344_4334 - a13 * a3244_4234 + a14 * a3243_4233;
+            q2 = -a11 * a3344_4334 + a13 * a3144_4134 - a14 * a3143_4133;
+            q3 = a11 * a3244_4234 - a12 * a3144_4134 + a14 * a3142_4132;
+            q4 = -a11 * a3243_4233 + a12 * a3143_4133 - a13 * a3142_4132;
+            qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
 
-            float a11 = SxxpSyy + Szz - mxEigenV;
-            float a12 = SyzmSzy;
-            float a13 = -SxzmSzx;
-            float a14 = SxymSyx;
-            float a21 = SyzmSzy;
-            float a22 = SxxmSyy - Szz - mxEigenV;
-            float a23 = SxypSyx;
-            float a24 = SxzpSzx;
-            float a31 = a13;
-            float a32 = a23;
-            float a33 = Syy - Sxx - Szz - mxEigenV;
-            float a34 = SyzpSzy;
-            float a41 = a14;
-            float a42 = a24;
-            float a43 = a34;
-            float a44 = Szz - SxxpSyy - mxEigenV;
-            float a3344_4334 = a33 * a44 - a43 * a34;
-            float a3244_4234 = a32 * a44 - a42 * a34;
-            float a3243_4233 = a32 * a43 - a42 * a33;
-            float a3143_4133 = a31 * a43 - a41 * a33;
-            float a3144_4134 = a31 * a44 - a41 * a34;
-            float a3142_4132 = a31 * a42 - a41 * a32;
-            float q1 = a22 * a3344_4334 - a23 * a3244_4234 + a24 * a3243_4233;
-            float q2 = -a21 * a3344_4334 + a23 * a3144_4134 - a24 * a3143_4133;
-            float q3 = a21 * a3244_4234 - a22 * a3144_4134 + a24 * a3142_4132;
-            float q4 = -a21 * a3243_4233 + a22 * a3143_4133 - a23 * a3142_4132;
-
-            float qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
-
-            /*
-             * The following code tries to calculate another column in the adjoint
-             * matrix when the norm of the current column is too small. Usually this
-             * commented block will never be activated. To be absolutely safe this
-             * should be uncommented, but it is most likely unnecessary.
-             */
             if (qsqr < evec_prec) {
-                q1 = a12 * a3344_4334 - a13 * a3244_4234 + a14 * a3243_4233;
-                q2 = -a11 * a3344_4334 + a13 * a3144_4134 - a14 * a3143_4133;
-                q3 = a11 * a3244_4234 - a12 * a3144_4134 + a14 * a3142_4132;
-                q4 = -a11 * a3243_4233 + a12 * a3143_4133 - a13 * a3142_4132;
+                float a1324_1423 = a13 * a24 - a14 * a23, a1224_1422 = a12 * a24 - a14 * a22;
+                float a1223_1322 = a12 * a23 - a13 * a22, a1124_1421 = a11 * a24 - a14 * a21;
+                float a1123_1321 = a11 * a23 - a13 * a21, a1122_1221 = a11 * a22 - a12 * a21;
+
+                q1 = a42 * a1324_1423 - a43 * a1224_1422 + a44 * a1223_1322;
+                q2 = -a41 * a1324_1423 + a43 * a1124_1421 - a44 * a1123_1321;
+                q3 = a41 * a1224_1422 - a42 * a1124_1421 + a44 * a1122_1221;
+                q4 = -a41 * a1223_1322 + a42 * a1123_1321 - a43 * a1122_1221;
                 qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
 
                 if (qsqr < evec_prec) {
-                    float a1324_1423 = a13 * a24 - a14 * a23, a1224_1422 = a12 * a24 - a14 * a22;
-                    float a1223_1322 = a12 * a23 - a13 * a22, a1124_1421 = a11 * a24 - a14 * a21;
-                    float a1123_1321 = a11 * a23 - a13 * a21, a1122_1221 = a11 * a22 - a12 * a21;
-
-                    q1 = a42 * a1324_1423 - a43 * a1224_1422 + a44 * a1223_1322;
-                    q2 = -a41 * a1324_1423 + a43 * a1124_1421 - a44 * a1123_1321;
-                    q3 = a41 * a1224_1422 - a42 * a1124_1421 + a44 * a1122_1221;
-                    q4 = -a41 * a1223_1322 + a42 * a1123_1321 - a43 * a1122_1221;
+                    q1 = a32 * a1324_1423 - a33 * a1224_1422 + a34 * a1223_1322;
+                    q2 = -a31 * a1324_1423 + a33 * a1124_1421 - a34 * a1123_1321;
+                    q3 = a31 * a1224_1422 - a32 * a1124_1421 + a34 * a1122_1221;
+                    q4 = -a31 * a1223_1322 + a32 * a1123_1321 - a33 * a1122_1221;
                     qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
 
                     if (qsqr < evec_prec) {
-                        q1 = a32 * a1324_1423 - a33 * a1224_1422 + a34 * a1223_1322;
-                        q2 = -a31 * a1324_1423 + a33 * a1124_1421 - a34 * a1123_1321;
-                        q3 = a31 * a1224_1422 - a32 * a1124_1421 + a34 * a1122_1221;
-                        q4 = -a31 * a1223_1322 + a32 * a1123_1321 - a33 * a1122_1221;
-                        qsqr = q1 * q1 + q2 * q2 + q3 * q3 + q4 * q4;
-
-                        if (qsqr < evec_prec) {
-                            /*
-                             * if qsqr is still too small, return the identity rotation
-                             */
-                            return new Quaternion();
-                        }
+                        /*
+                         * if qsqr is still too small, return the identity rotation
+                         */
+                        storeIn.set(Basis.IDENTITY);
+                        return;
                     }
                 }
             }
-            // prenormalize the result to avoid floating point errors.
-            float min = q1;
-            min = q2 < min ? q2 : min;
-            min = q3 < min ? q3 : min;
-            min = q4 < min ? q4 : min;
-
-            return new Quaternion(q1 / min, q2 / min, q3 / min, q4 / min, true);
         }
+        // prenormalize the result to avoid floating point errors.
+        float min = q1;
+        min = q2 < min ? q2 : min;
+        min = q3 < min ? q3 : min;
+        min = q4 < min ? q4 : min;
+
+        storeIn.rotation.set(q1 / min, q2 / min, q3 / min, q4 / min, true);
     }
 
     public float getRmsd(Vector3[] fixed, Vector3[] moved) {
@@ -500,4 +695,14 @@ public class QCP {
         return targetCenter.subCopy(movedCenter);
     }
 
+    /**
+     * @param storeIn the vector to write the translation into
+     * @return storeIn, for chaining
+     */
+    public Vector3 getTranslation(Vector3 storeIn) {
+        storeIn.set(targetCenter);
+        storeIn.sub(movedCenter);
+        return storeIn;
+    }
+
 }
@@ -29,8 +29,6 @@ import math.Basis;
 
 public class Quaternion {
     public Basis rotation = Basis.IDENTITY;
-    private final float[] workingInput = new float[3];
-    private final float[] workingOutput = new float[3];
 
     public Quaternion() {
         this.rotation = new Basis(
@@ -276,19 +274,11 @@ public class Quaternion {
     }
 
     public void applyTo(Vector3 v, Vector3 output) {
-        workingInput[0] = v.x;
-        workingInput[1] = v.y;
-        workingInput[2] = v.z;
-        rotation.applyTo(workingInput, workingOutput);
-        output.set(workingOutput);
+        rotation.applyTo(v, output);
     }
 
     public void applyInverseTo(Vector3 v, Vector3 output) {
-        workingInput[0] = v.x;
-        workingInput[1] = v.y;
-        workingInput[2] = v.z;
-        rotation.applyInverseTo(workingInput, workingOutput);
-        output.set(workingOutput);
+        rotation.applyInverseTo(v, output);
     }
 
     /**
@@ -299,21 +289,15 @@ public class Quaternion {
      */
 
     public Vector3 applyToCopy(Vector3 v) {
-        workingInput[0] = v.x;
-        workingInput[1] = v.y;
-        workingInput[2] = v.z;
-        rotation.applyTo(workingInput, workingOutput);
         Vector3 copy = (Vector3) v.copy();
-        return (Vector3) copy.set(workingOutput[0], workingOutput[1], workingOutput[2]);
+        rotation.applyTo(v, copy);
+        return copy;
     }
 
     public Vector3 applyInverseToCopy(Vector3 v) {
-        workingInput[0] = v.x;
-        workingInput[1] = v.y;
-        workingInput[2] = v.z;
-        rotation.applyInverseTo(workingInput, workingOutput);
         Vector3 copy = (Vector3) v.copy();
-        return (Vector3) copy.set(workingOutput[0], workingOutput[1], workingOutput[2]);
+        rotation.applyInverseTo(v, copy);
+        return copy;
     }
 
     /**
@@ -335,27 +319,49 @@ public class Quaternion {
     }
 
     public Ray3D applyToCopy(Ray3D rIn) {
-        workingInput[0] = rIn.p2().x - rIn.p1().x;
-        workingInput[1] = rIn.p2().y - rIn.p1().y;
-        workingInput[2] = rIn.p2().z - rIn.p1().z;
-
-        this.rotation.applyTo(workingInput, workingOutput);
         Ray3D result = rIn.copy();
-        result.heading(workingOutput);
+        applyTo(rIn, result);
         return result;
     }
 
-    public Ray3D applyInverseTo(Ray3D rIn) {
-        workingInput[0] = rIn.p2().x - rIn.p1().x;
-        workingInput[1] = rIn.p2().y - rIn.p1().y;
-        workingInput[2] = rIn.p2().z - rIn.p1().z;
+    /**
+     * rotates the heading of rIn about its origin, and stores the resulting ray
+     * in storeIn. storeIn may be rIn.
+     *
+     * @param rIn
+     * @param storeIn
+     */
+    public void applyTo(Ray3D rIn, Ray3D storeIn) {
+        // the heading is rotated in storeIn's tip, so that nothing is allocated.
+        Vector3 tip = storeIn.p2();
+        tip.set(rIn.p2()).sub(rIn.p1());
+        this.rotation.applyTo(tip, tip);
+        storeIn.p1().set(rIn.p1());
+        tip.add(storeIn.p1());
+    }
 
-        this.rotation.applyInverseTo(workingInput, workingOutput);
+    public Ray3D applyInverseTo(Ray3D rIn) {
         Ray3D result = rIn.copy();
-        result.p2().add(workingOutput);
+        applyInverseTo(rIn, result);
         return result;
     }
 
+    /**
+     * rotates the heading of rIn about its origin by the inverse of this
+     * rotation, and stores the resulting ray in storeIn. storeIn may be rIn.
+     *
+     * @param rIn
+     * @param storeIn
+     */
+    public void applyInverseTo(Ray3D rIn, Ray3D storeIn) {
+        // the heading is rotated in storeIn's tip, so that nothing is allocated.
+        Vector3 tip = storeIn.p2();
+        tip.set(rIn.p2()).sub(rIn.p1());
+        this.rotation.applyInverseTo(tip, tip);
+        storeIn.p1().set(rIn.p1());
+        tip.add(storeIn.p1());
+    }
+
     public void applyTo(Quaternion rot, Quaternion storeIn) {
         Basis r = rot.rotation;
         Basis tr = this.rotation;
@@ -420,6 +426,17 @@ public class Quaternion {
         return new Quaternion(this.rotation.revert());
     }
 
+    /**
+     * sets storeIn to the inverse of this rotation. Same as
+     * {@link #setToReversion(Quaternion)}, named to match the other "into"
+     * overloads.
+     *
+     * @param storeIn
+     */
+    public void revert(Quaternion storeIn) {
+        rotation.revert(storeIn.rotation);
+    }
+
     /**
      * sets the values of the given rotation equal to the inverse of this rotation
      *
@@ -451,24 +468,36 @@ public class Quaternion {
      *      "http://www.euclideanspace.com/maths/geometry/rotations/for/decomposition">calculation</a>
      */
     public Quaternion[] getSwingTwist(Vector3 axis) {
-        Quaternion twistRot = new Quaternion(
-                new Basis(rotation.getQ0(), rotation.getQ1(), rotation.getQ2(), rotation.getQ3()));
-        final float d = Vector3.dot(twistRot.rotation.getQ1(), twistRot.rotation.getQ2(), twistRot.rotation.getQ3(),
-                axis.x, axis.y, axis.z);
-        twistRot.rotation.set(rotation.getQ0(), axis.x * d, axis.y * d, axis.z * d, true);
-        if (d < 0)
-            twistRot.rotation.multiply(-1f);
-
-        Quaternion swing = new Quaternion(twistRot.rotation);
-        swing.rotation.setToConjugate();
-        swing.rotation = Basis.multiply(twistRot.rotation, swing.rotation);
-
         Quaternion[] result = new Quaternion[2];
-        result[0] = swing;
-        result[1] = twistRot;
+        result[0] = new Quaternion();
+        result[1] = new Quaternion();
+        getSwingTwist(axis, result[0], result[1]);
         return result;
     }
 
+    /**
+     * same as {@link #getSwingTwist(Vector3)}, but stores the swing and twist
+     * rotations in the given quaternions instead of allocating. Either may be
+     * this quaternion.
+     *
+     * @param axis         the normalized axis for which to get the swing and
+     *                     twist rotation
+     * @param swingStoreIn receives the swing rotation. May be null if only the
+     *                     twist is needed.
+     * @param twistStoreIn receives the twist rotation
+     */
+    public void getSwingTwist(Vector3 axis, Quaternion swingStoreIn, Quaternion twistStoreIn) {
+        final float d = Vector3.dot(rotation.getQ1(), rotation.getQ2(), rotation.getQ3(),
+                axis.x, axis.y, axis.z);
+        twistStoreIn.rotation.set(rotation.getQ0(), axis.x * d, axis.y * d, axis.z * d, true);
+
+        if (swingStoreIn != null) {
+            Basis twist = twistStoreIn.rotation;
+            swingStoreIn.rotation.set(twist.getQ0(), -twist.getQ1(), -twist.getQ2(), -twist.getQ3(), false);
+            Basis.multiply(twist, swingStoreIn.rotation, swingStoreIn.rotation);
+        }
+    }
+
     public String toString() {
         return rotation.toString();
     }
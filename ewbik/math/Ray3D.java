@@ -106,7 +106,7 @@ public class Ray3D implements CanLoad {
         Vector3 heading = this.heading();
         float scale = (inPoint.dot(heading) / (heading.mag() * inPoint.mag())) * (inPoint.mag() / heading.mag());
 
-        return point.dist(this.getRayScaledBy(scale).p2);
+        return point.dist(this.setToScaledTip(scale, workingVector));
     }
 
     /**
@@ -127,7 +127,7 @@ public class Ray3D implements CanLoad {
         } else if (scale > 1) {
             return point.dist(this.p2);
         } else {
-            return point.dist(this.getRayScaledBy(scale).p2);
+            return point.dist(this.setToScaledTip(scale, workingVector));
         }
 
     }
@@ -444,6 +444,20 @@ public class Ray3D implements CanLoad {
         return new ewbik.math.Ray3D(p1, this.getMultipledBy(scalar));
     }
 
+    /**
+     * same as {@link #getRayScaledBy(float)}, but stores the scaled ray in storeIn
+     * instead of allocating. storeIn may be this ray.
+     *
+     * @param scalar
+     * @param storeIn
+     * @return storeIn, for chaining
+     */
+    public ewbik.math.Ray3D getRayScaledBy(float scalar, ewbik.math.Ray3D storeIn) {
+        this.setToScaledTip(scalar, storeIn.p2);
+        storeIn.p1.set(this.p1);
+        return storeIn;
+    }
+
     /*
      * public Vector3 intercepts2D(sgRay r) {
      * Vector3 result = new Vector3();
@@ -483,6 +497,40 @@ public class Ray3D implements CanLoad {
         return vec;
     }
 
+    /**
+     * sets the values of the given vector to where the
+     * tip of this Ray would be if the ray were scaled by the given scalar.
+     * Equivalent to getRayScaledBy(scalar).p2(), but without allocating.
+     *
+     * @param scalar
+     * @param vec
+     * @return the vector that was passed in after modification (for chaining)
+     */
+    public Vector3 setToScaledTip(float scalar, Vector3 vec) {
+        vec.x = (p2.x - p1.x) * scalar + p1.x;
+        vec.y = (p2.y - p1.y) * scalar + p1.y;
+        vec.z = (p2.z - p1.z) * scalar + p1.z;
+        return vec;
+    }
+
+    /**
+     * sets the values of the given vector to where the
+     * tip of this Ray would be if the ray were scaled by the given scalar
+     * and then inverted.
+     * Equivalent to getRayScaledBy(scalar).setToInvertedTip(vec), but without
+     * allocating.
+     *
+     * @param scalar
+     * @param vec
+     * @return the vector that was passed in after modification (for chaining)
+     */
+    public Vector3 setToInvertedScaledTip(float scalar, Vector3 vec) {
+        vec.x = (p1.x - p2.x) * scalar + p1.x;
+        vec.y = (p1.y - p2.y) * scalar + p1.y;
+        vec.z = (p1.z - p2.z) * scalar + p1.z;
+        return vec;
+    }
+
     /*
      * public Vector3 closestPointToSegment3DStrict(sgRay r) {
      * 
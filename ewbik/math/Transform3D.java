@@ -1,5 +1,7 @@
 package ewbik.math;
 
+import math.Basis;
+
 public class Transform3D {
 
     public static final int LEFT = -1;
@@ -10,17 +12,32 @@ public class Transform3D {
     public static final int Z = 2;
     // The chirality is always right.
     public Quaternion rotation = new Quaternion();
-    public Quaternion inverseRotation = new Quaternion();
+    /**
+     * derived from rotation when first read after a modification. Read it
+     * through getInverseRotation(), which replaces direct access to what used to
+     * be a public field.
+     */
+    private Quaternion inverseRotation = new Quaternion();
     /**
      * a vector representing the translation of this basis relative to its parent.
      */
     public Vector3 translate;
-    protected Vector3 xBase = new Vector3(1, 0, 0);
-    protected Vector3 yBase = new Vector3(0, 1, 0);
-    protected Vector3 zBase = new Vector3(0, 0, 1);
-    protected Ray3D xRay = new Ray3D(new Vector3(0, 0, 0), new Vector3(1, 0, 0));
-    protected Ray3D yRay = new Ray3D(new Vector3(0, 0, 0), new Vector3(0, 1, 0));
-    protected Ray3D zRay = new Ray3D(new Vector3(0, 0, 0), new Vector3(0, 0, 1));
+    /**
+     * created the first time they're read, so that transforms which are only
+     * ever composed (most of them, during a solve) don't carry them.
+     */
+    protected Ray3D xRay;
+    protected Ray3D yRay;
+    protected Ray3D zRay;
+    /**
+     * incremented by refreshPrecomputed(), which every method that changes
+     * rotation or translate calls. The inverse rotation and the axis rays are
+     * only recomputed when read with a stamp older than this, so a transform
+     * which is written many times between reads only pays for them once.
+     */
+    private long modificationCount = 0;
+    private long inverseStamp = -1;
+    private long raysStamp = -1;
 
     /**
      * Initialize this basis at the origin. The basis will be righthanded by
@@ -30,33 +47,11 @@ public class Transform3D {
      */
     public Transform3D(Vector3 origin) {
         translate = origin.copy();
-        xBase = origin.copy();
-        yBase = origin.copy();
-        zBase = origin.copy();
-        xBase.set(1, 0, 0);
-        yBase.set(0, 1, 0);
-        zBase.set(0, 0, 1);
-        Vector3 zero = origin.copy();
-        zero.set(0, 0, 0);
-        xRay = new Ray3D(zero.copy(), xBase.copy());
-        yRay = new Ray3D(zero.copy(), yBase.copy());
-        zRay = new Ray3D(zero.copy(), zBase.copy());
         refreshPrecomputed();
     }
 
     public Transform3D(Transform3D input) {
         translate = input.translate.copy();
-        xBase = translate.copy();
-        yBase = translate.copy();
-        zBase = translate.copy();
-        xBase.set(1, 0, 0);
-        yBase.set(0, 1, 0);
-        zBase.set(0, 0, 1);
-        Vector3 zero = translate.copy();
-        zero.set(0, 0, 0);
-        xRay = new Ray3D(zero.copy(), xBase.copy());
-        yRay = new Ray3D(zero.copy(), yBase.copy());
-        zRay = new Ray3D(zero.copy(), zBase.copy());
         this.adoptValues(input);
 
     }
@@ -83,9 +78,6 @@ public class Transform3D {
      */
     public Transform3D(Vector3 origin, Vector3 x, Vector3 y, Vector3 z) {
         this.translate = origin.copy();
-        xRay = new Ray3D(origin.copy(), origin.copy());
-        yRay = new Ray3D(origin.copy(), origin.copy());
-        zRay = new Ray3D(origin.copy(), origin.copy());
         this.set(x.copy(), y.copy(), z.copy());
     }
 
@@ -112,9 +104,6 @@ public class Transform3D {
      */
     public Transform3D(Ray3D x, Ray3D y, Ray3D z) {
         this.translate = x.p1().copy();
-        xRay = x.copy();
-        yRay = y.copy();
-        zRay = z.copy();
         Vector3 xDirNew = x.heading().copy();
         Vector3 yDirNew = y.heading().copy();
         Vector3 zDirNew = z.heading().copy();
@@ -130,20 +119,6 @@ public class Transform3D {
     }
 
     private void set(Vector3 x, Vector3 y, Vector3 z) {
-        xBase = translate.copy();
-        yBase = translate.copy();
-        zBase = translate.copy();
-        xBase.set(1, 0, 0);
-        yBase.set(0, 1, 0);
-        zBase.set(0, 0, 1);
-        Vector3 zero = translate.copy();
-        zero.set(0, 0, 0);
-        xRay.setP1(zero.copy());
-        xRay.setP2(xBase.copy());
-        yRay.setP1(zero.copy());
-        yRay.setP2(yBase.copy());
-        zRay.setP1(zero.copy());
-        zRay.setP2(zBase.copy());
         this.rotation = createPrioritizedRotation(x, y, z);
         this.refreshPrecomputed();
     }
@@ -156,37 +131,21 @@ public class Transform3D {
     public void adoptValues(Transform3D in) {
         this.translate.set(in.translate);
         this.rotation.set(in.rotation);
-        xBase = translate.copy();
-        yBase = translate.copy();
-        zBase = translate.copy();
-        xBase.set(1, 0, 0);
-        yBase.set(0, 1, 0);
-        zBase.set(0, 0, 1);
-        xRay = in.xRay.copy();
-        yRay = in.yRay.copy();
-        zRay = in.zRay.copy();
+        // the rays are recomputed from translate and rotation, so there's no need
+        // to copy the input's.
         this.refreshPrecomputed();
     }
 
     public void setIdentity() {
         this.translate.set(0, 0, 0);
-        xBase.set(1, 0, 0);
-        yBase.set(0, 1, 0);
-        zBase.set(0, 0, 1);
-        this.xRay.p1.set(this.translate);
-        this.xRay.p2.set(xBase);
-        this.yRay.p1.set(this.translate);
-        this.yRay.p2.set(yBase);
-        this.zRay.p1.set(this.translate);
-        this.zRay.p2.set(zBase);
-        this.rotation = new Quaternion();
+        this.rotation.set(Basis.IDENTITY);
         refreshPrecomputed();
     }
 
     private Quaternion createPrioritizedRotation(Vector3 xHeading, Vector3 yHeading, Vector3 zHeading) {
-        Vector3 x_identity = xBase.copy();
-        Vector3 y_identity = yBase.copy();
-        Vector3 z_identity = zBase.copy();
+        Vector3 x_identity = new Vector3(1, 0, 0);
+        Vector3 y_identity = new Vector3(0, 1, 0);
+        Vector3 z_identity = new Vector3(0, 0, 1);
         Vector3 origin = new Vector3(0, 0, 0);
 
         Vector3[] from = { origin, x_identity, y_identity, z_identity };
@@ -199,20 +158,36 @@ public class Transform3D {
     }
 
     public Quaternion getLocalOfRotation(Quaternion inRot) {
-        Quaternion resultNew = inverseRotation.applyTo(inRot).applyTo(rotation);
+        Quaternion resultNew = getInverseRotation().applyTo(inRot).applyTo(rotation);
         return resultNew;
     }
 
+    /**
+     * same as {@link #getLocalOfRotation(Quaternion)}, but stores the result in
+     * storeIn instead of allocating. storeIn may be inRot.
+     *
+     * @param inRot
+     * @param storeIn
+     */
+    public void getLocalOfRotation(Quaternion inRot, Quaternion storeIn) {
+        getInverseRotation().applyTo(inRot, storeIn);
+        storeIn.applyTo(rotation, storeIn);
+    }
+
     public void setToLocalOf(Transform3D global_input, Transform3D local_output) {
-        local_output.translate = this.getLocalOf(global_input.translate);
-        inverseRotation.applyTo(global_input.rotation, local_output.rotation);
+        this.setToLocalOf(global_input.translate, local_output.translate);
+        getInverseRotation().applyTo(global_input.rotation, local_output.rotation);
 
         local_output.refreshPrecomputed();
     }
 
+    /**
+     * marks the inverse rotation and the axis rays as stale. Call this after
+     * modifying rotation or translate directly; they'll be recomputed the next
+     * time they're read.
+     */
     public void refreshPrecomputed() {
-        this.rotation.setToReversion(inverseRotation);
-        this.updateRays();
+        modificationCount++;
     }
 
     public Vector3 getLocalOf(Vector3 v) {
@@ -224,7 +199,7 @@ public class Transform3D {
     public void setToLocalOf(Vector3 input, Vector3 output) {
         output.set(input);
         output.sub(this.translate);
-        inverseRotation.applyTo(output, output);
+        getInverseRotation().applyTo(output, output);
     }
 
     public void rotateTo(Quaternion newRotation) {
@@ -244,7 +219,7 @@ public class Transform3D {
      * and magnitude of the x axis prior to rotation.
      */
     public void setToShearXBase(Vector3 vec) {
-        vec.set(xBase);
+        vec.set(1, 0, 0);
     }
 
     /**
@@ -254,7 +229,7 @@ public class Transform3D {
      * and magnitude of the y axis prior to rotation.
      */
     public void setToShearYBase(Vector3 vec) {
-        vec.set(yBase);
+        vec.set(0, 1, 0);
     }
 
     /**
@@ -264,7 +239,7 @@ public class Transform3D {
      * and magnitude of the z axis prior to rotation.
      */
     public void setToShearZBase(Vector3 vec) {
-        vec.set(zBase);
+        vec.set(0, 0, 1);
     }
 
     /**
@@ -293,37 +268,45 @@ public class Transform3D {
         this.translate.x += transBy.x;
         this.translate.y += transBy.y;
         this.translate.z += transBy.z;
-        updateRays();
+        // only the rays depend on translate, so the inverse rotation stays valid.
+        raysStamp = -1;
     }
 
     public void translateTo(Vector3 newOrigin) {
         this.translate.x = newOrigin.x;
         this.translate.y = newOrigin.y;
         this.translate.z = newOrigin.z;
-        updateRays();
+        // only the rays depend on translate, so the inverse rotation stays valid.
+        raysStamp = -1;
     }
 
     public Ray3D getXRay() {
+        updateRays();
         return xRay;
     }
 
     public Ray3D getYRay() {
+        updateRays();
         return yRay;
     }
 
     public Ray3D getZRay() {
+        updateRays();
         return zRay;
     }
 
     public Vector3 getXHeading() {
+        updateRays();
         return this.xRay.heading();
     }
 
     public Vector3 getYHeading() {
+        updateRays();
         return this.yRay.heading();
     }
 
     public Vector3 getZHeading() {
+        updateRays();
         return this.zRay.heading();
     }
 
@@ -332,20 +315,59 @@ public class Transform3D {
     }
 
     /**
-     * @return a precomputed inverse of the rotation represented by this basis
-     *         object.
+     * The inverse rotation used to be the public field inverseRotation. Code
+     * which read that field should call this instead, and code which modified it
+     * should use {@link #getInverseRotation(Quaternion)}.
+     *
+     * @return the inverse of the rotation represented by this basis object. The
+     *         returned object is reused, and recomputed in place the first time
+     *         it's read after each modification, so don't modify it.
      */
     public Quaternion getInverseRotation() {
+        if (inverseStamp != modificationCount) {
+            this.rotation.setToReversion(inverseRotation);
+            inverseStamp = modificationCount;
+        }
         return this.inverseRotation;
     }
 
+    /**
+     * copies the precomputed inverse rotation into storeIn, for callers which
+     * need to modify it.
+     *
+     * @param storeIn
+     */
+    public void getInverseRotation(Quaternion storeIn) {
+        storeIn.set(getInverseRotation());
+    }
+
+    /**
+     * computes the inverse rotation and the axis rays now, if they're out of
+     * date, so that reading them later doesn't write this transform. Lets a
+     * transform which isn't being modified be read from several threads.
+     */
+    public void precompute() {
+        getInverseRotation();
+        updateRays();
+    }
+
     private void updateRays() {
+        if (raysStamp == modificationCount)
+            return;
+        if (xRay == null) {
+            xRay = new Ray3D();
+            xRay.setP2(new Vector3());
+            yRay = new Ray3D();
+            yRay.setP2(new Vector3());
+            zRay = new Ray3D();
+            zRay.setP2(new Vector3());
+        }
         xRay.setP1(this.translate);
-        xRay.p2.set(xBase);
+        xRay.p2.set(1, 0, 0);
         yRay.setP1(this.translate);
-        yRay.p2.set(yBase);
+        yRay.p2.set(0, 1, 0);
         zRay.setP1(this.translate);
-        zRay.p2.set(zBase);
+        zRay.p2.set(0, 0, 1);
 
         rotation.applyTo(xRay.p2, xRay.p2);
         rotation.applyTo(yRay.p2, yRay.p2);
@@ -354,9 +376,11 @@ public class Transform3D {
         xRay.p2.add(this.translate);
         yRay.p2.add(this.translate);
         zRay.p2.add(this.translate);
+        raysStamp = modificationCount;
     }
 
     public String toString() {
+        updateRays();
         Vector3 xh = xRay.heading().toVec3f();
 
         Vector3 yh = yRay.heading().toVec3f();
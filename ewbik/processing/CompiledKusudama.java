@@ -0,0 +1,604 @@
+package ewbik.processing.singlePrecision;
+
+import ewbik.math.MathUtils;
+import ewbik.math.Vector3;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable, packed copy of the geometry of a Kusudama: its limit cones, the
+ * tangent circles between them, its twist limits, and the bounding caps and
+ * lookup grid derived from those. This is what the solver queries, through the
+ * static kernels below, while Kusudama and LimitCone stay the editable,
+ * saveable and drawable description.
+ * <p>
+ * Kusudamas compile themselves lazily after constraintUpdateNotification (or
+ * any other change to their cones or twist limits), and kusudamas with the
+ * same definition share one compiled instance, so rigs loaded from the same
+ * file share their constraint data. Whether a kusudama is orientationally or
+ * axially constrained isn't part of the definition; Kusudama checks that
+ * before calling in.
+ * <p>
+ * The kernels don't allocate and don't touch any state but their arguments, so
+ * they can be called from any number of threads at once. They give the same
+ * results as the LimitCone methods of the same names, to the bit.
+ */
+public final class CompiledKusudama {
+
+    public static final float TAU = MathUtils.PI * 2;
+    public static final float PI = MathUtils.PI;
+
+    /**
+     * floats per cone in cones: the x, y, z of its control point, its radius and
+     * the cosine of its radius.
+     */
+    static final int CONE_STRIDE = 5;
+    /**
+     * floats per pair of adjacent cones in pairs: the x, y, z of the first and
+     * second tangent circle centers, the tangent circles' radius and its cosine.
+     */
+    static final int PAIR_STRIDE = 8;
+    /**
+     * floats per pair in segmentCaps and pathCaps: the x, y, z of the cap's
+     * center, then the cosine and sine of its radius.
+     */
+    static final int CAP_STRIDE = 5;
+    /**
+     * how far below the best answer so far a pair's bound has to be before the
+     * pair is skipped, to absorb float rounding in the collision points.
+     */
+    static final float CAP_TOLERANCE = 1e-5f;
+
+    private static final WeakHashMap<Definition, WeakReference<CompiledKusudama>> shared = new WeakHashMap<>();
+
+    public final int coneCount;
+    public final float minAxialAngle;
+    public final float range;
+    final float[] cones;
+    final float[] pairs;
+    /**
+     * a bounding cap for each pair, covering both cones and the path between
+     * them, and so everything the pair can report as in bounds or return as a
+     * collision.
+     */
+    final float[] segmentCaps;
+    /**
+     * the same for the arc between the two control points of each pair, which
+     * is all that pointOnPathSequence can return from it.
+     */
+    final float[] pathCaps;
+    /**
+     * null unless the kusudama asked for one.
+     */
+    final KusudamaLookupGrid lookupGrid;
+    /**
+     * keeps this instance's entry in shared alive for as long as it is.
+     */
+    private final Definition definition;
+
+    private CompiledKusudama(Definition definition) {
+        this.definition = definition;
+        this.cones = definition.cones;
+        this.pairs = definition.pairs;
+        this.coneCount = cones.length / CONE_STRIDE;
+        this.minAxialAngle = definition.minAxialAngle;
+        this.range = definition.range;
+        int segments = Math.max(0, coneCount - 1);
+        segmentCaps = new float[segments * CAP_STRIDE];
+        pathCaps = new float[segments * CAP_STRIDE];
+        updateCaps();
+        if (definition.gridResolution > 0 && coneCount > 1) {
+            lookupGrid = new KusudamaLookupGrid(definition.gridResolution);
+            lookupGrid.build(this);
+        } else {
+            lookupGrid = null;
+        }
+    }
+
+    /**
+     * @return the compiled form of the kusudama's current definition, shared with
+     *         any other kusudama that has the same one.
+     */
+    public static CompiledKusudama compile(Kusudama kusudama) {
+        Definition definition = new Definition(kusudama);
+        synchronized (shared) {
+            WeakReference<CompiledKusudama> existing = shared.get(definition);
+            CompiledKusudama compiled = existing == null ? null : existing.get();
+            if (compiled != null)
+                return compiled;
+        }
+        // building the grid can take a while, so it happens outside the lock. If
+        // another thread compiles the same definition meanwhile, its copy wins.
+        CompiledKusudama compiled = new CompiledKusudama(definition);
+        synchronized (shared) {
+            WeakReference<CompiledKusudama> existing = shared.get(definition);
+            CompiledKusudama other = existing == null ? null : existing.get();
+            if (other != null)
+                return other;
+            // put() would keep a stale entry's equal key, which nothing holds on to.
+            shared.remove(definition);
+            shared.put(definition, new WeakReference<>(compiled));
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the number of cells along each side of the lookup grid, or 0 if
+     *         there is none.
+     */
+    public int getLookupGridResolution() {
+        return lookupGrid == null ? 0 : lookupGrid.resolution;
+    }
+
+    /**
+     * Finds the direction within the cones that's nearest to point, as
+     * Kusudama.pointInLimits does.
+     *
+     * @param point a unit direction in the limiting frame.
+     * @param out   set to point if it's in bounds, or to the nearest direction
+     *              that is. May be point itself.
+     * @param keys  scratch space for at least coneCount - 1 floats.
+     * @return 1 if point is in bounds, -1 if it isn't.
+     */
+    public static float pointInLimits(CompiledKusudama k, Vector3 point, Vector3 out, float[] keys) {
+        float x = point.x, y = point.y, z = point.z;
+        if (k.coneCount == 1) {
+            float[] c = k.cones;
+            if (x * c[0] + y * c[1] + z * c[2] > c[4]) {
+                out.set(x, y, z);
+                return 1f;
+            }
+            rotateTowards(c[0], c[1], c[2], x, y, z, c[3], out);
+            return -1f;
+        }
+        int[] order = null;
+        int from = 0, count = k.coneCount - 1;
+        KusudamaLookupGrid grid = k.lookupGrid;
+        if (grid != null) {
+            int at = grid.cellOf(point);
+            int cell = at < 0 ? KusudamaLookupGrid.MIXED : grid.cells[at];
+            if (cell == KusudamaLookupGrid.INSIDE) {
+                out.set(x, y, z);
+                return 1f;
+            } else if (cell >= 0) {
+                order = grid.candidates;
+                from = cell + 1;
+                count = order[cell];
+            }
+        }
+        for (int n = 0; n < count; n++) {
+            keys[n] = capCos(k.segmentCaps, order == null ? n : order[from + n], x, y, z);
+        }
+        // visit the pairs nearest cap first, and stop once no cap left can hold
+        // anything closer than the closest collision so far. Only a pair whose
+        // cap contains the point can have it in bounds.
+        int closestIndex = -1;
+        float closestCos = -2f, bestX = 0f, bestY = 0f, bestZ = 0f;
+        for (int visited = 0; visited < count; visited++) {
+            int n = nearestKey(keys, count);
+            if (n == -1 || (closestIndex != -1 && keys[n] < closestCos - CAP_TOLERANCE))
+                break;
+            keys[n] = -2f;
+            int i = order == null ? n : order[from + n];
+            if (inBoundsFromThisToNext(k, i, x, y, z, out)) {
+                out.set(x, y, z);
+                return 1f;
+            }
+            float thisCos = out.x * x + out.y * y + out.z * z;
+            // ties go to the earlier pair, as if they had been visited in order.
+            if (closestIndex == -1 || thisCos > closestCos || (thisCos == closestCos && i < closestIndex)) {
+                bestX = out.x;
+                bestY = out.y;
+                bestZ = out.z;
+                closestCos = thisCos;
+                closestIndex = i;
+            }
+        }
+        out.set(bestX, bestY, bestZ);
+        return -1f;
+    }
+
+    /**
+     * Finds the nearest direction on the path through the cones' control points,
+     * as Kusudama.pointOnPathSequence does.
+     *
+     * @param point a unit direction in the limiting frame.
+     * @param out   set to the nearest point on the path, or to point if no part
+     *              of the path is within 90 degrees of it. May be point itself.
+     * @param keys  scratch space for at least coneCount - 1 floats.
+     */
+    public static void pointOnPathSequence(CompiledKusudama k, Vector3 point, Vector3 out, float[] keys) {
+        float x = point.x, y = point.y, z = point.z;
+        if (k.coneCount == 1) {
+            out.set(k.cones[0], k.cones[1], k.cones[2]);
+            return;
+        }
+        int count = k.coneCount - 1;
+        for (int i = 0; i < count; i++) {
+            keys[i] = capCos(k.pathCaps, i, x, y, z);
+        }
+        int closestIndex = -1;
+        float closestPointDot = 0f, bestX = x, bestY = y, bestZ = z;
+        for (int visited = 0; visited < count; visited++) {
+            int i = nearestKey(keys, count);
+            if (i == -1 || keys[i] < closestPointDot - CAP_TOLERANCE)
+                break;
+            keys[i] = -2f;
+            closestPathPoint(k, i, x, y, z, out);
+            float closeDot = out.x * x + out.y * y + out.z * z;
+            if (closeDot > closestPointDot
+                    || (closeDot == closestPointDot && closestIndex != -1 && i < closestIndex)) {
+                bestX = out.x;
+                bestY = out.y;
+                bestZ = out.z;
+                closestPointDot = closeDot;
+                closestIndex = i;
+            }
+        }
+        out.set(bestX, bestY, bestZ);
+    }
+
+    /**
+     * as LimitCone.inBoundsFromThisToNext, for the pair starting at the given
+     * cone.
+     *
+     * @param collision set to the input if it's in bounds, or to the nearest
+     *                  point the pair allows.
+     */
+    public static boolean inBoundsFromThisToNext(CompiledKusudama k, int pair, float x, float y, float z,
+            Vector3 collision) {
+        float[] c = k.cones;
+        int a = pair * CONE_STRIDE, b = a + CONE_STRIDE;
+        if (onGreatTangentTriangle(k, pair, x, y, z, collision))
+            return false;
+        // closestPointOnClosestCone
+        if (x * c[a] + y * c[a + 1] + z * c[a + 2] > c[a + 4]
+                || x * c[b] + y * c[b + 1] + z * c[b + 2] > c[b + 4]) {
+            collision.set(x, y, z);
+            return true;
+        }
+        rotateTowards(c[a], c[a + 1], c[a + 2], x, y, z, c[a + 3], collision);
+        float firstX = collision.x, firstY = collision.y, firstZ = collision.z;
+        rotateTowards(c[b], c[b + 1], c[b + 2], x, y, z, c[b + 3], collision);
+        float cosToFirst = x * firstX + y * firstY + z * firstZ;
+        float cosToSecond = x * collision.x + y * collision.y + z * collision.z;
+        if (cosToFirst > cosToSecond)
+            collision.set(firstX, firstY, firstZ);
+        return false;
+    }
+
+    /**
+     * as LimitCone.getOnGreatTangentTriangle.
+     *
+     * @return false if the input isn't within either of the pair's tangent
+     *         triangles, otherwise true with result set to the input, or to the
+     *         edge of the tangent circle it's inside of.
+     */
+    private static boolean onGreatTangentTriangle(CompiledKusudama k, int pair, float x, float y, float z,
+            Vector3 result) {
+        float[] c = k.cones;
+        float[] p = k.pairs;
+        int a = pair * CONE_STRIDE, b = a + CONE_STRIDE, t = pair * PAIR_STRIDE;
+        float c1x = c[a], c1y = c[a + 1], c1z = c[a + 2];
+        float c2x = c[b], c2y = c[b + 1], c2z = c[b + 2];
+        float c1c2fir = x * (c1y * c2z - c1z * c2y) + y * (c1z * c2x - c1x * c2z) + z * (c1x * c2y - c1y * c2x);
+        float tx, ty, tz;
+        boolean inTriangle;
+        if (c1c2fir < 0.0) {
+            tx = p[t];
+            ty = p[t + 1];
+            tz = p[t + 2];
+            // c1 x t1, then t1 x c2
+            inTriangle = x * (c1y * tz - c1z * ty) + y * (c1z * tx - c1x * tz) + z * (c1x * ty - c1y * tx) > 0
+                    && x * (ty * c2z - tz * c2y) + y * (tz * c2x - tx * c2z) + z * (tx * c2y - ty * c2x) > 0;
+        } else {
+            tx = p[t + 3];
+            ty = p[t + 4];
+            tz = p[t + 5];
+            // t2 x c1, then c2 x t2
+            inTriangle = x * (ty * c1z - tz * c1y) + y * (tz * c1x - tx * c1z) + z * (tx * c1y - ty * c1x) > 0
+                    && x * (c2y * tz - c2z * ty) + y * (c2z * tx - c2x * tz) + z * (c2x * ty - c2y * tx) > 0;
+        }
+        if (!inTriangle)
+            return false;
+        if (x * tx + y * ty + z * tz > p[t + 7])
+            rotateTowards(tx, ty, tz, x, y, z, p[t + 6], result);
+        else
+            result.set(x, y, z);
+        return true;
+    }
+
+    /**
+     * as LimitCone.getClosestPathPoint.
+     */
+    private static void closestPathPoint(CompiledKusudama k, int pair, float x, float y, float z, Vector3 result) {
+        float[] c = k.cones;
+        float[] p = k.pairs;
+        int a = pair * CONE_STRIDE, b = a + CONE_STRIDE, t = pair * PAIR_STRIDE;
+        float c1x = c[a], c1y = c[a + 1], c1z = c[a + 2];
+        float c2x = c[b], c2y = c[b + 1], c2z = c[b + 2];
+        float c1c2fir = x * (c1y * c2z - c1z * c2y) + y * (c1z * c2x - c1x * c2z) + z * (c1x * c2y - c1y * c2x);
+        float tx, ty, tz;
+        boolean inTriangle;
+        if (c1c2fir < 0.0) {
+            tx = p[t];
+            ty = p[t + 1];
+            tz = p[t + 2];
+            inTriangle = x * (c1y * tz - c1z * ty) + y * (c1z * tx - c1x * tz) + z * (c1x * ty - c1y * tx) > 0
+                    && x * (ty * c2z - tz * c2y) + y * (tz * c2x - tx * c2z) + z * (tx * c2y - ty * c2x) > 0;
+        } else {
+            tx = p[t + 3];
+            ty = p[t + 4];
+            tz = p[t + 5];
+            inTriangle = x * (ty * c1z - tz * c1y) + y * (tz * c1x - tx * c1z) + z * (tx * c1y - ty * c1x) > 0
+                    && x * (c2y * tz - c2z * ty) + y * (c2z * tx - c2x * tz) + z * (c2x * ty - c2y * tx) > 0;
+        }
+        if (inTriangle) {
+            // where the ray from the tangent circle's center through the input
+            // crosses the plane of the two control points, as Ray3D.intersectsPlane
+            // finds it.
+            float aX = 0f - tx, aY = 0f - ty, aZ = 0f - tz;
+            float uX = (c1x - tx) - aX, uY = (c1y - ty) - aY, uZ = (c1z - tz) - aZ;
+            float vX = (c2x - tx) - aX, vY = (c2y - ty) - aY, vZ = (c2z - tz) - aZ;
+            float nX = uY * vZ - uZ * vY, nY = uZ * vX - uX * vZ, nZ = uX * vY - uY * vX;
+            float dX = x - tx, dY = y - ty, dZ = z - tz;
+            float w0X = 0f - aX, w0Y = 0f - aY, w0Z = 0f - aZ;
+            float along = -(nX * w0X + nY * w0Y + nZ * w0Z) / (nX * dX + nY * dY + nZ * dZ);
+            dX *= along;
+            dY *= along;
+            dZ *= along;
+            result.set(dX + tx, dY + ty, dZ + tz);
+            result.normalize();
+        } else if (x * c1x + y * c1y + z * c1z > x * c2x + y * c2y + z * c2z) {
+            result.set(c1x, c1y, c1z);
+        } else {
+            result.set(c2x, c2y, c2z);
+        }
+    }
+
+    /**
+     * sets result to the direction (ax, ay, az) rotated by angle towards (x, y, z),
+     * computed exactly as new Quaternion(a.crossCopy(xyz), angle).applyToCopy(a)
+     * would.
+     */
+    static void rotateTowards(float ax, float ay, float az, float x, float y, float z, float angle,
+            Vector3 result) {
+        float axisX = ay * z - az * y, axisY = az * x - ax * z, axisZ = ax * y - ay * x;
+        float norm = MathUtils.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+        float halfAngle = -0.5f * angle;
+        float coeff = MathUtils.sin(halfAngle) / norm;
+        float q0 = MathUtils.cos(halfAngle);
+        float q1 = coeff * axisX, q2 = coeff * axisY, q3 = coeff * axisZ;
+        float s = q1 * ax + q2 * ay + q3 * az;
+        result.set(2 * (q0 * (ax * q0 - (q2 * az - q3 * ay)) + s * q1) - ax,
+                2 * (q0 * (ay * q0 - (q3 * ax - q1 * az)) + s * q2) - ay,
+                2 * (q0 * (az * q0 - (q1 * ay - q2 * ax)) + s * q3) - az);
+    }
+
+    /**
+     * @param twist the twist of a bone about the limiting frame's y axis, as
+     *              found by Kusudama.twistAngleOf.
+     * @return the rotation about the bone's y axis that brings it back to the
+     *         nearest twist limit, or 0 if it's within them.
+     */
+    public static float twistToLimits(CompiledKusudama k, float twist) {
+        float angleDelta2 = toTau(twist * -1f);
+        float fromMinToAngleDelta = toTau(signedAngleDifference(angleDelta2, TAU - k.minAxialAngle));
+        if (fromMinToAngleDelta < TAU - k.range) {
+            float distToMin = MathUtils.abs(signedAngleDifference(angleDelta2, TAU - k.minAxialAngle));
+            float distToMax = MathUtils.abs(signedAngleDifference(angleDelta2, TAU - (k.minAxialAngle + k.range)));
+            if (distToMin < distToMax)
+                return fromMinToAngleDelta;
+            else
+                return k.range - (TAU - fromMinToAngleDelta);
+        }
+        return 0f;
+    }
+
+    /**
+     * @return the signed angle from the given twist to the middle of the twist
+     *         range.
+     */
+    public static float twistToCenter(CompiledKusudama k, float twist) {
+        float angleDelta2 = toTau(twist * -1f);
+        return signedAngleDifference(angleDelta2, TAU - (k.minAxialAngle + (k.range / 2f)));
+    }
+
+    public static boolean inTwistLimits(CompiledKusudama k, float twist) {
+        float angleDelta = toTau(twist * -1);
+        return !(toTau(signedAngleDifference(angleDelta, TAU - k.minAxialAngle)) < TAU - k.range);
+    }
+
+    public static float signedAngleDifference(float minAngle, float base) {
+        float d = MathUtils.abs(minAngle - base) % TAU;
+        float r = d > PI ? TAU - d : d;
+
+        float sign = (minAngle - base >= 0 && minAngle - base <= PI)
+                || (minAngle - base <= -PI && minAngle - base >= -TAU) ? 1f : -1f;
+        r *= sign;
+        return r;
+    }
+
+    public static float toTau(float angle) {
+        float result = angle;
+        if (angle < 0) {
+            result = (2 * MathUtils.PI) + angle;
+        }
+        result = result % (MathUtils.PI * 2);
+        return result;
+    }
+
+    /**
+     * @return the cosine of the angle from (x, y, z) to the nearest direction in
+     *         the pair's cap, and so an upper bound on the cosine from it to
+     *         anything the pair can return.
+     */
+    static float capCos(float[] caps, int segment, float x, float y, float z) {
+        int at = segment * CAP_STRIDE;
+        float d = x * caps[at] + y * caps[at + 1] + z * caps[at + 2];
+        if (d >= caps[at + 3])
+            return 1f;
+        // cos(angle - radius), without finding either angle.
+        float sin = MathUtils.sqrt(MathUtils.max(0f, 1f - d * d));
+        return d * caps[at + 3] + sin * caps[at + 4];
+    }
+
+    /**
+     * @return the position in keys of the highest key that hasn't been visited
+     *         yet, or -1 if there are none.
+     */
+    private static int nearestKey(float[] keys, int count) {
+        int nearest = -1;
+        float nearestKey = -1.5f;
+        for (int n = 0; n < count; n++) {
+            if (keys[n] > nearestKey) {
+                nearest = n;
+                nearestKey = keys[n];
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Computes the bounding caps of each pair: the smallest cap containing both
+     * cones, and the smallest containing the arc between their control points.
+     * The path between two cones is bounded by the arcs of their tangent circles,
+     * which bulge towards it, so the path lies within the convex hull of the two
+     * cones and within any convex cap containing both. Pairs whose cap would be
+     * wider than a hemisphere get one that covers the whole sphere, so they're
+     * never skipped.
+     */
+    private void updateCaps() {
+        for (int i = 0; i < coneCount - 1; i++) {
+            int a = i * CONE_STRIDE, b = a + CONE_STRIDE;
+            double radA = Math.acos(MathUtils.clamp(cones[a + 4], -1f, 1f));
+            double radB = Math.acos(MathUtils.clamp(cones[b + 4], -1f, 1f));
+            double ax = cones[a], ay = cones[a + 1], az = cones[a + 2];
+            double bx = cones[b], by = cones[b + 1], bz = cones[b + 2];
+            double lenA = Math.sqrt(ax * ax + ay * ay + az * az);
+            double lenB = Math.sqrt(bx * bx + by * by + bz * bz);
+            ax /= lenA;
+            ay /= lenA;
+            az /= lenA;
+            bx /= lenB;
+            by /= lenB;
+            bz /= lenB;
+            double cosAB = Math.max(-1d, Math.min(1d, ax * bx + ay * by + az * bz));
+            double between = Math.acos(cosAB);
+            double cx, cy, cz, capRadius;
+            if (radA >= between + radB) {
+                cx = ax;
+                cy = ay;
+                cz = az;
+                capRadius = radA;
+            } else if (radB >= between + radA) {
+                cx = bx;
+                cy = by;
+                cz = bz;
+                capRadius = radB;
+            } else {
+                capRadius = (between + radA + radB) / 2d;
+                // walk from a towards b until the cap just reaches past both cones.
+                double wx = bx - ax * cosAB, wy = by - ay * cosAB, wz = bz - az * cosAB;
+                double lenW = Math.sqrt(wx * wx + wy * wy + wz * wz);
+                double walk = capRadius - radA;
+                double cosWalk = Math.cos(walk), sinWalk = lenW > 0d ? Math.sin(walk) / lenW : 0d;
+                cx = ax * cosWalk + wx * sinWalk;
+                cy = ay * cosWalk + wy * sinWalk;
+                cz = az * cosWalk + wz * sinWalk;
+            }
+            setCap(segmentCaps, i, cx, cy, cz, capRadius);
+            double mx = ax + bx, my = ay + by, mz = az + bz;
+            double lenM = Math.sqrt(mx * mx + my * my + mz * mz);
+            setCap(pathCaps, i, mx / lenM, my / lenM, mz / lenM, between / 2d);
+        }
+    }
+
+    private static void setCap(float[] caps, int segment, double x, double y, double z, double radius) {
+        // a little extra radius, so that rounding can't put an answer outside it.
+        radius += 1e-4;
+        int at = segment * CAP_STRIDE;
+        if (radius <= MathUtils.PI / 2f && !Double.isNaN(x + y + z)) {
+            caps[at] = (float) x;
+            caps[at + 1] = (float) y;
+            caps[at + 2] = (float) z;
+            caps[at + 3] = (float) Math.cos(radius);
+            caps[at + 4] = (float) Math.sin(radius);
+        } else {
+            caps[at] = 0f;
+            caps[at + 1] = 1f;
+            caps[at + 2] = 0f;
+            caps[at + 3] = -2f;
+            caps[at + 4] = 0f;
+        }
+    }
+
+    /**
+     * everything a compiled kusudama is built from, compared bit for bit.
+     */
+    private static final class Definition {
+        final float[] cones;
+        final float[] pairs;
+        final float minAxialAngle;
+        final float range;
+        final int gridResolution;
+        private final int hash;
+
+        Definition(Kusudama kusudama) {
+            ArrayList<LimitCone> limitCones = kusudama.limitCones;
+            int count = limitCones.size();
+            cones = new float[count * CONE_STRIDE];
+            pairs = new float[Math.max(0, count - 1) * PAIR_STRIDE];
+            for (int i = 0; i < count; i++) {
+                LimitCone cone = limitCones.get(i);
+                Vector3 controlPoint = cone.getControlPoint();
+                int at = i * CONE_STRIDE;
+                cones[at] = controlPoint.x;
+                cones[at + 1] = controlPoint.y;
+                cones[at + 2] = controlPoint.z;
+                cones[at + 3] = cone.getRadius();
+                cones[at + 4] = cone.getRadiusCosine();
+                if (i < count - 1) {
+                    at = i * PAIR_STRIDE;
+                    pairs[at] = cone.tangentCircleCenterNext1.x;
+                    pairs[at + 1] = cone.tangentCircleCenterNext1.y;
+                    pairs[at + 2] = cone.tangentCircleCenterNext1.z;
+                    pairs[at + 3] = cone.tangentCircleCenterNext2.x;
+                    pairs[at + 4] = cone.tangentCircleCenterNext2.y;
+                    pairs[at + 5] = cone.tangentCircleCenterNext2.z;
+                    pairs[at + 6] = cone.tangentCircleRadiusNext;
+                    pairs[at + 7] = cone.tangentCircleRadiusNextCos;
+                }
+            }
+            minAxialAngle = kusudama.minAxialAngle;
+            range = kusudama.range;
+            gridResolution = kusudama.lookupGridResolution;
+            int h = Arrays.hashCode(cones);
+            h = 31 * h + Arrays.hashCode(pairs);
+            h = 31 * h + Float.floatToIntBits(minAxialAngle);
+            h = 31 * h + Float.floatToIntBits(range);
+            hash = 31 * h + gridResolution;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Definition))
+                return false;
+            Definition d = (Definition) o;
+            return hash == d.hash && gridResolution == d.gridResolution
+                    && Float.floatToIntBits(minAxialAngle) == Float.floatToIntBits(d.minAxialAngle)
+                    && Float.floatToIntBits(range) == Float.floatToIntBits(d.range)
+                    && Arrays.equals(cones, d.cones) && Arrays.equals(pairs, d.pairs);
+        }
+    }
+}
@@ -276,6 +276,11 @@ public class ItemHolding extends PApplet {
         loadedArmature.getBoneName("left hand").getIKPin().getAxes().setParent(cubeNode3D);
         loadedArmature.getBoneName("right hand").getIKPin().getAxes().setParent(cubeNode3D);
 
+        /**
+         * only the hands' pins move with the cube, so there's no need to re-solve
+         * the chains that can't be affected by them.
+         */
+        loadedArmature.setSkipUnchangedChains(true);
     }
 
     public void draw() {
@@ -25,6 +25,7 @@ import ewbik.asj.Saveable;
 import ewbik.ik.ShadowNode3D;
 import ewbik.math.*;
 import ik.Bone;
+import math.Basis;
 import processing.Node3D;
 import processing.core.PConstants;
 import processing.core.PGraphics;
@@ -83,9 +84,41 @@ public class Kusudama implements Saveable {
     int coneCount;
     Ray3D boneRay = new Ray3D(new Vector3(), new Vector3());
     Ray3D constrainedRay = new Ray3D(new Vector3(), new Vector3());
+    /**
+     * scratch objects for the snapping and twist methods, so that the solver
+     * doesn't allocate when it calls them.
+     */
+    final Vector3 yAxis = new Vector3(0, 1, 0);
+    final Vector3 workingTip = new Vector3();
+    final Vector3 workingPoint = new Vector3();
+    final Vector3 boneHeading = new Vector3();
+    final Vector3 constrainedHeading = new Vector3();
+    final Quaternion workingRotation = new Quaternion();
+    /**
+     * the inverse global rotation of the last limiting frame the twist methods
+     * were called with, valid while that frame's transform version stays
+     * limitingVersion.
+     */
+    Node3D limitingFrame = null;
+    long limitingVersion = -1;
+    float limitingInverseQ0, limitingInverseQ1, limitingInverseQ2, limitingInverseQ3;
     float unitHyperArea = 2 * MathUtils.pow(MathUtils.PI, 2);
     float unitArea = 4 * MathUtils.PI;
     float rotationalFreedom = 1f;
+    /**
+     * cells along each side of the optional lookup grid, see
+     * setLookupGridResolution. 0 when disabled.
+     */
+    int lookupGridResolution = 0;
+    /**
+     * the packed form of this kusudama's definition that the queries run on, or
+     * null if it has changed since it was last compiled. See compiled().
+     */
+    CompiledKusudama compiled = null;
+    /**
+     * scratch for the compiled queries, one float per cone.
+     */
+    float[] segmentKeys = new float[0];
 
     public Kusudama() {
     }
@@ -192,14 +225,10 @@ public class Kusudama implements Saveable {
         p.sphereDetail(30);
         p.sphere(attachedTo().getBoneHeight() / 3.5f);
         p.resetShader();
-        Quaternion alignRot = limitingNode3D.getGlobalMBasis().getInverseRotation()
-                .applyTo(attachedTo().localAxes().getGlobalMBasis().rotation);
-
-        Quaternion[] decomposition = alignRot.getSwingTwist(new ewbik.math.Vector3(0, 1, 0));
-        float angle = decomposition[1].getAngle() * decomposition[1].getAxis().y;
-        Quaternion zRot = new Quaternion(new ewbik.math.Vector3(0, 1, 0), angle);
+        float angle = twistAngleOf(attachedTo().localAxes().getGlobalMBasis().rotation, limitingNode3D);
+        workingRotation.set(yAxis, angle);
         ewbik.math.Vector3 yaw = new ewbik.math.Vector3(0, 0, circumference);
-        yaw = zRot.applyToCopy(yaw);
+        workingRotation.applyTo(yaw, yaw);
         p.stroke(25, 25, 195);
         p.strokeWeight(4);
         p.line(0f, 0f, 0f, yaw.x, yaw.y, yaw.z);
@@ -261,9 +290,59 @@ public class Kusudama implements Saveable {
                     : null;
             limitCones.get(i).updateTangentHandles(next);
         }
+        compiled = null;
         updateShaderTexture();
     }
 
+    /**
+     * @return the compiled form of this kusudama's current cones and twist
+     *         limits, compiling it first if anything changed since the last
+     *         call. Kusudamas with the same definition share the same instance.
+     *         Changes to a cone's vectors made in place, without going through
+     *         its setters, aren't noticed until constraintUpdateNotification()
+     *         is called.
+     */
+    public CompiledKusudama compiled() {
+        if (compiled == null || compiled.coneCount != limitCones.size()) {
+            compiled = CompiledKusudama.compile(this);
+            if (segmentKeys.length < compiled.coneCount)
+                segmentKeys = new float[compiled.coneCount];
+        }
+        return compiled;
+    }
+
+    /**
+     * Enables a precomputed grid over the directions of the limiting frame,
+     * which lets pointInLimits answer most queries without testing every pair of
+     * limit cones. Directions whose cell is wholly in bounds are answered
+     * immediately, cells wholly out of bounds test only the few pairs that can
+     * be nearest to them, and only cells straddling a boundary test every pair.
+     * The results are the same as without the grid.
+     * <p>
+     * The grid is part of the compiled form, so it's rebuilt on the first query
+     * after the cones change, which costs about resolution^2 evaluations of
+     * every pair, and it's shared between kusudamas with the same definition.
+     * It only helps kusudamas with three or more cones; resolutions of 32 to 64
+     * work well for most joints.
+     *
+     * @param resolution the number of cells along each side of the grid, or 0 to
+     *                   disable it.
+     */
+    public void setLookupGridResolution(int resolution) {
+        // the grid rounds up to an even number of cells, which compiled forms are
+        // told apart by.
+        lookupGridResolution = resolution > 0 ? resolution + (resolution & 1) : 0;
+        compiled = null;
+    }
+
+    /**
+     * @return the number of cells along each side of the lookup grid, or 0 if it
+     *         is disabled.
+     */
+    public int getLookupGridResolution() {
+        return lookupGridResolution;
+    }
+
     @SuppressWarnings("unchecked")
     public ArrayList<LimitCone> getLimitCones() {
         return (ArrayList<LimitCone>) this.limitCones;
@@ -372,13 +451,13 @@ public class Kusudama implements Saveable {
         if (limitingNode3D != null && painfullness > 0f) {
             if (orientationallyConstrained) {
                 Vector3 origin = toSet.calculatePosition();
-                Vector3 inPoint = toSet.calculateY().p2().copy();
-                Vector3 pathPoint = pointOnPathSequence(inPoint, limitingNode3D);
+                Vector3 inPoint = workingTip.set(toSet.calculateY().p2());
+                Vector3 pathPoint = pointOnPathSequence(inPoint, limitingNode3D, constrainedRay.p2());
                 inPoint.sub(origin);
                 pathPoint.sub(origin);
-                Quaternion toClamp = new Quaternion(inPoint, pathPoint);
-                toClamp.clampToQuadranceAngle(cosHalfReturnfullness);
-                toSet.rotateBy(toClamp);
+                workingRotation.set(inPoint, pathPoint);
+                workingRotation.clampToQuadranceAngle(cosHalfReturnfullness);
+                toSet.rotateBy(workingRotation);
             }
             if (axiallyConstrained) {
                 float angleToTwistMid = angleToTwistCenter(toSet, limitingNode3D);
@@ -414,12 +493,9 @@ public class Kusudama implements Saveable {
     public void setPainfullness(float amt) {
         painfullness = amt;
         if (attachedTo() != null && attachedTo().parentArmature != null) {
-            ewbik.ik.ShadowNode3D s = attachedTo().parentArmature.boneSegmentMap.get(this.attachedTo());
-            if (s != null) {
-                ShadowNode3D.ShadowBone wb = s.simulatedBones.get(this.attachedTo());
-                if (wb != null) {
-                    wb.updateCosDampening();
-                }
+            ShadowNode3D.ShadowBone wb = attachedTo().parentArmature.getSimulatedBone(this.attachedTo());
+            if (wb != null) {
+                wb.updateCosDampening();
             }
         }
     }
@@ -438,18 +514,19 @@ public class Kusudama implements Saveable {
      */
     public void setAxesToOrientationSnap(Node3D toSet,
             Node3D limitingNode3D, float cosHalfAngleDampen) {
-        float[] inBounds = { 1f };
         limitingNode3D.updateGlobal();
         boneRay.p1().set(limitingNode3D.calculatePosition());
         boneRay.p2().set(toSet.calculateY().p2());
-        Vector3 bonetip = limitingNode3D.getLocalOf(toSet.calculateY().p2());
-        Vector3 inLimits = this.pointInLimits(bonetip, inBounds);
+        limitingNode3D.setToLocalOf(toSet.calculateY().p2(), workingTip);
+        float inBounds = this.pointInLimits(workingTip, workingPoint);
 
-        if (inBounds[0] == -1 && inLimits != null) {
+        if (inBounds == -1) {
             constrainedRay.p1().set(boneRay.p1());
-            constrainedRay.p2().set(limitingNode3D.getGlobalOf(inLimits));
-            Quaternion rectifiedRot = new Quaternion(boneRay.heading(), constrainedRay.heading());
-            toSet.rotateBy(rectifiedRot);
+            limitingNode3D.setToGlobalOf(workingPoint, constrainedRay.p2());
+            boneRay.getHeading(boneHeading);
+            constrainedRay.getHeading(constrainedHeading);
+            workingRotation.set(boneHeading, constrainedHeading);
+            toSet.rotateBy(workingRotation);
             toSet.updateGlobal();
         }
     }
@@ -457,7 +534,8 @@ public class Kusudama implements Saveable {
     public boolean isInOrientationLimits(Node3D globalNode3D,
             Node3D limitingNode3D) {
         float[] inBounds = { 1f };
-        Vector3 inLimits = this.pointInLimits(limitingNode3D.getLocalOf(globalNode3D.calculateY().p2()), inBounds);
+        limitingNode3D.setToLocalOf(globalNode3D.calculateY().p2(), workingTip);
+        this.pointInLimits(workingTip, inBounds);
         return inBounds[0] != -1l;
     }
 
@@ -487,6 +565,33 @@ public class Kusudama implements Saveable {
         constraintUpdateNotification();
     }
 
+    /**
+     * @return the angle in radians of the twist component of globalRotation
+     *         about limitingNode3D's y axis. Doesn't allocate.
+     */
+    private float twistAngleOf(Quaternion globalRotation, Node3D limitingNode3D) {
+        limitingNode3D.updateGlobal();
+        if (limitingNode3D != limitingFrame || limitingNode3D.getTransformVersion() != limitingVersion) {
+            Basis inverse = limitingNode3D.globalMBasis.getInverseRotation().rotation;
+            limitingInverseQ0 = inverse.getQ0();
+            limitingInverseQ1 = inverse.getQ1();
+            limitingInverseQ2 = inverse.getQ2();
+            limitingInverseQ3 = inverse.getQ3();
+            limitingFrame = limitingNode3D;
+            limitingVersion = limitingNode3D.getTransformVersion();
+        }
+        Basis r = globalRotation.rotation;
+        // of the rotation relative to the limiting frame, only w and y are needed:
+        // its twist about y is (w, 0, y, 0) normalized.
+        float w = r.getQ0() * limitingInverseQ0
+                - (r.getQ1() * limitingInverseQ1 + r.getQ2() * limitingInverseQ2 + r.getQ3() * limitingInverseQ3);
+        float y = r.getQ2() * limitingInverseQ0 + r.getQ0() * limitingInverseQ2
+                + (r.getQ3() * limitingInverseQ1 - r.getQ1() * limitingInverseQ3);
+        // the angle of that twist, signed by Basis' convention and taken on the
+        // hemisphere with w >= 0.
+        return w < 0f ? -2f * (float) Math.atan2(-y, -w) : -2f * (float) Math.atan2(y, w);
+    }
+
     /**
      * @param toSet
      * @param limitingNode3D
@@ -499,28 +604,11 @@ public class Kusudama implements Saveable {
         if (!axiallyConstrained)
             return 0f;
 
-        Quaternion alignRot = limitingNode3D.getGlobalMBasis().getInverseRotation()
-                .applyTo(toSet.getGlobalMBasis().rotation);
-        Quaternion[] decomposition = alignRot.getSwingTwist(new Vector3(0, 1, 0));
-        float angleDelta2 = decomposition[1].getAngle() * decomposition[1].getAxis().y * -1f;
-        angleDelta2 = toTau(angleDelta2);
-        float fromMinToAngleDelta = toTau(signedAngleDifference(angleDelta2, TAU - this.minAxialAngle()));
-
-        if (fromMinToAngleDelta < TAU - range) {
-            float distToMin = MathUtils.abs(signedAngleDifference(angleDelta2, TAU - this.minAxialAngle()));
-            float distToMax = MathUtils.abs(signedAngleDifference(angleDelta2, TAU - (this.minAxialAngle() + range)));
-            float turnDiff = 1f;
-            if (distToMin < distToMax) {
-                turnDiff = turnDiff * (fromMinToAngleDelta);
-                toSet.rotateAboutY(turnDiff, true);
-            } else {
-                turnDiff = turnDiff * (range - (TAU - fromMinToAngleDelta));
-                toSet.rotateAboutY(turnDiff, true);
-            }
-            return turnDiff < 0 ? turnDiff * -1 : turnDiff;
-        } else {
-            return 0;
-        }
+        float turnDiff = CompiledKusudama.twistToLimits(compiled(),
+                twistAngleOf(toSet.getGlobalMBasis().rotation, limitingNode3D));
+        if (turnDiff != 0f)
+            toSet.rotateAboutY(turnDiff, true);
+        return turnDiff < 0 ? turnDiff * -1 : turnDiff;
     }
 
     public float angleToTwistCenter(Node3D toSet,
@@ -529,50 +617,20 @@ public class Kusudama implements Saveable {
         if (!axiallyConstrained)
             return 0f;
 
-        Quaternion alignRot = limitingNode3D.getGlobalMBasis().getInverseRotation()
-                .applyTo(toSet.getGlobalMBasis().rotation);
-        Quaternion[] decomposition = alignRot.getSwingTwist(new Vector3(0, 1, 0));
-        float angleDelta2 = decomposition[1].getAngle() * decomposition[1].getAxis().y * -1f;
-        angleDelta2 = toTau(angleDelta2);
-
-        float distToMid = signedAngleDifference(angleDelta2, TAU - (this.minAxialAngle() + (range / 2f)));
-        return distToMid;
-
+        return CompiledKusudama.twistToCenter(compiled(),
+                twistAngleOf(toSet.getGlobalMBasis().rotation, limitingNode3D));
     }
 
     public boolean inTwistLimits(Node3D boneNode3D,
             Node3D limitingNode3D) {
 
         limitingNode3D.updateGlobal();
-        Quaternion alignRot = limitingNode3D.getGlobalMBasis().getInverseRotation()
-                .applyTo(boneNode3D.globalMBasis.rotation);
-        Quaternion[] decomposition = alignRot.getSwingTwist(new Vector3(0, 1, 0));
-
-        float angleDelta = decomposition[1].getAngle() * decomposition[1].getAxis().y * -1;
-
-        angleDelta = toTau(angleDelta);
-        float fromMinToAngleDelta = toTau(signedAngleDifference(angleDelta, TAU - this.minAxialAngle()));
-
-        if (fromMinToAngleDelta < TAU - range) {
-            float distToMin = MathUtils.abs(signedAngleDifference(angleDelta, TAU - this.minAxialAngle()));
-            float distToMax = MathUtils.abs(signedAngleDifference(angleDelta, TAU - (this.minAxialAngle() + range)));
-            if (distToMin < distToMax) {
-                return false;
-            } else {
-                return false;
-            }
-        }
-        return true;
+        return CompiledKusudama.inTwistLimits(compiled(),
+                twistAngleOf(boneNode3D.globalMBasis.rotation, limitingNode3D));
     }
 
     public float signedAngleDifference(float minAngle, float base) {
-        float d = MathUtils.abs(minAngle - base) % TAU;
-        float r = d > PI ? TAU - d : d;
-
-        float sign = (minAngle - base >= 0 && minAngle - base <= PI)
-                || (minAngle - base <= -PI && minAngle - base >= -TAU) ? 1f : -1f;
-        r *= sign;
-        return r;
+        return CompiledKusudama.signedAngleDifference(minAngle, base);
     }
 
     /**
@@ -602,71 +660,49 @@ public class Kusudama implements Saveable {
         Vector3 point = inPoint.copy();
         point.normalize();
 
-        inBounds[0] = -1;
-
-        Vector3 closestCollisionPoint = null;
-        float closestCos = -2f;
-        if (limitCones.size() > 1 && this.orientationallyConstrained) {
-            for (int i = 0; i < limitCones.size() - 1; i++) {
-                Vector3 collisionPoint = inPoint.copy();
-                collisionPoint.set(0, 0, 0);
-                ewbik.processing.singlePrecision.LimitCone nextCone = limitCones.get(i + 1);
-                boolean inSegBounds = limitCones.get(i).inBoundsFromThisToNext(nextCone, point, collisionPoint);
-                if (inSegBounds == true) {
-                    inBounds[0] = 1;
-                } else {
-                    float thisCos = collisionPoint.dot(point);
-                    if (closestCollisionPoint == null || thisCos > closestCos) {
-                        closestCollisionPoint = collisionPoint.copy();
-                        closestCos = thisCos;
-                    }
-                }
-            }
-            if (inBounds[0] == -1) {
-                return closestCollisionPoint;
-            } else {
-                return point;
-            }
-        } else if (orientationallyConstrained) {
-            float pointdot = point.dot(limitCones.get(0).getControlPoint());
-            float radcos = limitCones.get(0).getRadiusCosine();
-            if (pointdot > radcos) {
-                inBounds[0] = 1;
-                return inPoint;
-            } else {
-                Vector3 axis = limitCones.get(0).getControlPoint().crossCopy(point);
-                Quaternion toLimit = new Quaternion(axis, limitCones.get(0).getRadius());
-                Vector3 newPoint = toLimit.applyToCopy(limitCones.get(0).getControlPoint());
-                return newPoint;
-            }
+        if (orientationallyConstrained) {
+            inBounds[0] = CompiledKusudama.pointInLimits(compiled(), point, point, segmentKeys);
+            // a lone cone hands back the input itself when it's in bounds.
+            return inBounds[0] > 0 && limitCones.size() == 1 ? inPoint : point;
         } else {
             inBounds[0] = 1;
             return inPoint;
         }
     }
 
+    /**
+     * Allocation free form of pointInLimits for the snapping methods. Writes the
+     * normalized input, or the closest point in limits, into storeIn.
+     *
+     * @return the same boundary distance pointInLimits writes into inBounds.
+     */
+    float pointInLimits(Vector3 inPoint, Vector3 storeIn) {
+        storeIn.set(inPoint);
+        storeIn.normalize();
+        if (!orientationallyConstrained)
+            return 1;
+        return CompiledKusudama.pointInLimits(compiled(), storeIn, storeIn, segmentKeys);
+    }
+
     public Vector3 pointOnPathSequence(Vector3 inPoint,
             Node3D limitingNode3D) {
-        float closestPointDot = 0f;
         Vector3 point = limitingNode3D.getLocalOf(inPoint);
         point.normalize();
-        Vector3 result = (Vector3) point.copy();
-
-        if (limitCones.size() == 1) {
-            result.set(limitCones.get(0).getControlPoint());
-        } else {
-            for (int i = 0; i < limitCones.size() - 1; i++) {
-                ewbik.processing.singlePrecision.LimitCone nextCone = limitCones.get(i + 1);
-                Vector3 closestPathPoint = limitCones.get(i).getClosestPathPoint(nextCone, point);
-                float closeDot = closestPathPoint.dot(point);
-                if (closeDot > closestPointDot) {
-                    result.set(closestPathPoint);
-                    closestPointDot = closeDot;
-                }
-            }
-        }
+        CompiledKusudama.pointOnPathSequence(compiled(), point, point, segmentKeys);
+        return limitingNode3D.getGlobalOf(point);
+    }
 
-        return limitingNode3D.getGlobalOf(result);
+    /**
+     * Allocation free form of pointOnPathSequence, writing the result into
+     * storeIn.
+     */
+    Vector3 pointOnPathSequence(Vector3 inPoint,
+            Node3D limitingNode3D, Vector3 storeIn) {
+        limitingNode3D.setToLocalOf(inPoint, workingPoint);
+        workingPoint.normalize();
+        CompiledKusudama.pointOnPathSequence(compiled(), workingPoint, workingPoint, segmentKeys);
+        limitingNode3D.setToGlobalOf(workingPoint, storeIn);
+        return storeIn;
     }
 
     public Bone attachedTo() {
@@ -741,12 +777,7 @@ public class Kusudama implements Saveable {
     }
 
     public float toTau(float angle) {
-        float result = angle;
-        if (angle < 0) {
-            result = (2 * MathUtils.PI) + angle;
-        }
-        result = result % (MathUtils.PI * 2);
-        return result;
+        return CompiledKusudama.toTau(angle);
     }
 
     public float mod(float x, float y) {
@@ -933,6 +964,7 @@ public class Kusudama implements Saveable {
         this.axiallyConstrained = j.getBoolean("axiallyConstrained");
         this.orientationallyConstrained = j.getBoolean("orientationallyConstrained");
         this.painfullness = j.getFloat("painfulness");
+        this.compiled = null;
     }
 
     @Override
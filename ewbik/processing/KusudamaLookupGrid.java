@@ -0,0 +1,301 @@
+package ewbik.processing.singlePrecision;
+
+import ewbik.math.Vector3;
+
+import java.util.Arrays;
+
+/**
+ * A precomputed octahedral grid over the directions of a Kusudama's limiting
+ * frame, so that pointInLimits doesn't have to test every pair of limit cones
+ * for most queries.
+ * <p>
+ * Each cell is classified against the whole spherical patch it covers, not
+ * just its center, so that it never changes the result of a query:
+ * <ul>
+ * <li>INSIDE: every direction in the cell is in bounds, so the query is answered
+ * without touching any cone.</li>
+ * <li>an offset into candidates: no direction in the cell is in bounds, and only
+ * the pairs listed there can hold the nearest collision point for any of them,
+ * so only those pairs are evaluated, in the usual order.</li>
+ * <li>MIXED: the cell straddles a boundary, so the query falls back to testing
+ * every pair.</li>
+ * </ul>
+ * The in bounds test is conservative by construction. The candidate lists
+ * assume the distance to each pair's collision point changes no faster than
+ * the input direction does, which holds for the cone and tangent circle
+ * projections it's made of, and keep some margin to spare.
+ */
+final class KusudamaLookupGrid {
+
+    static final int INSIDE = -1;
+    static final int MIXED = -2;
+    /**
+     * extra angle, in radians, kept between a cell and any boundary, so that
+     * float rounding in the query can't flip the answer.
+     */
+    private static final double EPSILON = 1e-4;
+    /**
+     * how much further, in radians, a pair's collision point has to be than the
+     * nearest before the two can't tie in float precision.
+     */
+    private static final double CLEARANCE = 1e-3;
+
+    final int resolution;
+    final int[] cells;
+    /**
+     * the candidate lists of the cells: a count, followed by that many indices
+     * of the first cone of a pair, in ascending order.
+     */
+    int[] candidates = new int[0];
+
+    /**
+     * @param resolution the number of cells along each side of the grid. Rounded
+     *                   up to an even number so that cell edges line up with
+     *                   the faces of the octahedron.
+     */
+    KusudamaLookupGrid(int resolution) {
+        this.resolution = resolution + (resolution & 1);
+        this.cells = new int[this.resolution * this.resolution];
+    }
+
+    /**
+     * @return the index into cells of the cell containing the given unit
+     *         direction, or -1 for a zero vector.
+     */
+    int cellOf(Vector3 point) {
+        float x = point.x, y = point.y, z = point.z;
+        float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (l1 == 0f)
+            return -1;
+        float u = x / l1, v = z / l1;
+        if (y < 0f) {
+            float fu = (1f - Math.abs(v)) * (u >= 0f ? 1f : -1f);
+            float fv = (1f - Math.abs(u)) * (v >= 0f ? 1f : -1f);
+            u = fu;
+            v = fv;
+        }
+        int n = resolution;
+        int iu = (int) ((u + 1f) * 0.5f * n);
+        int iv = (int) ((v + 1f) * 0.5f * n);
+        iu = iu < 0 ? 0 : (iu >= n ? n - 1 : iu);
+        iv = iv < 0 ? 0 : (iv >= n ? n - 1 : iv);
+        return iu + iv * n;
+    }
+
+    /**
+     * classifies every cell against the cones of a compiled kusudama.
+     */
+    void build(CompiledKusudama compiled) {
+        int segments = compiled.coneCount - 1;
+        Segment[] segs = new Segment[segments];
+        for (int i = 0; i < segments; i++) {
+            segs[i] = new Segment(compiled, i);
+        }
+        int n = resolution;
+        double step = 2d / n;
+        double[] center = new double[3];
+        double[] corner = new double[3];
+        double[] angles = new double[segments];
+        Vector3 centerVec = new Vector3();
+        Vector3 collision = new Vector3();
+        int[] pool = new int[n * n * 2];
+        int poolSize = 0;
+        for (int iv = 0; iv < n; iv++) {
+            for (int iu = 0; iu < n; iu++) {
+                double u0 = -1d + iu * step, v0 = -1d + iv * step;
+                decode(u0 + step / 2d, v0 + step / 2d, center);
+                // each cell maps to at most two flat polygons on the octahedron,
+                // whose corners are all corners of the cell, so the widest corner
+                // bounds the whole cell.
+                double cosDelta = 1d;
+                for (int c = 0; c < 4; c++) {
+                    decode(u0 + (c & 1) * step, v0 + (c >> 1) * step, corner);
+                    cosDelta = Math.min(cosDelta, dot(center, corner));
+                }
+                double delta = Math.acos(Math.max(-1d, Math.min(1d, cosDelta))) + EPSILON;
+                int cell = classify(segs, center, delta);
+                if (cell == MIXED) {
+                    int count = listCandidates(segs, center, delta, angles, centerVec, collision);
+                    if (count < segments) {
+                        if (pool.length < poolSize + count + 1)
+                            pool = Arrays.copyOf(pool, (poolSize + count + 1) * 2);
+                        cell = poolSize;
+                        pool[poolSize++] = count;
+                        for (int i = 0; i < segments; i++) {
+                            if (angles[i] >= 0d)
+                                pool[poolSize++] = i;
+                        }
+                    }
+                }
+                cells[iu + iv * n] = cell;
+            }
+        }
+        candidates = Arrays.copyOf(pool, poolSize);
+    }
+
+    /**
+     * @return INSIDE if every direction within delta of c is in bounds, or
+     *         MIXED if that can't be told from here.
+     */
+    private static int classify(Segment[] segs, double[] c, double delta) {
+        for (Segment s : segs) {
+            if (s.allInBounds(c, delta))
+                return INSIDE;
+        }
+        return MIXED;
+    }
+
+    /**
+     * if no direction within delta of c is in bounds, finds the pairs that can
+     * hold the nearest collision point for any of them, and leaves the angle
+     * from c to the collision point of each of those pairs in angles, and -1 for
+     * the others.
+     *
+     * @return the number of candidates, or the number of pairs if any direction
+     *         might be in bounds.
+     */
+    private static int listCandidates(Segment[] segs, double[] c, double delta, double[] angles,
+            Vector3 centerVec, Vector3 collision) {
+        for (Segment s : segs) {
+            if (!s.noneInBounds(c, delta))
+                return segs.length;
+        }
+        centerVec.set((float) c[0], (float) c[1], (float) c[2]);
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < segs.length; i++) {
+            CompiledKusudama.inBoundsFromThisToNext(segs[i].compiled, i, centerVec.x, centerVec.y, centerVec.z,
+                    collision);
+            double cos = Math.max(-1d, Math.min(1d, collision.dot(centerVec)));
+            angles[i] = Math.acos(cos);
+            if (Double.isNaN(angles[i]))
+                return segs.length;
+            best = Math.min(best, angles[i]);
+        }
+        // a pair whose collision point is more than 2 * delta further away than
+        // the nearest at the center stays further away anywhere in the cell. The
+        // extra margin covers the places where a pair switches between its cone
+        // and tangent circle projections, and keeps losing pairs from tying with
+        // the winner in float precision.
+        double cutoff = best + 3d * delta + CLEARANCE;
+        int count = 0;
+        for (int i = 0; i < segs.length; i++) {
+            if (angles[i] <= cutoff)
+                count++;
+            else
+                angles[i] = -1d;
+        }
+        return count;
+    }
+
+    /**
+     * the inverse of cellOf, for a point (u, v) in [-1, 1]^2.
+     */
+    private static void decode(double u, double v, double[] out) {
+        double y = 1d - Math.abs(u) - Math.abs(v);
+        double x = u, z = v;
+        if (y < 0d) {
+            x = (1d - Math.abs(v)) * (u >= 0d ? 1d : -1d);
+            z = (1d - Math.abs(u)) * (v >= 0d ? 1d : -1d);
+        }
+        double len = Math.sqrt(x * x + y * y + z * z);
+        out[0] = x / len;
+        out[1] = y / len;
+        out[2] = z / len;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    /**
+     * the geometry of the path between two adjacent cones, in double precision
+     * and with unit plane normals, so that the margin tests are exact angles.
+     */
+    private static final class Segment {
+        final CompiledKusudama compiled;
+        final double[] c1, c2;
+        final double r1, r2;
+        /**
+         * normals of the planes the in bounds test of LimitCone uses, or null
+         * where the plane is degenerate.
+         */
+        final double[] c1xc2, c1xt1, t1xc2, t2xc1, c2xt2;
+
+        Segment(CompiledKusudama compiled, int pair) {
+            this.compiled = compiled;
+            float[] cones = compiled.cones;
+            float[] pairs = compiled.pairs;
+            int a = pair * CompiledKusudama.CONE_STRIDE, b = a + CompiledKusudama.CONE_STRIDE;
+            int t = pair * CompiledKusudama.PAIR_STRIDE;
+            c1 = unit(cones[a], cones[a + 1], cones[a + 2]);
+            c2 = unit(cones[b], cones[b + 1], cones[b + 2]);
+            double[] t1 = unit(pairs[t], pairs[t + 1], pairs[t + 2]);
+            double[] t2 = unit(pairs[t + 3], pairs[t + 4], pairs[t + 5]);
+            // the angles the cone tests actually compare against, which can differ
+            // a little from the radii with an approximate trig backend.
+            r1 = Math.acos(cones[a + 4]);
+            r2 = Math.acos(cones[b + 4]);
+            c1xc2 = unitCross(c1, c2);
+            c1xt1 = unitCross(c1, t1);
+            t1xc2 = unitCross(t1, c2);
+            t2xc1 = unitCross(t2, c1);
+            c2xt2 = unitCross(c2, t2);
+        }
+
+        /**
+         * true if inBoundsFromThisToNext reports every direction within delta of
+         * c as in bounds. That happens only for directions inside one of the two
+         * cones and outside of the tangent triangle on their side of the path.
+         */
+        boolean allInBounds(double[] c, double delta) {
+            boolean inCone = (r1 > delta && dot(c, c1) > Math.cos(r1 - delta))
+                    || (r2 > delta && dot(c, c2) > Math.cos(r2 - delta));
+            if (!inCone || c1xc2 == null)
+                return false;
+            double sinDelta = Math.sin(delta);
+            boolean outOfFirst = dot(c, c1xc2) > sinDelta
+                    || (c1xt1 != null && dot(c, c1xt1) < -sinDelta)
+                    || (t1xc2 != null && dot(c, t1xc2) < -sinDelta);
+            boolean outOfSecond = dot(c, c1xc2) < -sinDelta
+                    || (t2xc1 != null && dot(c, t2xc1) < -sinDelta)
+                    || (c2xt2 != null && dot(c, c2xt2) < -sinDelta);
+            return outOfFirst && outOfSecond;
+        }
+
+        /**
+         * true if inBoundsFromThisToNext reports no direction within delta of c
+         * as in bounds: the cell is either clear of both cones, or entirely within
+         * one of the tangent triangles.
+         */
+        boolean noneInBounds(double[] c, double delta) {
+            if (r1 + delta < Math.PI && dot(c, c1) < Math.cos(r1 + delta)
+                    && r2 + delta < Math.PI && dot(c, c2) < Math.cos(r2 + delta))
+                return true;
+            if (c1xc2 == null)
+                return false;
+            double sinDelta = Math.sin(delta);
+            if (dot(c, c1xc2) < -sinDelta)
+                return c1xt1 != null && t1xc2 != null
+                        && dot(c, c1xt1) > sinDelta && dot(c, t1xc2) > sinDelta;
+            if (dot(c, c1xc2) > sinDelta)
+                return t2xc1 != null && c2xt2 != null
+                        && dot(c, t2xc1) > sinDelta && dot(c, c2xt2) > sinDelta;
+            return false;
+        }
+
+        private static double[] unit(double x, double y, double z) {
+            double len = Math.sqrt(x * x + y * y + z * z);
+            return new double[] { x / len, y / len, z / len };
+        }
+
+        private static double[] unitCross(double[] a, double[] b) {
+            double x = a[1] * b[2] - a[2] * b[1];
+            double y = a[2] * b[0] - a[0] * b[2];
+            double z = a[0] * b[1] - a[1] * b[0];
+            double len = Math.sqrt(x * x + y * y + z * z);
+            if (len < 1e-9)
+                return null;
+            return new double[] { x / len, y / len, z / len };
+        }
+    }
+}
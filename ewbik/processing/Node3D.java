@@ -27,6 +27,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 public class Node3D implements ewbik.asj.Saveable {
@@ -40,13 +41,69 @@ public class Node3D implements ewbik.asj.Saveable {
     public boolean debug = false;
     public Transform3D localMBasis;
     public Transform3D globalMBasis;
+    /**
+     * true if this node's own local transform has changed since its global
+     * transform was last computed. Changes to ancestors don't set it, see
+     * parentVersionSeen.
+     */
     public boolean dirty = true;
+    /**
+     * incremented whenever this node's global transform is recomputed, so that
+     * anything which read it (after an updateGlobal()) can later tell whether it
+     * may have changed since. Children also compare it against their
+     * parentVersionSeen to find out that they're stale.
+     */
+    private long transformVersion = 0;
+    /**
+     * the parent's transformVersion as of the last time this node's global
+     * transform was computed.
+     */
+    private long parentVersionSeen = -1;
+    /**
+     * bumped by every markDirty() on any node in this node's hierarchy, and
+     * shared by all of them (see joinHierarchyOf()). A node which was last
+     * brought up to date during the current epoch can't be stale, so
+     * updateGlobal() can return without walking its ancestors. Writes to other
+     * hierarchies don't touch it, so separate armatures keep their fast paths
+     * when solved on separate threads.
+     */
+    private AtomicLong writeEpoch = new AtomicLong();
+    private long epochValidated = -1;
+    /**
+     * the epochValidated of a node which freezeAncestry() is holding current.
+     * Greater than any epoch, so updateGlobal() never walks past such a node, or
+     * writes it.
+     */
+    private static final long FROZEN = Long.MAX_VALUE;
+    /**
+     * while updateGlobal() walks up from a stale node, each ancestor it passes
+     * points back down to the child it came from, so that the update can then
+     * run rootmost first without recursing or allocating. Null otherwise.
+     */
+    private Node3D updatePathChild;
+    /**
+     * ordinary hierarchies are shallow enough that plain recursion is the
+     * cheapest way up and back down, but past this depth updateGlobal() (and the
+     * walks down in joinHierarchy() and markDependentsDirty()) carry on
+     * iteratively instead.
+     */
+    private static final int MAX_UPDATE_RECURSION = 64;
     public LinkedList<DependencyReference<Node3D>> dependentsRegistry = new LinkedList<DependencyReference<Node3D>>();
     protected Vector3 workingVector;
     protected boolean areGlobal = true;
-    float[][] outMatLocal = new float[4][4];
-    float[][] outMatGlobal = new float[4][4];
+    /**
+     * only needed for drawing, so created on the first call to
+     * getLocalPMatrix() / getGlobalPMatrix().
+     */
+    float[][] outMatLocal;
+    float[][] outMatGlobal;
     Vector3 tempOrigin;
+    /**
+     * scratch rotations for rotateAbout*() and rotateBy(), so that neither
+     * allocates.
+     */
+    private final Quaternion workingRotation = new Quaternion();
+    private final Quaternion workingLocalRotation = new Quaternion();
     private DependencyReference<Node3D> parent = null;
 
     public Node3D(ewbik.math.Transform3D b, Node3D parent) {
@@ -285,8 +342,6 @@ public class Node3D implements ewbik.asj.Saveable {
     }
 
     private void updateMatrix(Transform3D b, float[][] outputMatrix) {
-        b.refreshPrecomputed();
-
         Vector3 x = b.getXHeading();
         Vector3 y = b.getYHeading();
         Vector3 z = b.getZHeading();
@@ -314,6 +369,8 @@ public class Node3D implements ewbik.asj.Saveable {
     }
 
     public PMatrix getLocalPMatrix() {
+        if (outMatLocal == null)
+            outMatLocal = new float[4][4];
         updateMatrix(getLocalMBasis(), outMatLocal);
         float[][] m = outMatLocal;
         PMatrix result = new PMatrix3D(
@@ -326,6 +383,8 @@ public class Node3D implements ewbik.asj.Saveable {
 
     public PMatrix getGlobalPMatrix() {
         this.updateGlobal();
+        if (outMatGlobal == null)
+            outMatGlobal = new float[4][4];
         updateMatrix(getGlobalMBasis(), outMatGlobal);
         float[][] m = outMatGlobal;
         PMatrix result = new PMatrix3D(
@@ -448,16 +507,106 @@ public class Node3D implements ewbik.asj.Saveable {
             return this.parent.get();
     }
 
+    /**
+     * brings this node's global transform up to date. Writes only mark the node
+     * they change as dirty, so this first brings the parent up to date, and then
+     * recomputes this node if it's dirty or if the parent has been recomputed
+     * since this node last was.
+     * <p>
+     * Past MAX_UPDATE_RECURSION ancestors the walk continues iteratively, so
+     * arbitrarily deep hierarchies are fine.
+     */
     public void updateGlobal() {
-        if (this.dirty) {
-            if (this.areGlobal) {
+        long epoch = writeEpoch.get();
+        if (epochValidated < epoch)
+            updateGlobal(epoch, 0);
+    }
+
+    private void updateGlobal(long epoch, int depth) {
+        Node3D parentNode3D = null;
+        if (!this.areGlobal) {
+            parentNode3D = getParentAxes();
+            // a parent which has been collected can't have changed since.
+            if (parentNode3D != null && parentNode3D.epochValidated < epoch) {
+                if (depth < MAX_UPDATE_RECURSION)
+                    parentNode3D.updateGlobal(epoch, depth + 1);
+                else
+                    parentNode3D.updateGlobalIteratively(epoch);
+            }
+        }
+        updateGlobalFrom(parentNode3D);
+    }
+
+    /**
+     * updateGlobal() without recursing, by linking each ancestor on the way up to
+     * the child below it.
+     */
+    private void updateGlobalIteratively(long epoch) {
+        // walk up to the first ancestor that's known to be current (or to the root),
+        Node3D cursor = this;
+        Node3D parentNode3D = null;
+        while (!cursor.areGlobal) {
+            parentNode3D = cursor.getParentAxes();
+            if (parentNode3D == null || parentNode3D.epochValidated >= epoch)
+                break;
+            parentNode3D.updatePathChild = cursor;
+            cursor = parentNode3D;
+            parentNode3D = null;
+        }
+        // then update back down to this node.
+        while (cursor != null) {
+            cursor.updateGlobalFrom(parentNode3D);
+            parentNode3D = cursor;
+            cursor = cursor.updatePathChild;
+            parentNode3D.updatePathChild = null;
+        }
+    }
+
+    /**
+     * updateGlobal() without the walk up the hierarchy, for callers which have
+     * already brought the given parent's global transform up to date (see
+     * Node3DHierarchy). parentNode3D is ignored (and may be null) if this node
+     * has no parent. It may also be null if the parent has been collected, in
+     * which case this node becomes a root (see orphan()).
+     */
+    void updateGlobalFrom(Node3D parentNode3D) {
+        long epoch = writeEpoch.get();
+        if (!this.areGlobal && parentNode3D == null) {
+            orphan();
+        }
+        if (this.areGlobal) {
+            if (this.dirty) {
                 globalMBasis.adoptValues(this.localMBasis);
-            } else {
-                getParentAxes().updateGlobal();
-                getParentAxes().getGlobalMBasis().setToGlobalOf(this.localMBasis, this.globalMBasis);
+                transformVersion++;
             }
+        } else if (this.dirty || (parentNode3D != null && parentNode3D.transformVersion != parentVersionSeen)) {
+            parentNode3D.globalMBasis.setToGlobalOf(this.localMBasis, this.globalMBasis);
+            parentVersionSeen = parentNode3D.transformVersion;
+            transformVersion++;
         }
         dirty = false;
+        epochValidated = epoch;
+    }
+
+    /**
+     * turns this node into a root once its parent has been collected. A node
+     * that isn't dirty keeps its last global transform, as emancipate() would
+     * have kept it. A dirty node's local transform was written against a parent
+     * which no longer exists, so it's taken as global instead.
+     */
+    private void orphan() {
+        if (!this.dirty) {
+            this.localMBasis.adoptValues(this.globalMBasis);
+        }
+        this.areGlobal = true;
+    }
+
+    /**
+     * @return a stamp which changes whenever this node's global transform may
+     *         have changed. Only meaningful if read after updateGlobal().
+     */
+    public long getTransformVersion() {
+        return transformVersion;
     }
 
     public void debugCall() {
@@ -520,6 +669,7 @@ public class Node3D implements ewbik.asj.Saveable {
             this.parent = new DependencyReference<Node3D>(null);
             this.areGlobal = true;
         }
+        joinHierarchyOf(this.getParentAxes());
         this.markDirty();
         this.updateGlobal();
 
@@ -568,11 +718,113 @@ public class Node3D implements ewbik.asj.Saveable {
         this.parent = new DependencyReference<Node3D>(par);
         this.areGlobal = false;
         this.getParentAxes().registerDependent(this);
+        joinHierarchyOf(par);
         this.markDirty();
     }
 
+    /**
+     * makes this node and its descendants share newParent's write epoch, or a
+     * fresh one of their own if newParent is null. Their epoch stamps were taken
+     * against the old counter, so they're reset. Every node in a hierarchy
+     * shares one counter, so nothing is walked if newParent's hierarchy is
+     * already this node's.
+     */
+    private void joinHierarchyOf(Node3D newParent) {
+        AtomicLong epoch = newParent == null ? new AtomicLong() : newParent.writeEpoch;
+        if (epoch == this.writeEpoch)
+            return;
+        joinHierarchy(epoch, 0);
+    }
+
+    /**
+     * recurses down like updateGlobal() recurses up, and carries on with an
+     * explicit stack past MAX_UPDATE_RECURSION.
+     */
+    private void joinHierarchy(AtomicLong epoch, int depth) {
+        this.writeEpoch = epoch;
+        this.epochValidated = -1;
+        Iterator<DependencyReference<Node3D>> i = dependentsRegistry.iterator();
+        while (i.hasNext()) {
+            Node3D dependent = i.next().get();
+            if (dependent == null) {
+                i.remove();
+            } else if (depth < MAX_UPDATE_RECURSION) {
+                dependent.joinHierarchy(epoch, depth + 1);
+            } else {
+                ArrayList<Node3D> stack = new ArrayList<>();
+                stack.add(dependent);
+                while (!stack.isEmpty()) {
+                    Node3D node = stack.remove(stack.size() - 1);
+                    node.writeEpoch = epoch;
+                    node.epochValidated = -1;
+                    node.forEachDependent((ad) -> stack.add(ad.get()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings this node and its ancestors up to date, computes everything their
+     * global transforms would otherwise compute lazily, and then holds them as
+     * current until thawAncestry(). While frozen, reading them (including
+     * updateGlobal() on them or on any of their descendants) never writes them,
+     * so they can be read from several threads at once, for example while
+     * sibling bonechains are solved concurrently.
+     * <p>
+     * Frozen nodes must not be modified until they are thawed. Freezing stops at
+     * the first ancestor which is already frozen, so nested calls each thaw only
+     * their own part of the path.
+     *
+     * @return the number of nodes frozen, to pass to thawAncestry().
+     */
+    public int freezeAncestry() {
+        updateGlobal();
+        int count = 0;
+        Node3D cursor = this;
+        while (cursor != null && cursor.epochValidated != FROZEN) {
+            cursor.globalMBasis.precompute();
+            cursor.epochValidated = FROZEN;
+            count++;
+            cursor = cursor.areGlobal ? null : cursor.getParentAxes();
+        }
+        return count;
+    }
+
+    /**
+     * releases the nodes frozen by the call to freezeAncestry() which returned
+     * count. They weren't modified while frozen, so they are still current.
+     *
+     * @param count
+     */
+    public void thawAncestry(int count) {
+        long epoch = writeEpoch.get();
+        Node3D cursor = this;
+        for (int i = 0; i < count; i++) {
+            cursor.epochValidated = epoch;
+            cursor = cursor.getParentAxes();
+        }
+    }
+
+    /**
+     * @return true if this node or any of its ancestors has changed since this
+     *         node's global transform was last computed.
+     */
     public boolean needsUpdate() {
-        return this.dirty;
+        long epoch = writeEpoch.get();
+        Node3D cursor = this;
+        while (cursor.epochValidated < epoch) {
+            if (cursor.dirty)
+                return true;
+            if (cursor.areGlobal)
+                return false;
+            Node3D parentNode3D = cursor.getParentAxes();
+            if (parentNode3D == null)
+                return false;
+            if (parentNode3D.transformVersion != cursor.parentVersionSeen)
+                return true;
+            cursor = parentNode3D;
+        }
+        return false;
     }
 
     /**
@@ -638,7 +890,9 @@ public class Node3D implements ewbik.asj.Saveable {
      * represent its position in theseAxes local coordinates.
      *
      * @param in
-     * @return a reference to the @param in object.
+     * @return a new vector holding the same values as the modified @param in
+     *         object. Use {@link #setToLocalOf(Vector3, Vector3)} to avoid the
+     *         copy.
      */
 
     public Vector3 setToLocalOf(Vector3 in) {
@@ -650,10 +904,12 @@ public class Node3D implements ewbik.asj.Saveable {
     }
 
     /**
-     * Given a vector in global coordinates, modifies the vector's values to
-     * represent its position in theseAxes local coordinates.
+     * Given an input vector in global coordinates, modifies the output vector's
+     * values to represent the input's position in theseAxes local coordinates,
+     * without allocating. in and out may be the same vector.
      *
      * @param in
+     * @param out
      */
 
     public void setToLocalOf(Vector3 in, Vector3 out) {
@@ -692,7 +948,8 @@ public class Node3D implements ewbik.asj.Saveable {
     public void translateByGlobal(Vector3 translate) {
         if (this.getParentAxes() != null) {
             this.updateGlobal();
-            this.translateTo(translate.addCopy(this.calculatePosition()));
+            workingVector.set(translate).add(this.calculatePosition());
+            this.translateTo(workingVector);
         } else {
             getLocalMBasis().translateBy(translate);
         }
@@ -714,7 +971,8 @@ public class Node3D implements ewbik.asj.Saveable {
     public void translateTo(Vector3 translate) {
         if (this.getParentAxes() != null) {
             this.updateGlobal();
-            getLocalMBasis().translateTo(getParentAxes().getGlobalMBasis().getLocalOf(translate));
+            getParentAxes().getGlobalMBasis().setToLocalOf(translate, workingVector);
+            getLocalMBasis().translateTo(workingVector);
             this.markDirty();
         } else {
             this.updateGlobal();
@@ -726,30 +984,33 @@ public class Node3D implements ewbik.asj.Saveable {
 
     public void rotateAboutX(float angle, boolean orthonormalized) {
         this.updateGlobal();
-        Quaternion xRot = new Quaternion(getGlobalMBasis().getXHeading(), angle);
-        this.rotateBy(xRot);
+        getGlobalMBasis().getXRay().getHeading(workingVector);
+        workingRotation.set(workingVector, angle);
+        this.rotateBy(workingRotation);
         this.markDirty();
     }
 
     public void rotateAboutY(float angle, boolean orthonormalized) {
         this.updateGlobal();
-        Quaternion yRot = new Quaternion(getGlobalMBasis().getYHeading(), angle);
-        this.rotateBy(yRot);
+        getGlobalMBasis().getYRay().getHeading(workingVector);
+        workingRotation.set(workingVector, angle);
+        this.rotateBy(workingRotation);
         this.markDirty();
     }
 
     public void rotateAboutZ(float angle, boolean orthonormalized) {
         this.updateGlobal();
-        Quaternion zRot = new Quaternion(getGlobalMBasis().getZHeading(), angle);
-        this.rotateBy(zRot);
+        getGlobalMBasis().getZRay().getHeading(workingVector);
+        workingRotation.set(workingVector, angle);
+        this.rotateBy(workingRotation);
         this.markDirty();
     }
 
     public void rotateBy(ewbik.math.Quaternion apply) {
         this.updateGlobal();
         if (parent != null) {
-            Quaternion newRot = this.getParentAxes().getGlobalMBasis().getLocalOfRotation(apply);
-            this.getLocalMBasis().rotateBy(newRot);
+            this.getParentAxes().getGlobalMBasis().getLocalOfRotation(apply, workingLocalRotation);
+            this.getLocalMBasis().rotateBy(workingLocalRotation);
         } else {
             this.getLocalMBasis().rotateBy(apply);
         }
@@ -858,7 +1119,9 @@ public class Node3D implements ewbik.asj.Saveable {
     public void registerDependent(Node3D newDependent) {
         // Make sure we don't hit a dependency loop
         if (Node3D.class.isAssignableFrom(newDependent.getClass())) {
-            if (newDependent.isAncestorOf(this)) {
+            // a node without dependents can't be anyone's ancestor, which saves
+            // walking up a long hierarchy.
+            if (!newDependent.dependentsRegistry.isEmpty() && newDependent.isAncestorOf(this)) {
                 this.transferToParent(newDependent.getParentAxes());
             }
         }
@@ -910,6 +1173,7 @@ public class Node3D implements ewbik.asj.Saveable {
             this.getParentAxes().disown(this);
             this.parent = new DependencyReference<Node3D>(null);
             this.areGlobal = true;
+            joinHierarchyOf(null);
             this.markDirty();
             this.updateGlobal();
             for (DependencyReference<Node3D> ad : this.dependentsRegistry) {
@@ -991,7 +1255,7 @@ public class Node3D implements ewbik.asj.Saveable {
             newVals = getParentAxes().getLocalOf(newVals);
         }
         this.getLocalMBasis().adoptValues(newVals.globalMBasis);
-        this.dirty = true;
+        this.markDirty();
         this.updateGlobal();
 
         notifyDependentsOfSlipCompletion(originalGlobal);
@@ -1024,6 +1288,7 @@ public class Node3D implements ewbik.asj.Saveable {
      */
     protected void setWeakRefToParent(DependencyReference<Node3D> parentRef) {
         this.parent = parentRef;
+        joinHierarchyOf(parentRef == null ? null : parentRef.get());
     }
 
     public void slipTo(Node3D newAxisGlobal, ArrayList<Object> dontWarn) {
@@ -1085,17 +1350,60 @@ public class Node3D implements ewbik.asj.Saveable {
         }
     }
 
+    /**
+     * flags this node's global transform as needing to be recomputed. Dependents
+     * aren't visited: they notice that this node has changed the next time they
+     * update, see updateGlobal().
+     */
     public void markDirty() {
-
-        if (!this.dirty) {
-            this.dirty = true;
-            this.markDependentsDirty();
+        this.dirty = true;
+        AtomicLong counter = writeEpoch;
+        long prior = counter.get();
+        Node3D parentNode3D = this.areGlobal ? null : getParentAxes();
+        boolean parentCurrent = parentNode3D != null && parentNode3D.epochValidated == prior;
+        // this write can't have made any ancestor stale, so a parent which was
+        // current just before it still is. That only holds if no other write to
+        // the hierarchy got in between, which the compare and set checks.
+        if (counter.compareAndSet(prior, prior + 1)) {
+            if (parentCurrent)
+                parentNode3D.epochValidated = prior + 1;
+        } else {
+            counter.incrementAndGet();
         }
-
     }
 
+    /**
+     * eagerly marks every descendant dirty. Not needed to keep them up to date,
+     * since markDirty() is picked up lazily.
+     */
     public void markDependentsDirty() {
-        forEachDependent((a) -> a.get().markDirty());
+        markDependentsDirty(0);
+    }
+
+    /**
+     * see joinHierarchy(), which walks down the same way.
+     */
+    private void markDependentsDirty(int depth) {
+        Iterator<DependencyReference<Node3D>> i = dependentsRegistry.iterator();
+        while (i.hasNext()) {
+            Node3D dependent = i.next().get();
+            if (dependent == null) {
+                i.remove();
+                continue;
+            }
+            dependent.markDirty();
+            if (depth < MAX_UPDATE_RECURSION) {
+                dependent.markDependentsDirty(depth + 1);
+            } else {
+                ArrayList<Node3D> stack = new ArrayList<>();
+                dependent.forEachDependent((a) -> stack.add(a.get()));
+                while (!stack.isEmpty()) {
+                    Node3D node = stack.remove(stack.size() - 1);
+                    node.markDirty();
+                    node.forEachDependent((a) -> stack.add(a.get()));
+                }
+            }
+        }
     }
 
     public String toString() {
@@ -0,0 +1,98 @@
+package processing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A flattened, topologically sorted view of a Node3D and all of its
+ * descendants, so that every stale global transform in the hierarchy can be
+ * brought up to date in one linear pass, parents before children, instead of
+ * one recursive updateGlobal() walk per node.
+ * <p>
+ * The view is built once and reused. If a node in it has since been given a
+ * different parent, the next call to updateGlobals() notices and rebuilds it
+ * before sweeping. Nodes added below the root since the last build aren't
+ * picked up until rebuild() is called, but still update themselves lazily as
+ * usual.
+ * <p>
+ * Unlike the dependents registry of a Node3D, this view holds its nodes
+ * strongly, so it shouldn't outlive the hierarchy it was built from.
+ */
+public class Node3DHierarchy {
+
+    private final Node3D root;
+    private Node3D[] nodes = new Node3D[0];
+    /**
+     * index into nodes of each node's parent, or -1 for the root.
+     */
+    private int[] parentIndex = new int[0];
+    private int count = 0;
+
+    public Node3DHierarchy(Node3D root) {
+        this.root = root;
+        rebuild();
+    }
+
+    /**
+     * re-reads the hierarchy below the root, breadth first.
+     */
+    public void rebuild() {
+        ArrayList<Node3D> order = new ArrayList<>();
+        ArrayList<Integer> parents = new ArrayList<>();
+        order.add(root);
+        parents.add(-1);
+        for (int i = 0; i < order.size(); i++) {
+            Node3D parent = order.get(i);
+            int parentAt = i;
+            parent.forEachDependent((dr) -> {
+                Node3D child = dr.get();
+                // the registry can briefly hold a node that has moved elsewhere
+                if (child.getParentAxes() == parent) {
+                    order.add(child);
+                    parents.add(parentAt);
+                }
+            });
+        }
+        count = order.size();
+        if (nodes.length < count) {
+            nodes = new Node3D[count];
+            parentIndex = new int[count];
+        } else {
+            Arrays.fill(nodes, count, nodes.length, null);
+        }
+        for (int i = 0; i < count; i++) {
+            nodes[i] = order.get(i);
+            parentIndex[i] = parents.get(i);
+        }
+    }
+
+    /**
+     * recomputes the global transform of every stale node in the hierarchy.
+     * Afterwards no node in it needs an update.
+     */
+    public void updateGlobals() {
+        // the root may have ancestors outside of this view, so it updates the usual way.
+        root.updateGlobal();
+        for (int i = 1; i < count; i++) {
+            Node3D node = nodes[i];
+            Node3D parent = nodes[parentIndex[i]];
+            if (node.getParentAxes() != parent) {
+                rebuild();
+                updateGlobals();
+                return;
+            }
+            node.updateGlobalFrom(parent);
+        }
+    }
+
+    /**
+     * @return the number of nodes in the hierarchy, including the root.
+     */
+    public int size() {
+        return count;
+    }
+
+    public Node3D getRoot() {
+        return root;
+    }
+}
@@ -0,0 +1,300 @@
+package processing;
+
+import ewbik.math.Transform3D;
+import ik.Bone;
+import ik.IKPin;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded, least recently used cache of solved armature poses.
+ * <p>
+ * Poses are keyed by the global transforms of the armature and of the target of
+ * every enabled pin, quantized so that targets which are within
+ * positionQuantum (in armature units) and rotationQuantum (per quaternion
+ * component) of one another share a key. The key also holds each enabled pin's
+ * weight, mode code, axis priorities and depth falloff exactly, so changing
+ * any of those never brings back a pose solved under the old settings. Each
+ * entry holds the local rotation
+ * and translation of every bone in the armature, as they were after a
+ * converged solve.
+ * <p>
+ * Attach one to an armature with Skeleton3D.setPoseCache(PoseCache). A cache
+ * should only be attached to one armature at a time, and is cleared whenever
+ * that armature's bonechains are rebuilt.
+ */
+public class PoseCache {
+
+    /**
+     * what IKSolver does when the cache holds a pose for the current targets.
+     */
+    public enum HitMode {
+        /**
+         * apply the cached pose and skip solving entirely.
+         */
+        RESTORE,
+        /**
+         * apply the cached pose and solve from there. Most useful with a
+         * convergence tolerance set, so that the solve can stop early.
+         */
+        WARM_START
+    }
+
+    /**
+     * the number of key values describing each pin, ahead of its quantized
+     * target.
+     */
+    private static final int PIN_SETTINGS = 7;
+    /**
+     * the number of key values a quantized transform takes: its translation
+     * (x, y, z) and rotation (w, x, y, z).
+     */
+    private static final int TRANSFORM_KEY_SIZE = 7;
+    /**
+     * the number of pose values stored per bone: its local rotation (w, x, y, z)
+     * and translation (x, y, z).
+     */
+    private static final int BONE_POSE_STRIDE = 7;
+
+    private final int capacity;
+    private final float positionQuantum;
+    private final float rotationQuantum;
+    private final LinkedHashMap<Key, float[]> poses;
+    private HitMode hitMode = HitMode.RESTORE;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * reused to look up the current targets without allocating.
+     */
+    private final Key probe = new Key(new int[0]);
+    private final ewbik.math.Quaternion workingRotation = new ewbik.math.Quaternion();
+    private final ewbik.math.Vector3 workingTranslation = new ewbik.math.Vector3();
+
+    /**
+     * creates a cache with a position quantum of 0.01 armature units and a
+     * rotation quantum of 0.001.
+     *
+     * @param capacity the maximum number of poses to hold.
+     */
+    public PoseCache(int capacity) {
+        this(capacity, 0.01f, 0.001f);
+    }
+
+    /**
+     * @param capacity        the maximum number of poses to hold. Once full, the
+     *                        least recently used pose is evicted.
+     * @param positionQuantum target positions closer together than this share a
+     *                        key.
+     * @param rotationQuantum target rotations whose quaternion components are
+     *                        closer together than this share a key.
+     */
+    public PoseCache(int capacity, float positionQuantum, float rotationQuantum) {
+        this.capacity = Math.max(1, capacity);
+        this.positionQuantum = positionQuantum;
+        this.rotationQuantum = rotationQuantum;
+        this.poses = new LinkedHashMap<Key, float[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, float[]> eldest) {
+                return size() > PoseCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * looks up a pose for the armature's current targets, and applies it to the
+     * bones' local transforms if one is found. The caller finishes the solve
+     * (notifications, global transforms) as it would after solving.
+     *
+     * @param armature
+     * @return true if a pose was found and applied
+     */
+    boolean applyCachedPose(Skeleton3D armature) {
+        if (!updateProbe(armature)) {
+            return false;
+        }
+        float[] pose = poses.get(probe);
+        if (pose == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        Bone[] bones = armature.boneByBoneIndex;
+        for (int i = 0; i < bones.length; i++) {
+            int p = i * BONE_POSE_STRIDE;
+            workingRotation.rotation.set(pose[p], pose[p + 1], pose[p + 2], pose[p + 3], false);
+            workingTranslation.set(pose[p + 4], pose[p + 5], pose[p + 6]);
+            Node3D boneNode3D = bones[i].localAxes();
+            boneNode3D.getLocalMBasis().rotateTo(workingRotation);
+            boneNode3D.getLocalMBasis().translateTo(workingTranslation);
+            boneNode3D.markDirty();
+        }
+        return true;
+    }
+
+    /**
+     * stores the armature's current pose under the key computed by the last call
+     * to applyCachedPose().
+     *
+     * @param armature
+     */
+    void storeSolvedPose(Skeleton3D armature) {
+        if (probe.values.length == 0) {
+            return;
+        }
+        Bone[] bones = armature.boneByBoneIndex;
+        float[] pose = poses.get(probe);
+        if (pose == null || pose.length != bones.length * BONE_POSE_STRIDE) {
+            pose = new float[bones.length * BONE_POSE_STRIDE];
+            poses.put(new Key(probe.values.clone()), pose);
+        }
+        for (int i = 0; i < bones.length; i++) {
+            Transform3D local = bones[i].localAxes().getLocalMBasis();
+            int p = i * BONE_POSE_STRIDE;
+            pose[p] = local.rotation.rotation.getQ0();
+            pose[p + 1] = local.rotation.rotation.getQ1();
+            pose[p + 2] = local.rotation.rotation.getQ2();
+            pose[p + 3] = local.rotation.rotation.getQ3();
+            pose[p + 4] = local.translate.x;
+            pose[p + 5] = local.translate.y;
+            pose[p + 6] = local.translate.z;
+        }
+    }
+
+    /**
+     * quantizes the armature's transform and those of its enabled pins' targets
+     * into the probe key.
+     *
+     * @return false if the armature has no compiled bonechains to find pins in.
+     */
+    private boolean updateProbe(Skeleton3D armature) {
+        ewbik.ik.SolverPlan plan = armature.solverPlan;
+        if (plan == null) {
+            probe.setValues(0);
+            return false;
+        }
+        int pinCount = 0;
+        for (ewbik.ik.ShadowNode3D chain : plan.chains) {
+            IKPin pin = chain.bonechainTip.getIKPin();
+            if (pin != null && pin.isEnabled())
+                pinCount++;
+        }
+        probe.setValues(TRANSFORM_KEY_SIZE + pinCount * (PIN_SETTINGS + TRANSFORM_KEY_SIZE));
+        int offset = quantize(armature.localAxes(), 0);
+        int[] values = probe.values;
+        for (int c = 0; c < plan.chains.length; c++) {
+            IKPin pin = plan.chains[c].bonechainTip.getIKPin();
+            if (pin == null || !pin.isEnabled())
+                continue;
+            // which pin this is, and every setting that changes what it solves to.
+            values[offset] = c;
+            values[offset + 1] = pin.getModeCode();
+            values[offset + 2] = Float.floatToIntBits(pin.getPinWeight());
+            values[offset + 3] = Float.floatToIntBits(pin.getXPriority());
+            values[offset + 4] = Float.floatToIntBits(pin.getYPriority());
+            values[offset + 5] = Float.floatToIntBits(pin.getZPriority());
+            values[offset + 6] = Float.floatToIntBits(pin.getDepthFalloff());
+            offset = quantize(pin.getAxes(), offset + PIN_SETTINGS);
+        }
+        probe.rehash();
+        return true;
+    }
+
+    private int quantize(Node3D node3D, int offset) {
+        node3D.updateGlobal();
+        Transform3D global = node3D.getGlobalMBasis();
+        int[] values = probe.values;
+        values[offset] = Math.round(global.translate.x / positionQuantum);
+        values[offset + 1] = Math.round(global.translate.y / positionQuantum);
+        values[offset + 2] = Math.round(global.translate.z / positionQuantum);
+        // q and -q are the same rotation, so quantize the one with a positive w.
+        float sign = global.rotation.rotation.getQ0() < 0f ? -1f : 1f;
+        values[offset + 3] = Math.round(sign * global.rotation.rotation.getQ0() / rotationQuantum);
+        values[offset + 4] = Math.round(sign * global.rotation.rotation.getQ1() / rotationQuantum);
+        values[offset + 5] = Math.round(sign * global.rotation.rotation.getQ2() / rotationQuantum);
+        values[offset + 6] = Math.round(sign * global.rotation.rotation.getQ3() / rotationQuantum);
+        return offset + TRANSFORM_KEY_SIZE;
+    }
+
+    public HitMode getHitMode() {
+        return hitMode;
+    }
+
+    public void setHitMode(HitMode hitMode) {
+        this.hitMode = hitMode;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of lookups which found a pose, or 0 if there have been
+     *         none.
+     */
+    public float getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0f : hits / (float) lookups;
+    }
+
+    public void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+
+    public int size() {
+        return poses.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * removes every pose from the cache. Doesn't reset the counters.
+     */
+    public void clear() {
+        poses.clear();
+        probe.setValues(0);
+    }
+
+    private static final class Key {
+        int[] values;
+        int hash;
+
+        Key(int[] values) {
+            this.values = values;
+            rehash();
+        }
+
+        void setValues(int length) {
+            if (values.length != length)
+                values = new int[length];
+        }
+
+        void rehash() {
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && Arrays.equals(values, k.values);
+        }
+    }
+}
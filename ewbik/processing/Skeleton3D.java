@@ -31,21 +31,60 @@ import processing.core.PMatrix;
 import processing.core.PVector;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 public class Skeleton3D implements Saveable {
 
     public Node3D localNode3D;
+    /**
+     * the bonechain each bone belongs to, rebuilt by updateBonechains().
+     *
+     * @deprecated use getChainFor(Bone), which looks the chain up by index.
+     */
+    @Deprecated
     public HashMap<Bone, ewbik.ik.ShadowNode3D> boneSegmentMap = new HashMap<Bone, ewbik.ik.ShadowNode3D>();
     public ewbik.ik.ShadowNode3D shadowNode3D;
+    /**
+     * flat, index based view of shadowNode3D, recompiled by updateBonechains().
+     */
+    public ewbik.ik.SolverPlan solverPlan;
     public float IKSolverStability = 0f;
     public int defaultStabilizingPassCount = 1;
     protected Node3D tempWorkingNode3D;
     protected ArrayList<Bone> bones = new ArrayList<Bone>();
+    /**
+     * the chain and simulated bone of each bone, indexed by Bone.boneIndex.
+     * Entries are null for bones which aren't part of any chain.
+     */
+    protected ewbik.ik.ShadowNode3D[] chainByBoneIndex = new ewbik.ik.ShadowNode3D[0];
+    protected ewbik.ik.ShadowNode3D.ShadowBone[] simulatedBoneByBoneIndex = new ewbik.ik.ShadowNode3D.ShadowBone[0];
+    protected Bone[] boneByBoneIndex = new Bone[0];
     protected HashMap<String, Bone> boneNameMap = new HashMap<String, Bone>();
     protected Bone rootBone;
     protected String name;
     protected int IKIterations = 15;
+    /**
+     * the iteration count a budgeted solve without maxIterations runs with, see
+     * {@link #IKSolver(Bone, long, float, int, int)}.
+     */
+    static final int UNTIL_CONVERGED = Integer.MAX_VALUE;
+    /**
+     * how far, as a fraction of the best residual so far, an iteration of a
+     * budgeted solve without a convergence tolerance may move the residual for
+     * the solve to count as converged.
+     */
+    static final float SETTLED_FRACTION = 1e-2f;
+    /**
+     * see {@link #setConvergenceTolerance(float)}
+     */
+    protected float convergenceTolerance = 0f;
+    protected int lastIterationCount = 0;
+    protected float lastResidual = 0f;
     protected float dampening = MathUtils.toRadians(5f);
     PerformanceStats performance = new PerformanceStats();
     Node3D fauxParent;
@@ -56,6 +95,49 @@ public class Skeleton3D implements Saveable {
     float debugMag = 5f;
     ewbik.math.Vector3 lastEffectorPos = new ewbik.math.Vector3();
     boolean monitorPerformance = false;
+    /**
+     * see {@link #setParallelSolve(boolean, int, ForkJoinPool)}
+     */
+    protected boolean parallelSolve = false;
+    protected int parallelSolveThreshold = 16;
+    protected ForkJoinPool solverPool = ForkJoinPool.commonPool();
+    /**
+     * the tasks solveSiblingBonechains() solves each chain's children with,
+     * indexed by the kind of siblings (see siblingTaskFor()) and then by
+     * ShadowNode3D.planIndex, so that they can be reused across iterations. Built
+     * on first use and dropped by updateBonechains().
+     */
+    SiblingBonechainsTask[][] siblingTasks = new SiblingBonechainsTask[4][0];
+    /**
+     * see {@link #setSkipUnchangedChains(boolean)}
+     */
+    protected boolean skipUnchangedChains = false;
+    /**
+     * see {@link #setPoseCache(PoseCache)}
+     */
+    protected PoseCache poseCache = null;
+    /**
+     * see {@link #updateGlobalTransforms()}. Built on first use and dropped by
+     * updateBonechains().
+     */
+    protected Node3DHierarchy transformHierarchy = null;
+    /**
+     * detached copies of the axes and limiting axes of the bones being snapped
+     * by snapAllToConstraints(), one per bone of the widest level so far.
+     */
+    Node3D[] snapAxes = new Node3D[0];
+    Node3D[] snapLimits = new Node3D[0];
+    long[] snapVersions = new long[0];
+    /**
+     * the number of bones a SnapToConstraintsTask snaps without splitting further.
+     */
+    static final int SNAP_TASK_SIZE = 16;
+    protected boolean lastSolveConverged = false;
+    /**
+     * see {@link #setQCPRefinement(int, float)}
+     */
+    protected int qcpNewtonSteps = 0;
+    protected float qcpPrecision = 1e-6f;
     private boolean abilityBiasing = false;
 
     public Skeleton3D() {
@@ -244,19 +326,80 @@ public class Skeleton3D implements Saveable {
      * this method after making any substantial structural changes to the armature.
      */
     public void updateBonechains() {
+        int boneCount = assignBoneIndices();
+        if (chainByBoneIndex.length != boneCount) {
+            chainByBoneIndex = new ewbik.ik.ShadowNode3D[boneCount];
+            simulatedBoneByBoneIndex = new ewbik.ik.ShadowNode3D.ShadowBone[boneCount];
+        } else {
+            Arrays.fill(chainByBoneIndex, null);
+            Arrays.fill(simulatedBoneByBoneIndex, null);
+        }
         shadowNode3D.updateSegmentedArmature();
         boneSegmentMap.clear();
-        recursivelyUpdateBonechainMapFrom(shadowNode3D);
+        updateBonechainMapFrom(shadowNode3D);
         ewbik.ik.ShadowNode3D.recursivelyCreateHeadingArraysFor(shadowNode3D);
+        solverPlan = ewbik.ik.SolverPlan.compile(shadowNode3D);
+        siblingTasks = new SiblingBonechainsTask[4][solverPlan.chains.length];
+        transformHierarchy = null;
+        if (poseCache != null) {
+            poseCache.clear();
+        }
     }
 
-    private void recursivelyUpdateBonechainMapFrom(ewbik.ik.ShadowNode3D startFrom) {
-        for (Bone b : startFrom.bonechainList) {
-            boneSegmentMap.put(b, startFrom);
-        }
-        for (ewbik.ik.ShadowNode3D c : startFrom.bonechainChild) {
-            recursivelyUpdateBonechainMapFrom(c);
+    /**
+     * gives every bone descending from the root bone a dense index, parents
+     * before children.
+     *
+     * @return the number of bones indexed
+     */
+    private int assignBoneIndices() {
+        ArrayList<Bone> ordered = new ArrayList<>();
+        ArrayList<Bone> stack = new ArrayList<>();
+        stack.add(rootBone);
+        while (!stack.isEmpty()) {
+            Bone b = stack.remove(stack.size() - 1);
+            b.boneIndex = ordered.size();
+            ordered.add(b);
+            stack.addAll(b.getChildren());
         }
+        boneByBoneIndex = ordered.toArray(boneByBoneIndex.length == ordered.size() ? boneByBoneIndex
+                : new Bone[ordered.size()]);
+        return ordered.size();
+    }
+
+    private void updateBonechainMapFrom(ewbik.ik.ShadowNode3D startFrom) {
+        startFrom.forEachChainInSubtree((chain) -> {
+            for (ewbik.ik.ShadowNode3D.ShadowBone sb : chain.simulatedBones) {
+                int idx = sb.forBone().boneIndex;
+                chainByBoneIndex[idx] = chain;
+                simulatedBoneByBoneIndex[idx] = sb;
+                boneSegmentMap.put(sb.forBone(), chain);
+            }
+        });
+    }
+
+    /**
+     * @param b
+     * @return the bonechain the given bone belongs to, or null if it doesn't
+     *         belong to any.
+     */
+    public ewbik.ik.ShadowNode3D getChainFor(Bone b) {
+        int idx = b.boneIndex;
+        if (idx < 0 || idx >= chainByBoneIndex.length)
+            return null;
+        return chainByBoneIndex[idx];
+    }
+
+    /**
+     * @param b
+     * @return the bone simulating the given bone during IK, or null if the
+     *         bone doesn't belong to any bonechain.
+     */
+    public ewbik.ik.ShadowNode3D.ShadowBone getSimulatedBone(Bone b) {
+        int idx = b.boneIndex;
+        if (idx < 0 || idx >= simulatedBoneByBoneIndex.length)
+            return null;
+        return simulatedBoneByBoneIndex[idx];
     }
 
     /**
@@ -306,9 +449,113 @@ public class Skeleton3D implements Saveable {
      *                          -1 if you want to use the armature's default.
      */
     public void IKSolver(Bone bone, float dampening, int iterations, int stabilizingPasses) {
+        solve(bone, dampening, iterations, stabilizingPasses, false, 0L);
+    }
+
+    /**
+     * solves the IK system of this armature from the given bone using the
+     * armature's default IK parameters, for at most (roughly) the given amount of
+     * time.
+     *
+     * @param bone
+     * @param budgetNanos
+     * @return what the solve did
+     */
+    public SolveResult IKSolver(Bone bone, long budgetNanos) {
+        return IKSolver(bone, budgetNanos, -1, -1, -1);
+    }
+
+    /**
+     * solves the IK system of this armature from the given bone, running
+     * iterations until the budget is spent, the solution converges, or
+     * maxIterations (if given) have run.
+     * <p>
+     * The residual is measured after every iteration, and the solution has
+     * converged once it is at or below the convergence tolerance, or an iteration
+     * moved it no more than the tolerance away from the lowest residual so far
+     * (see setConvergenceTolerance). With the default tolerance of 0, the
+     * residual may move by SETTLED_FRACTION of the lowest residual instead.
+     * <p>
+     * The time each iteration takes is tracked as the solve runs, and no further
+     * iteration is started if it would be unlikely to finish within the budget.
+     * At least one iteration is always run, unless nothing needs solving. The
+     * bones are always left aligned with whatever the solver reached.
+     *
+     * @param bone
+     * @param budgetNanos       how long the solver may run for, in nanoseconds.
+     * @param dampening         dampening angle in radians. Set this to -1 if you
+     *                          want to use the armature's default.
+     * @param maxIterations     the most iterations to run. Set this to -1 to
+     *                          only stop on the budget or on convergence.
+     * @param stabilizingPasses number of stabilization passes to run. Set this to
+     *                          -1 if you want to use the armature's default.
+     * @return what the solve did
+     */
+    public SolveResult IKSolver(Bone bone, long budgetNanos, float dampening, int maxIterations,
+            int stabilizingPasses) {
+        long start = System.nanoTime();
+        SolveResult result = new SolveResult();
+        int iterations = maxIterations == -1 ? UNTIL_CONVERGED : maxIterations;
+        result.fromCache = solve(bone, dampening, iterations, stabilizingPasses, true, start + budgetNanos);
+        if (lastIterationCount == 0) {
+            // nothing was solved, so measure the pose the bones were left in.
+            measureResidual(bone);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.iterations = lastIterationCount;
+        result.residual = lastResidual;
+        result.converged = lastSolveConverged;
+        return result;
+    }
+
+    /**
+     * sets lastResidual to the residual of the bones' current pose.
+     */
+    private void measureResidual(Bone bone) {
+        ewbik.ik.ShadowNode3D armature = getSolvedChainFor(bone);
+        if (armature == null) {
+            lastResidual = 0f;
+            return;
+        }
+        armature.alignSimulationAxesToBones();
+        lastResidual = armature.getCurrentResidual();
+    }
+
+    /**
+     * @return true if a cached pose was used as is, without solving.
+     */
+    private boolean solve(Bone bone, float dampening, int iterations, int stabilizingPasses, boolean hasDeadline,
+            long deadline) {
         performance.startPerformanceMonitor();
-        iteratedSolver(bone, dampening, iterations, stabilizingPasses);
-        performance.solveFinished(iterations == -1 ? this.IKIterations : iterations);
+        int iterationsRan = 0;
+        boolean restored = false;
+        if (poseCache != null && bone == rootBone) {
+            boolean hit = poseCache.applyCachedPose(this);
+            if (!hit || poseCache.getHitMode() == PoseCache.HitMode.WARM_START) {
+                iterationsRan = iteratedSolver(bone, dampening, iterations, stabilizingPasses, hasDeadline,
+                        deadline);
+                if (lastSolveConverged) {
+                    poseCache.storeSolvedPose(this);
+                }
+            } else {
+                lastIterationCount = 0;
+                lastSolveConverged = true;
+                ewbik.ik.ShadowNode3D armature = getSolvedChainFor(bone);
+                if (armature != null) {
+                    // the restored pose touched every bone, so every bone is notified,
+                    // and bones outside the chains are updated too.
+                    finishSolve(armature, false, true);
+                    for (Bone b : boneByBoneIndex) {
+                        b.localAxes().updateGlobal();
+                    }
+                }
+                restored = true;
+            }
+        } else {
+            iterationsRan = iteratedSolver(bone, dampening, iterations, stabilizingPasses, hasDeadline, deadline);
+        }
+        performance.solveFinished(iterationsRan);
+        return restored;
     }
 
     /**
@@ -353,60 +600,180 @@ public class Skeleton3D implements Saveable {
         defaultStabilizingPassCount = passCount;
     }
 
-    private void recursivelyNotifyBonesOfCompletedIKSolution(ewbik.ik.ShadowNode3D startFrom) {
-        for (Bone b : startFrom.bonechainList) {
-            b.IKUpdateNotification();
-        }
-        for (ewbik.ik.ShadowNode3D s : startFrom.bonechainChild) {
-            recursivelyNotifyBonesOfCompletedIKSolution(s);
-        }
+    private void notifyBonesOfCompletedIKSolution(ewbik.ik.ShadowNode3D startFrom) {
+        startFrom.forEachChainInSubtree((chain) -> {
+            for (Bone b : chain.bonechainList) {
+                b.IKUpdateNotification();
+            }
+        });
     }
 
     /**
      * @param startFrom
      * @param dampening
-     * @param iterations
+     * @param iterations the maximum number of iterations to run. If a convergence
+     *                   tolerance is set, fewer may be run.
+     * @return the number of iterations actually run.
      */
 
-    public void iteratedSolver(Bone startFrom, float dampening, int iterations,
+    public int iteratedSolver(Bone startFrom, float dampening, int iterations,
             int stabilizationPasses) {
-        ewbik.ik.ShadowNode3D armature = boneSegmentMap.get(startFrom);
+        return iteratedSolver(startFrom, dampening, iterations, stabilizationPasses, false, 0L);
+    }
+
+    /**
+     * @param iterations  the maximum number of iterations to run, or
+     *                    UNTIL_CONVERGED. In the latter case iterations past the
+     *                    armature's default count keep the dampening schedule
+     *                    of its last iteration.
+     * @param hasDeadline if true, stops iterating once another iteration is
+     *                    unlikely to finish before the deadline, and checks for
+     *                    convergence even if no convergence tolerance is set.
+     * @param deadline    a System.nanoTime() value.
+     */
+    private int iteratedSolver(Bone startFrom, float dampening, int iterations,
+            int stabilizationPasses, boolean hasDeadline, long deadline) {
+        ewbik.ik.ShadowNode3D armature = getSolvedChainFor(startFrom);
+        lastIterationCount = 0;
+        lastSolveConverged = false;
 
         if (armature != null) {
-            ewbik.ik.ShadowNode3D pinnedRootChain = armature.getPinnedRootChainFromHere();
-            armature = pinnedRootChain == null ? armature.getAncestorSegmentContaining(rootBone) : pinnedRootChain;
-            if (armature != null && armature.pinnedDescendants.size() > 0) {
-                armature.alignSimulationAxesToBones();
-                iterations = iterations == -1 ? IKIterations : iterations;
-                float totalIterations = iterations;
-                stabilizationPasses = stabilizationPasses == -1 ? this.defaultStabilizingPassCount
-                        : stabilizationPasses;
-                for (int i = 0; i < iterations; i++) {
-                    if (!armature.isBasePinned()) {
-                        armature.updateOptimalRotationToPinnedDescendants(armature.bonechainRoot, MathUtils.PI, true,
-                                stabilizationPasses, i, totalIterations);
-                        armature.setProcessed(false);
+            if (skipUnchangedChains && !armature.refreshSolveDirty()) {
+                lastSolveConverged = true;
+                return lastIterationCount;
+            }
+            armature.alignSimulationAxesToBones();
+            iterations = iterations == -1 ? IKIterations : iterations;
+            float totalIterations = iterations == UNTIL_CONVERGED ? IKIterations : iterations;
+            int lastScheduled = (int) totalIterations - 1;
+            stabilizationPasses = stabilizationPasses == -1 ? this.defaultStabilizingPassCount
+                    : stabilizationPasses;
+            if (parallelSolve) {
+                armature.freezePinTargets();
+            }
+            boolean checkConvergence = hasDeadline || convergenceTolerance > 0f;
+            float bestResidual = checkConvergence ? armature.getCurrentResidual() : 0f;
+            // without a tolerance, running every iteration counts as converging.
+            boolean converged = !checkConvergence;
+            long iterationsStart = System.nanoTime();
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                int i = Math.min(iteration, lastScheduled);
+                if (!armature.isBasePinned()) {
+                    armature.updateOptimalRotationToPinnedDescendants(armature.bonechainRoot, MathUtils.PI, true,
+                            stabilizationPasses, i, totalIterations);
+                    armature.setProcessed(false);
+                    if (parallelSolve) {
+                        solveSiblingBonechains(armature, false, true, dampening, stabilizationPasses, i,
+                                totalIterations);
+                    } else {
                         for (ewbik.ik.ShadowNode3D s : armature.bonechainChild) {
                             groupedRecursiveBonechainSolver(s, dampening, stabilizationPasses, i, totalIterations);
                         }
-                    } else {
-                        groupedRecursiveBonechainSolver(armature, dampening, stabilizationPasses, i, totalIterations);
                     }
+                } else {
+                    groupedRecursiveBonechainSolver(armature, dampening, stabilizationPasses, i, totalIterations);
+                }
+                lastIterationCount = iteration + 1;
+                if (checkConvergence) {
+                    float residual = armature.getCurrentResidual();
+                    lastResidual = residual;
+                    if (hasConverged(residual, bestResidual, convergenceTolerance)) {
+                        converged = true;
+                        break;
+                    }
+                    bestResidual = MathUtils.min(bestResidual, residual);
                 }
+                if (hasDeadline && iteration + 1 < iterations) {
+                    long now = System.nanoTime();
+                    long averageIteration = (now - iterationsStart) / (iteration + 1);
+                    if (deadline - now < averageIteration) {
+                        converged = false;
+                        break;
+                    }
+                }
+            }
+            if (parallelSolve) {
+                armature.thawPinTargets();
+            }
+            if (solverPlan != null && armature.planIndex != -1) {
+                solverPlan.alignBonesToSimAxes(armature.planIndex, skipUnchangedChains);
+            } else {
                 armature.recursivelyAlignBonesToSimAxesFrom(armature.bonechainRoot);
-                recursivelyNotifyBonesOfCompletedIKSolution(armature);
             }
+            finishSolve(armature, skipUnchangedChains, converged);
         }
+        return lastIterationCount;
+    }
+
+    /**
+     * @param residual     the residual after the latest iteration
+     * @param bestResidual the lowest residual before it, including the one the
+     *                     solve started from
+     * @param tolerance    the convergence tolerance, or 0 for a budgeted solve
+     *                     without one, which then allows a change of
+     *                     SETTLED_FRACTION of bestResidual instead.
+     * @return true if the residual is within tolerance, or if it settled: the
+     *         latest iteration moved it no further than tolerance from the best
+     *         residual so far, either way. An iteration which made the residual
+     *         worse by more than that never counts as converging.
+     */
+    static boolean hasConverged(float residual, float bestResidual, float tolerance) {
+        float settled = tolerance > 0f ? tolerance : bestResidual * SETTLED_FRACTION;
+        return residual <= tolerance || MathUtils.abs(bestResidual - residual) <= settled;
+    }
+
+    /**
+     * @return the chain IKSolver solves when called on startFrom, or null if
+     *         there is nothing to solve from there.
+     */
+    private ewbik.ik.ShadowNode3D getSolvedChainFor(Bone startFrom) {
+        ewbik.ik.ShadowNode3D armature = getChainFor(startFrom);
+        if (armature == null)
+            return null;
+        ewbik.ik.ShadowNode3D pinnedRootChain = armature.getPinnedRootChainFromHere();
+        armature = pinnedRootChain == null ? armature.getAncestorSegmentContaining(rootBone) : pinnedRootChain;
+        return armature != null && armature.pinnedDescendants.size() > 0 ? armature : null;
+    }
 
+    /**
+     * what every solve does once the bones hold the new pose, however it was
+     * reached: notifies the bones, brings the solved bones' global transforms
+     * up to date, and records the stamps skipUnchangedChains compares against.
+     * Nodes outside the solved chains (constraint and pin axes, unsolved bones)
+     * are left to update lazily when next read.
+     *
+     * @param dirtyChainsOnly if true, only bones in chains which were solved are
+     *                        notified and updated.
+     */
+    private void finishSolve(ewbik.ik.ShadowNode3D armature, boolean dirtyChainsOnly, boolean converged) {
+        if (solverPlan != null && armature.planIndex != -1) {
+            solverPlan.notifyBonesOfCompletedIKSolution(armature.planIndex, dirtyChainsOnly);
+            solverPlan.updateBoneGlobals(armature.planIndex, dirtyChainsOnly);
+        } else {
+            notifyBonesOfCompletedIKSolution(armature);
+            updateGlobalTransforms();
+        }
+        if (skipUnchangedChains) {
+            armature.recordSolveStamps(converged);
+        }
+        lastSolveConverged = converged;
     }
 
     public void groupedRecursiveBonechainSolver(ewbik.ik.ShadowNode3D startFrom, float dampening,
             int stabilizationPasses,
             int iteration, float totalIterations) {
+        if (skipUnchangedChains && !startFrom.isSolveDirty()) {
+            return;
+        }
         recursiveBonechainSolver(startFrom, dampening, stabilizationPasses, iteration, totalIterations);
-        for (ewbik.ik.ShadowNode3D a : startFrom.pinnedDescendants) {
-            for (ewbik.ik.ShadowNode3D c : a.bonechainChild) {
-                groupedRecursiveBonechainSolver(c, dampening, stabilizationPasses, iteration, totalIterations);
+        if (parallelSolve) {
+            solveSiblingBonechains(startFrom, true, true, dampening, stabilizationPasses, iteration,
+                    totalIterations);
+        } else {
+            for (ewbik.ik.ShadowNode3D a : startFrom.pinnedDescendants) {
+                for (ewbik.ik.ShadowNode3D c : a.bonechainChild) {
+                    groupedRecursiveBonechainSolver(c, dampening, stabilizationPasses, iteration, totalIterations);
+                }
             }
         }
     }
@@ -419,17 +786,74 @@ public class Skeleton3D implements Saveable {
      */
     public void recursiveBonechainSolver(ewbik.ik.ShadowNode3D armature, float dampening, int stabilizationPasses,
             int iteration, float totalIterations) {
-        if (armature.bonechainChild == null && !armature.isTipPinned()) {
+        if (skipUnchangedChains && !armature.isSolveDirty()) {
+            return;
+        } else if (armature.bonechainChild == null && !armature.isTipPinned()) {
             return;
         } else if (!armature.isTipPinned()) {
-            for (ewbik.ik.ShadowNode3D c : armature.bonechainChild) {
-                recursiveBonechainSolver(c, dampening, stabilizationPasses, iteration, totalIterations);
-                c.setProcessed(true);
+            if (parallelSolve) {
+                solveSiblingBonechains(armature, false, false, dampening, stabilizationPasses, iteration,
+                        totalIterations);
+            } else {
+                for (ewbik.ik.ShadowNode3D c : armature.bonechainChild) {
+                    recursiveBonechainSolver(c, dampening, stabilizationPasses, iteration, totalIterations);
+                    c.setProcessed(true);
+                }
             }
         }
         QCPSolver(armature, dampening, false, stabilizationPasses, iteration, totalIterations);
     }
 
+    /**
+     * Solves the sibling chains below the given chain (which share no simulated
+     * bones) as fork-join tasks. Siblings whose subtrees have fewer than
+     * parallelSolveThreshold simulated bones are solved inline on the calling
+     * thread.
+     *
+     * @param parent                 the chain below which the siblings are
+     * @param belowPinnedDescendants if true, the siblings are the children of
+     *                               parent's pinned descendants, otherwise
+     *                               they're parent's own children
+     * @param grouped                if true, each sibling is solved with
+     *                               groupedRecursiveBonechainSolver, otherwise
+     *                               with recursiveBonechainSolver
+     */
+    private void solveSiblingBonechains(ewbik.ik.ShadowNode3D parent, boolean belowPinnedDescendants,
+            boolean grouped, float dampening, int stabilizationPasses, int iteration, float totalIterations) {
+        SiblingBonechainsTask task = siblingTaskFor(parent, belowPinnedDescendants, grouped);
+        task.dampening = dampening;
+        task.stabilizationPasses = stabilizationPasses;
+        task.iteration = iteration;
+        task.totalIterations = totalIterations;
+        if (ForkJoinTask.getPool() == solverPool) {
+            task.compute();
+        } else {
+            task.reinitialize();
+            solverPool.invoke(task);
+        }
+    }
+
+    private SiblingBonechainsTask siblingTaskFor(ewbik.ik.ShadowNode3D parent, boolean belowPinnedDescendants,
+            boolean grouped) {
+        int kind = (belowPinnedDescendants ? 2 : 0) + (grouped ? 1 : 0);
+        SiblingBonechainsTask task = parent.planIndex == -1 ? null : siblingTasks[kind][parent.planIndex];
+        if (task == null) {
+            ArrayList<ewbik.ik.ShadowNode3D> siblings = new ArrayList<>();
+            if (belowPinnedDescendants) {
+                for (ewbik.ik.ShadowNode3D a : parent.pinnedDescendants) {
+                    siblings.addAll(a.bonechainChild);
+                }
+            } else {
+                siblings.addAll(parent.bonechainChild);
+            }
+            task = new SiblingBonechainsTask(siblings, grouped);
+            if (parent.planIndex != -1) {
+                siblingTasks[kind][parent.planIndex] = task;
+            }
+        }
+        return task;
+    }
+
     private void QCPSolver(
             ewbik.ik.ShadowNode3D chain,
             float dampening,
@@ -439,6 +863,19 @@ public class Skeleton3D implements Saveable {
             float totalIterations) {
 
         debug = false;
+        if (solverPlan != null && chain.planIndex != -1) {
+            // walk the chain's bones tip to root as a range of the plan.
+            ewbik.ik.ShadowNode3D.ShadowBone[] planBones = solverPlan.bones;
+            int rootMost = solverPlan.chainBoneStart[chain.planIndex];
+            for (int i = solverPlan.chainBoneEnd[chain.planIndex] - 1; i >= rootMost; i--) {
+                ewbik.ik.ShadowNode3D.ShadowBone sb = planBones[i];
+                if (!sb.forBone().getIKOrientationLock()) {
+                    chain.updateOptimalRotationToPinnedDescendants(sb, dampening, false, stabilizationPasses,
+                            iteration, totalIterations);
+                }
+            }
+            return;
+        }
         Bone startFrom = debug && lastDebugBone != null ? lastDebugBone : chain.bonechainTip;
         Bone stopAfter = chain.bonechainRoot;
 
@@ -465,7 +902,7 @@ public class Skeleton3D implements Saveable {
     }
 
     public void rootwardlyUpdateFalloffCacheFrom(Bone forBone) {
-        ewbik.ik.ShadowNode3D current = boneSegmentMap.get(forBone);
+        ewbik.ik.ShadowNode3D current = getChainFor(forBone);
         while (current != null) {
             current.createHeadingArrays();
             current = current.getBonechainParent();
@@ -525,6 +962,254 @@ public class Skeleton3D implements Saveable {
         monitorPerformance = state;
     }
 
+    public float getConvergenceTolerance() {
+        return convergenceTolerance;
+    }
+
+    /**
+     * Lets the solver stop before running all of its iterations once the pose has
+     * stopped improving. After every iteration, the weighted mean squared error
+     * between every pinned tip being solved and its target is measured (see
+     * ShadowNode3D.getCurrentResidual()). Each pin contributes its squared tip to
+     * target distance and, for every axis it aligns on, the squared distance
+     * between the tip's and target's unit headings times the tip bone's squared
+     * height. Solving stops once that error is at or below the given tolerance,
+     * or once an iteration moves it no more than the tolerance away from the
+     * lowest error so far. An iteration which makes the error worse by more than
+     * the tolerance doesn't stop the solve.
+     * <p>
+     * The tolerance is in squared armature units. Set it to 0 (the default) to
+     * always run the full number of iterations.
+     *
+     * @param tolerance
+     */
+    public void setConvergenceTolerance(float tolerance) {
+        this.convergenceTolerance = MathUtils.max(0f, tolerance);
+    }
+
+    /**
+     * @return the number of iterations the most recent call to IKSolver actually
+     *         ran.
+     */
+    public int getLastIterationCount() {
+        return lastIterationCount;
+    }
+
+    /**
+     * @return the residual measured after the final iteration of the most recent
+     *         call to IKSolver. Only measured while a convergence tolerance is set,
+     *         or by time budgeted solves.
+     */
+    public float getLastResidual() {
+        return lastResidual;
+    }
+
+    public int getQCPNewtonSteps() {
+        return qcpNewtonSteps;
+    }
+
+    public float getQCPPrecision() {
+        return qcpPrecision;
+    }
+
+    /**
+     * By default, each bone's optimal rotation is computed from QCP's upper bound
+     * on the largest eigenvalue without refining it, which is cheap but slightly
+     * inaccurate. Setting newtonSteps above 0 refines the eigenvalue with up to
+     * that many Newton steps, stopping early once a step changes it by less than
+     * the given precision (relative to its value).
+     * <p>
+     * Each bone keeps its own aligner, which starts refining from where the
+     * previous iteration left off, so where targets change slowly the precision
+     * is usually reached in one or two steps.
+     *
+     * @param newtonSteps the most Newton steps to take per bone per iteration. 0
+     *                    (the default) disables refinement.
+     * @param precision   relative precision at which to stop early.
+     */
+    public void setQCPRefinement(int newtonSteps, float precision) {
+        this.qcpNewtonSteps = Math.max(0, newtonSteps);
+        this.qcpPrecision = precision;
+    }
+
+    /**
+     * brings the global transform of every node below this armature's axes
+     * (bones, constraint and pin axes included) up to date in one pass, parents
+     * first. IKSolver itself only updates the bones it solved, so this is for
+     * callers which are about to read most of the armature anyway.
+     */
+    public void updateGlobalTransforms() {
+        if (transformHierarchy == null) {
+            transformHierarchy = new Node3DHierarchy(localAxes());
+        }
+        transformHierarchy.updateGlobals();
+    }
+
+    /**
+     * Snaps every bone of the armature into the limits of its constraint, as
+     * Bone.snapToConstraints() would, for example after importing a pose or
+     * blending in an animation.
+     * <p>
+     * Bones are visited breadth first. A bone's limits are relative to its
+     * parent, so bones at the same depth can't affect each other, and each depth
+     * is snapped as one batch: each bone's axes and limiting axes are copied,
+     * which brings just those nodes' global transforms up to date (lazily, one
+     * node at a time, on the calling thread), the copies are snapped
+     * concurrently on the solver pool (see setParallelSolve), and the results
+     * are written back. Batches of up to SNAP_TASK_SIZE bones are snapped on the
+     * calling thread. Nothing else is updated: as after IKSolver, whatever the
+     * snapped bones moved is brought up to date when it's next read.
+     * <p>
+     * Each bone is snapped on detached copies of its axes and limiting axes, so
+     * the workers never touch the (lazily updated) transforms they share, and
+     * the result is the same however many threads run. Bones which are already
+     * within their limits aren't modified. The armature must not be modified
+     * from other threads meanwhile.
+     */
+    public void snapAllToConstraints() {
+        ArrayList<Bone> level = new ArrayList<>();
+        ArrayList<Bone> nextLevel = new ArrayList<>();
+        ArrayList<Bone> constrained = new ArrayList<>();
+        level.add(rootBone);
+        while (!level.isEmpty()) {
+            constrained.clear();
+            for (Bone b : level) {
+                if (b.constraints != null && b.constraints.limitingAxes() != null) {
+                    constrained.add(b);
+                }
+                nextLevel.addAll(b.getChildren());
+            }
+            if (!constrained.isEmpty()) {
+                snapLevelToConstraints(constrained);
+            }
+            ArrayList<Bone> swap = level;
+            level = nextLevel;
+            nextLevel = swap;
+            nextLevel.clear();
+        }
+    }
+
+    private void snapLevelToConstraints(ArrayList<Bone> level) {
+        int count = level.size();
+        if (snapAxes.length < count) {
+            int oldLength = snapAxes.length;
+            snapAxes = Arrays.copyOf(snapAxes, count);
+            snapLimits = Arrays.copyOf(snapLimits, count);
+            snapVersions = Arrays.copyOf(snapVersions, count);
+            for (int i = oldLength; i < count; i++) {
+                snapAxes[i] = new Node3D();
+                snapLimits[i] = new Node3D();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Bone b = level.get(i);
+            detachedCopy(b.localAxes(), snapAxes[i]);
+            detachedCopy(b.constraints.limitingAxes(), snapLimits[i]);
+            snapVersions[i] = snapAxes[i].getTransformVersion();
+        }
+        SnapToConstraintsTask task = new SnapToConstraintsTask(level, 0, count);
+        if (count <= SNAP_TASK_SIZE || ForkJoinTask.getPool() == solverPool) {
+            task.compute();
+        } else {
+            solverPool.invoke(task);
+        }
+        for (int i = 0; i < count; i++) {
+            snapAxes[i].updateGlobal();
+            if (snapAxes[i].getTransformVersion() != snapVersions[i]) {
+                level.get(i).localAxes().alignGlobalsTo(snapAxes[i]);
+            }
+        }
+    }
+
+    /**
+     * brings node's global transform up to date and copies it into the
+     * parentless node copy.
+     */
+    private static void detachedCopy(Node3D node, Node3D copy) {
+        copy.getLocalMBasis().adoptValues(node.getGlobalMBasis());
+        copy.markDirty();
+        copy.updateGlobal();
+    }
+
+    public PoseCache getPoseCache() {
+        return poseCache;
+    }
+
+    /**
+     * Attaches a cache of solved poses to this armature. Whenever IKSolver is
+     * called on the root bone, the cache is checked for a pose solved for
+     * (nearly) the same pin targets. On a hit the pose is applied, and then
+     * either used as is or solved further, depending on the cache's HitMode. On
+     * a miss the armature is solved as usual, and the result is cached if the
+     * solve converged (see setConvergenceTolerance).
+     *
+     * @param cache the cache to use, or null to stop caching.
+     */
+    public void setPoseCache(PoseCache cache) {
+        this.poseCache = cache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    public boolean getSkipUnchangedChains() {
+        return skipUnchangedChains;
+    }
+
+    /**
+     * When enabled, each call to IKSolver first checks which bonechains could be
+     * affected by anything that has moved since the last converged solve (pin
+     * targets, the bones themselves, or the armature), and only solves those. If
+     * nothing has moved, IKSolver returns almost immediately.
+     * <p>
+     * A solve counts as converged if it stopped early under the convergence
+     * tolerance, or if no tolerance is set. Chains which didn't converge are
+     * solved again next time, even if nothing moved. Changes to pin weights or
+     * bone stiffness also mark the affected chains for solving, but changes made
+     * directly to a constraint's limit cones don't; call updateBonechains()
+     * after those.
+     *
+     * @param enabled
+     */
+    public void setSkipUnchangedChains(boolean enabled) {
+        this.skipUnchangedChains = enabled;
+    }
+
+    public boolean getParallelSolve() {
+        return parallelSolve;
+    }
+
+    /**
+     * @see #setParallelSolve(boolean, int, ForkJoinPool)
+     */
+    public void setParallelSolve(boolean enabled) {
+        setParallelSolve(enabled, parallelSolveThreshold, solverPool);
+    }
+
+    /**
+     * If enabled, sibling bonechains below a split (for example, the two arms
+     * below the chest) are solved concurrently as fork-join tasks, since they
+     * share no simulated bones. Disabled by default.
+     * <p>
+     * Forking has a fixed overhead, so subtrees with fewer than
+     * threshold simulated bones are always solved inline. The armature must not be
+     * modified from other threads while it is being solved.
+     * <p>
+     * While siblings are solved, the simulated bones rootward of them and every
+     * pin target are frozen (see Node3D.freezeAncestry()), so that no task writes
+     * a node another task reads, however deep the armature.
+     *
+     * @param enabled
+     * @param threshold the minimum number of simulated bones a sibling subtree
+     *                  must contain to be solved as its own task.
+     * @param pool      the pool to run the tasks on.
+     */
+    public void setParallelSolve(boolean enabled, int threshold, ForkJoinPool pool) {
+        this.parallelSolve = enabled;
+        this.parallelSolveThreshold = threshold;
+        this.solverPool = pool == null ? ForkJoinPool.commonPool() : pool;
+    }
+
     @Override
     public void makeSaveable(SaveManager saveManager) {
         saveManager.addToSaveState(this);
@@ -584,6 +1269,166 @@ public class Skeleton3D implements Saveable {
     public void setLoading(boolean loading) {
     }
 
+    /**
+     * Solves a set of independent sibling chains, forking those large enough to
+     * be worth it. Each task and its per-sibling subtasks are kept and
+     * reinitialized for every solve of its siblings, rather than allocated anew.
+     */
+    class SiblingBonechainsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final List<ewbik.ik.ShadowNode3D> siblings;
+        final boolean grouped;
+        final BonechainTask[] chainTasks;
+        final BonechainTask[] forked;
+        final int[] frozen;
+        float dampening;
+        int stabilizationPasses;
+        int iteration;
+        float totalIterations;
+
+        SiblingBonechainsTask(List<ewbik.ik.ShadowNode3D> siblings, boolean grouped) {
+            this.siblings = siblings;
+            this.grouped = grouped;
+            this.chainTasks = new BonechainTask[siblings.size()];
+            for (int i = 0; i < chainTasks.length; i++) {
+                chainTasks[i] = new BonechainTask(siblings.get(i), this);
+            }
+            this.forked = new BonechainTask[siblings.size()];
+            this.frozen = new int[siblings.size()];
+        }
+
+        @Override
+        protected void compute() {
+            // every sibling reads its ancestors' globals, so freeze them before
+            // anything runs concurrently. Siblings usually share a parent, which is
+            // then only frozen once.
+            for (int i = 0; i < frozen.length; i++) {
+                frozen[i] = siblings.get(i).getBonechainParent().freezeTip();
+            }
+            int forkedCount = 0;
+            try {
+                BonechainTask last = null;
+                for (int i = 0; i < chainTasks.length; i++) {
+                    if (siblings.get(i).subtreeBoneCount >= parallelSolveThreshold) {
+                        if (last != null) {
+                            last.fork();
+                            forked[forkedCount++] = last;
+                        }
+                        last = chainTasks[i];
+                        last.reinitialize();
+                    }
+                }
+                for (int i = 0; i < chainTasks.length; i++) {
+                    if (siblings.get(i).subtreeBoneCount < parallelSolveThreshold) {
+                        solve(siblings.get(i));
+                    }
+                }
+                if (last != null) {
+                    last.compute();
+                }
+                for (int i = 0; i < forkedCount; i++) {
+                    forked[i].join();
+                }
+            } finally {
+                Arrays.fill(forked, 0, forkedCount, null);
+                for (int i = frozen.length - 1; i >= 0; i--) {
+                    siblings.get(i).getBonechainParent().thawTip(frozen[i]);
+                }
+            }
+        }
+
+        void solve(ewbik.ik.ShadowNode3D chain) {
+            if (grouped) {
+                groupedRecursiveBonechainSolver(chain, dampening, stabilizationPasses, iteration, totalIterations);
+            } else {
+                recursiveBonechainSolver(chain, dampening, stabilizationPasses, iteration, totalIterations);
+                chain.setProcessed(true);
+            }
+        }
+    }
+
+    class BonechainTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final ewbik.ik.ShadowNode3D chain;
+        final SiblingBonechainsTask group;
+
+        BonechainTask(ewbik.ik.ShadowNode3D chain, SiblingBonechainsTask group) {
+            this.chain = chain;
+            this.group = group;
+        }
+
+        @Override
+        protected void compute() {
+            group.solve(chain);
+        }
+    }
+
+    /**
+     * Snaps the detached copies of a range of one level's bones, splitting the
+     * range in half until it's at most SNAP_TASK_SIZE bones.
+     */
+    class SnapToConstraintsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final ArrayList<Bone> level;
+        final int start;
+        final int end;
+
+        SnapToConstraintsTask(ArrayList<Bone> level, int start, int end) {
+            this.level = level;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SNAP_TASK_SIZE) {
+                for (int i = start; i < end; i++) {
+                    level.get(i).constraints.setAxesToSnapped(snapAxes[i], snapLimits[i], 0f);
+                }
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new SnapToConstraintsTask(level, start, mid), new SnapToConstraintsTask(level, mid, end));
+            }
+        }
+    }
+
+    /**
+     * What a time budgeted call to IKSolver did. Times are in nanoseconds.
+     */
+    public static class SolveResult {
+        /**
+         * the number of iterations run.
+         */
+        public int iterations = 0;
+        /**
+         * the weighted mean squared error between the pinned tips and their
+         * targets once the solver stopped, in squared armature units. Orientation
+         * errors are included, scaled by the tip bone's squared height (see
+         * ShadowNode3D.getCurrentResidual()).
+         * Always measured on the pose the solve left, including when no iterations
+         * ran because nothing had moved or the pose came from the pose cache.
+         */
+        public float residual = 0f;
+        /**
+         * false if the budget ran out, or maxIterations ran, before the solution
+         * converged.
+         */
+        public boolean converged = false;
+        /**
+         * true if the pose was restored from the pose cache without solving.
+         */
+        public boolean fromCache = false;
+        public long elapsedNanos = 0;
+
+        public String toString() {
+            return "ran " + iterations + " iterations in " + (elapsedNanos / 1000000f) + "ms, residual = " + residual
+                    + (converged ? " (converged)" : " (not converged)") + (fromCache ? " (from cache)" : "");
+        }
+    }
+
     public class PerformanceStats {
         int timedCalls = 0;
         int benchmarkWindow = 60;
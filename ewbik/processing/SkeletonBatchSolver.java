@@ -0,0 +1,213 @@
+package processing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Solves many independent armatures (for example, every character in a crowd)
+ * on a fixed pool of worker threads.
+ * <p>
+ * Each armature is only ever solved by one worker at a time, and all of the
+ * solver's scratch state lives on the armature's own bonechains, so workers
+ * never share mutable state. Each worker also keeps its own latency samples,
+ * which are merged once the batch completes.
+ * <p>
+ * The armatures in a batch must be distinct and must not be modified from
+ * other threads until solve() returns.
+ */
+public class SkeletonBatchSolver {
+
+    private final ExecutorService pool;
+    private final Worker[] workers;
+    private final AtomicInteger nextSkeleton = new AtomicInteger();
+    private final ArrayList<Future<?>> pending = new ArrayList<>();
+    private Skeleton3D[] batch = new Skeleton3D[0];
+    private long[] mergedLatencies = new long[0];
+
+    /**
+     * creates a batch solver with one worker per available processor.
+     */
+    public SkeletonBatchSolver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param workerCount the number of worker threads to solve on.
+     */
+    public SkeletonBatchSolver(int workerCount) {
+        workerCount = Math.max(1, workerCount);
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker();
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "ewbik-batch-solver-" + threadCount.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+        pool = Executors.newFixedThreadPool(workerCount, factory);
+    }
+
+    /**
+     * solves every armature in the collection from its root bone using each
+     * armature's default IK parameters.
+     *
+     * @param skeletons
+     * @return timing statistics for this batch
+     */
+    public BatchStats solve(Collection<Skeleton3D> skeletons) {
+        return solve(skeletons, -1, -1, -1);
+    }
+
+    /**
+     * solves every armature in the collection from its root bone using the given
+     * parameters. Blocks until the whole batch is solved.
+     * <p>
+     * If solving an armature throws, this still waits for every worker to stop,
+     * and then rethrows the first failure as the cause of a RuntimeException.
+     *
+     * @param skeletons
+     * @param dampening         dampening angle in radians. Set this to -1 if you
+     *                          want to use each armature's default.
+     * @param iterations        number of iterations to run. Set this to -1 if you
+     *                          want to use each armature's default.
+     * @param stabilizingPasses number of stabilization passes to run. Set this to
+     *                          -1 if you want to use each armature's default.
+     * @return timing statistics for this batch
+     */
+    public synchronized BatchStats solve(Collection<Skeleton3D> skeletons, float dampening, int iterations,
+            int stabilizingPasses) {
+        batch = skeletons.toArray(batch);
+        int count = skeletons.size();
+        nextSkeleton.set(0);
+        long startTime = System.nanoTime();
+
+        pending.clear();
+        int activeWorkers = Math.min(workers.length, count);
+        for (int i = 0; i < activeWorkers; i++) {
+            Worker w = workers[i];
+            pending.add(pool.submit(() -> w.run(batch, count, dampening, iterations, stabilizingPasses)));
+        }
+        // wait for every worker, even once one has failed or this thread has been
+        // interrupted, since the armatures can't be touched until they're done.
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<?> f : pending) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        pending.clear();
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        long batchTime = System.nanoTime() - startTime;
+        Arrays.fill(batch, null);
+        if (failure != null)
+            throw new RuntimeException("solving an armature in the batch failed", failure);
+        return collectStats(activeWorkers, count, batchTime);
+    }
+
+    /**
+     * stops the worker threads. The solver can't be used after this is called.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    private BatchStats collectStats(int activeWorkers, int count, long batchTime) {
+        if (mergedLatencies.length < count) {
+            mergedLatencies = new long[count];
+        }
+        int merged = 0;
+        for (int i = 0; i < activeWorkers; i++) {
+            Worker w = workers[i];
+            System.arraycopy(w.latencies, 0, mergedLatencies, merged, w.solved);
+            merged += w.solved;
+        }
+        Arrays.sort(mergedLatencies, 0, merged);
+
+        BatchStats stats = new BatchStats();
+        stats.skeletonCount = merged;
+        stats.batchNanos = batchTime;
+        if (merged > 0) {
+            stats.skeletonsPerSecond = merged / (batchTime / 1e9f);
+            stats.medianNanos = percentile(merged, 0.5f);
+            stats.p95Nanos = percentile(merged, 0.95f);
+            stats.p99Nanos = percentile(merged, 0.99f);
+            stats.maxNanos = mergedLatencies[merged - 1];
+        }
+        return stats;
+    }
+
+    private long percentile(int sampleCount, float p) {
+        int idx = (int) Math.ceil(p * sampleCount) - 1;
+        return mergedLatencies[Math.max(0, Math.min(sampleCount - 1, idx))];
+    }
+
+    /**
+     * Per-thread state. Only touched by the pool thread running it during a batch,
+     * and by the calling thread after the batch's futures have completed.
+     */
+    class Worker {
+        long[] latencies = new long[64];
+        int solved = 0;
+
+        void run(Skeleton3D[] batch, int count, float dampening, int iterations, int stabilizingPasses) {
+            solved = 0;
+            int i;
+            while ((i = nextSkeleton.getAndIncrement()) < count) {
+                Skeleton3D s = batch[i];
+                long start = System.nanoTime();
+                s.IKSolver(s.getRootBone(), dampening, iterations, stabilizingPasses);
+                long elapsed = System.nanoTime() - start;
+                if (solved == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, solved * 2);
+                }
+                latencies[solved++] = elapsed;
+            }
+        }
+    }
+
+    /**
+     * Throughput and per-armature latency for one batch. Latencies are in
+     * nanoseconds.
+     */
+    public static class BatchStats {
+        public int skeletonCount = 0;
+        public long batchNanos = 0;
+        public float skeletonsPerSecond = 0f;
+        public long medianNanos = 0;
+        public long p95Nanos = 0;
+        public long p99Nanos = 0;
+        public long maxNanos = 0;
+
+        public String toString() {
+            return "solved " + skeletonCount + " armatures in " + (batchNanos / 1000000f) + "ms ("
+                    + skeletonsPerSecond + " per second)\n"
+                    + "per armature: median = " + (medianNanos / 1000000f) + "ms, p95 = " + (p95Nanos / 1000000f)
+                    + "ms, p99 = " + (p99Nanos / 1000000f) + "ms, max = " + (maxNanos / 1000000f) + "ms";
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ewbik.benchmark;
+
+import ewbik.math.Transform3D;
+import ewbik.math.Vector3;
+import processing.Node3D;
+import processing.Skeleton3D;
+
+import java.util.ArrayList;
+
+/**
+ * Prints the retained heap size of a rig after a solve has built its simulated
+ * copy, per armature and per bone. Also prints the size of a lone Node3D and
+ * Transform3D, so that changes to their layout can be tracked.
+ * <p>
+ * Sizes are the growth in used heap after creating many copies and forcing
+ * collections, so they're approximate but stable to within a few bytes. Run
+ * from the jmh jar with
+ * java -cp build/libs/*-jmh.jar ewbik.benchmark.FootprintReport [rigPath]
+ * [copies]
+ */
+public class FootprintReport {
+
+    public static void main(String[] args) {
+        String rigPath = args.length > 0 ? args[0] : "Humanoid_Holding_Item.json";
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        ArrayList<Object> keep = new ArrayList<>();
+
+        long before = usedHeap();
+        for (int i = 0; i < 10000; i++) {
+            keep.add(new Transform3D(new Vector3()));
+        }
+        long perTransform = (usedHeap() - before) / 10000;
+        keep.clear();
+
+        before = usedHeap();
+        for (int i = 0; i < 10000; i++) {
+            keep.add(new Node3D());
+        }
+        long perNode = (usedHeap() - before) / 10000;
+        keep.clear();
+
+        ArrayList<Skeleton3D> skeletons = new ArrayList<>();
+        before = usedHeap();
+        for (int i = 0; i < copies; i++) {
+            // solve straight away: Node3D only holds its parent weakly, so a pin
+            // target nothing else references can be collected by the next gc.
+            Skeleton3D skeleton = ewbik.processing.IO.LoadArmature(rigPath);
+            skeleton.IKSolver(skeleton.getRootBone());
+            skeletons.add(skeleton);
+        }
+        long solved = usedHeap() - before;
+        int bones = skeletons.get(0).getBoneList().size();
+
+        System.out.println("rig: " + rigPath + " (" + bones + " bones, " + copies + " copies)");
+        System.out.println("Transform3D: " + perTransform + " bytes");
+        System.out.println("Node3D: " + perNode + " bytes");
+        System.out.println("armature, after a solve: " + solved / copies + " bytes, "
+                + solved / ((long) copies * bones) + " bytes per bone");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // collect until the figure stops shrinking, so that garbage from whatever
+        // ran last doesn't get counted.
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used)
+                break;
+            used = now;
+        }
+        return used;
+    }
+}
@@ -0,0 +1,76 @@
+package ewbik.benchmark;
+
+import ewbik.math.HeadingKernels;
+import ewbik.math.Vector3;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the packed heading kernels at the same heading counts as
+ * QCPBenchmark, alongside the equivalent loops over Vector3 arrays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeadingKernelsBenchmark {
+
+    @Param({ "1", "7", "28", "112" })
+    public int headings;
+
+    Vector3[] tips, targets;
+    float[] packedTips, packedTargets, weights;
+    float[] covariance = new float[9];
+    Vector3 center = new Vector3();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random r = new Random(7);
+        tips = new Vector3[headings];
+        targets = new Vector3[headings];
+        weights = new float[headings];
+        for (int i = 0; i < headings; i++) {
+            tips[i] = new Vector3(r.nextFloat() - 0.5f, r.nextFloat() - 0.5f, r.nextFloat() - 0.5f);
+            targets[i] = new Vector3(r.nextFloat() - 0.5f, r.nextFloat() - 0.5f, r.nextFloat() - 0.5f);
+            weights[i] = 0.5f + r.nextFloat();
+        }
+        packedTips = new float[headings * 3];
+        packedTargets = new float[headings * 3];
+        HeadingKernels.pack(tips, 0, headings, packedTips, 0);
+        HeadingKernels.pack(targets, 0, headings, packedTargets, 0);
+    }
+
+    @Benchmark
+    public float packedInnerProduct() {
+        return HeadingKernels.innerProduct(packedTips, 0, packedTargets, 0, weights, 0, headings, covariance);
+    }
+
+    @Benchmark
+    public float packedMSD() {
+        return HeadingKernels.weightedMSD(packedTips, 0, packedTargets, 0, weights, 0, headings);
+    }
+
+    @Benchmark
+    public Vector3 packedCenter() {
+        HeadingKernels.weightedCenter(packedTips, 0, weights, 0, headings, center);
+        return center;
+    }
+
+    @Benchmark
+    public float vector3MSD() {
+        float msd = 0f;
+        float wsum = 0f;
+        for (int i = 0; i < headings; i++) {
+            float xd = targets[i].x - tips[i].x;
+            float yd = targets[i].y - tips[i].y;
+            float zd = targets[i].z - tips[i].z;
+            msd += weights[i] * (xd * xd + yd * yd + zd * zd);
+            wsum += weights[i];
+        }
+        return msd / wsum;
+    }
+}
@@ -0,0 +1,51 @@
+package ewbik.benchmark;
+
+import ewbik.math.Vector3;
+import ik.IKPin;
+import org.openjdk.jmh.annotations.*;
+import processing.Skeleton3D;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full Skeleton3D.IKSolver call on the bundled humanoid rig.
+ * The left hand pin is nudged back and forth before every solve so the solver
+ * always has work to do, as it would while a user drags a pin around.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IKSolverBenchmark {
+
+    @Param({ "Humanoid_Holding_Item.json" })
+    public String rigPath;
+
+    @Param({ "1", "5", "15" })
+    public int iterations;
+
+    @Param({ "0", "1", "4" })
+    public int stabilizationPasses;
+
+    Skeleton3D skeleton;
+    IKPin pin;
+    Vector3 nudge = new Vector3();
+    int frame = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        skeleton = ewbik.processing.IO.LoadArmature(rigPath);
+        pin = skeleton.getBoneName("left hand").getIKPin();
+    }
+
+    @Benchmark
+    public Skeleton3D solve() {
+        frame++;
+        nudge.set((frame % 2 == 0) ? 1f : -1f, 0f, 0f);
+        pin.translateBy_(nudge);
+        skeleton.IKSolver(skeleton.getRootBone(), -1, iterations, stabilizationPasses);
+        return skeleton;
+    }
+}
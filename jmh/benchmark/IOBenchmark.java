@@ -0,0 +1,26 @@
+package ewbik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import processing.Skeleton3D;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures IO.LoadArmature, which parses the rig and builds the bone chains.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IOBenchmark {
+
+    @Param({ "Humanoid_Holding_Item.json" })
+    public String rigPath;
+
+    @Benchmark
+    public Skeleton3D loadArmature() {
+        return ewbik.processing.IO.LoadArmature(rigPath);
+    }
+}
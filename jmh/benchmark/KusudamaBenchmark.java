@@ -0,0 +1,101 @@
+package ewbik.benchmark;
+
+import ewbik.math.MathUtils;
+import ewbik.math.Vector3;
+import ewbik.processing.singlePrecision.Kusudama;
+import ik.Bone;
+import org.openjdk.jmh.annotations.*;
+import processing.Node3D;
+import processing.Skeleton3D;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Kusudama.pointInLimits and pointOnPathSequence against constraints
+ * with an increasing number of limit cones. The query points are spread over
+ * the whole sphere so that both the in bounds and the out of bounds paths are
+ * exercised. lookupGrid is the resolution of the kusudama's optional lookup
+ * grid, 0 for none.
+ * <p>
+ * angleToTwistCenter measures the twist extraction alone, with the limiting
+ * frame left untouched between calls, as it is during a solve.
+ * <p>
+ * setAxesToSnapped measures the whole per bone constraint step of the solver.
+ * Run with the gc profiler (the default for this project) and compare
+ * gc.alloc.rate.norm to see the bytes it allocates per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KusudamaBenchmark {
+
+    @Param({ "Humanoid_Holding_Item.json" })
+    public String rigPath;
+
+    @Param({ "1", "2", "4", "8" })
+    public int limitCones;
+
+    @Param({ "0", "32" })
+    public int lookupGrid;
+
+    Kusudama kusudama;
+    Node3D boneAxes;
+    Vector3[] points = new Vector3[1024];
+    float[] inBounds = { 1f };
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Skeleton3D skeleton = ewbik.processing.IO.LoadArmature(rigPath);
+        Bone bone = skeleton.getBoneName("left hand");
+        kusudama = new Kusudama(bone);
+        kusudama.setAxialLimits(-0.5f, 1f);
+        boneAxes = bone.localAxes();
+        for (int i = 0; i < limitCones; i++) {
+            float azimuth = MathUtils.PI2 * i / limitCones;
+            Vector3 control = new Vector3(MathUtils.cos(azimuth), 1f, MathUtils.sin(azimuth));
+            control.normalize();
+            kusudama.addLimitConeAtIndex(-1, control, 0.4f);
+        }
+        kusudama.setLookupGridResolution(lookupGrid);
+        Random r = new Random(11);
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Vector3(r.nextFloat() * 2f - 1f, r.nextFloat() * 2f - 1f, r.nextFloat() * 2f - 1f);
+            points[i].normalize();
+        }
+    }
+
+    @Benchmark
+    public Vector3 pointInLimits() {
+        next = (next + 1) & (points.length - 1);
+        return kusudama.pointInLimits(points[next], inBounds);
+    }
+
+    @Benchmark
+    public Vector3 pointOnPathSequence() {
+        next = (next + 1) & (points.length - 1);
+        return kusudama.pointOnPathSequence(points[next], kusudama.limitingAxes());
+    }
+
+    @Benchmark
+    public float angleToTwistCenter() {
+        next = (next + 1) & (points.length - 1);
+        boneAxes.rotateAboutY((next & 1) == 0 ? 0.8f : -0.8f, true);
+        return kusudama.angleToTwistCenter(boneAxes, kusudama.limitingAxes());
+    }
+
+    @Benchmark
+    public Node3D setAxesToSnapped() {
+        next = (next + 1) & (points.length - 1);
+        float sign = (next & 1) == 0 ? 1f : -1f;
+        // swing and twist the bone out of its limits, then snap it back.
+        boneAxes.rotateAboutX(0.6f * sign, true);
+        boneAxes.rotateAboutY(0.8f * sign, true);
+        kusudama.setAxesToSnapped(boneAxes, kusudama.limitingAxes(), 1f);
+        return boneAxes;
+    }
+}
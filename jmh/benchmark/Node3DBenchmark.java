@@ -0,0 +1,64 @@
+package ewbik.benchmark;
+
+import ewbik.math.Vector3;
+import org.openjdk.jmh.annotations.*;
+import processing.Node3D;
+import processing.Node3DHierarchy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Node3D.updateGlobal on the tip of a single deep hierarchy after its
+ * root has been modified, which makes every node below it stale, and the same
+ * update done as a single Node3DHierarchy sweep.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Node3DBenchmark {
+
+    @Param({ "8", "64", "512", "10000" })
+    public int depth;
+
+    Node3D root;
+    Node3D tip;
+    Node3DHierarchy hierarchy;
+    Vector3 nudge = new Vector3();
+    int frame = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        root = new Node3D();
+        Node3D parent = root;
+        for (int i = 1; i < depth; i++) {
+            Node3D child = new Node3D();
+            child.setParent(parent);
+            child.translateByLocal(new Vector3(0f, 1f, 0f));
+            child.rotateAboutY(0.1f, true);
+            parent = child;
+        }
+        tip = parent;
+        hierarchy = new Node3DHierarchy(root);
+    }
+
+    @Benchmark
+    public Node3D updateGlobal() {
+        frame++;
+        nudge.set((frame % 2 == 0) ? 1f : -1f, 0f, 0f);
+        root.translateByLocal(nudge);
+        tip.updateGlobal();
+        return tip;
+    }
+
+    @Benchmark
+    public Node3D updateGlobalsBatched() {
+        frame++;
+        nudge.set((frame % 2 == 0) ? 1f : -1f, 0f, 0f);
+        root.translateByLocal(nudge);
+        hierarchy.updateGlobals();
+        return tip;
+    }
+}
@@ -0,0 +1,85 @@
+package ewbik.benchmark;
+
+import ewbik.math.QCP;
+import ewbik.math.Quaternion;
+import ewbik.math.Vector3;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures QCP.weightedSuperpose at the heading counts the solver produces: 1
+ * for a lone position pin, 7 for a fully orientation aware pin, and larger
+ * counts for bones with several orientation aware pinned descendants.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QCPBenchmark {
+
+    @Param({ "1", "7", "28", "112" })
+    public int headings;
+
+    /**
+     * maximum Newton iterations for the eigenvalue (the solver uses 0).
+     */
+    @Param({ "0", "5" })
+    public int iterations;
+
+    @Param({ "false", "true" })
+    public boolean translate;
+
+    QCP qcp;
+    Quaternion result = new Quaternion();
+    Vector3[] moved, target, movedSource, targetSource;
+    float[] weights;
+    float[] packedMoved, packedTarget;
+    Vector3 translation = new Vector3();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random r = new Random(7);
+        qcp = new QCP(ewbik.math.MathUtils.FLOAT_ROUNDING_ERROR, ewbik.math.MathUtils.FLOAT_ROUNDING_ERROR);
+        qcp.setMaxIterations(iterations);
+        Quaternion rot = new Quaternion(new Vector3(r.nextFloat(), r.nextFloat(), r.nextFloat()), 0.7f);
+        moved = new Vector3[headings];
+        target = new Vector3[headings];
+        movedSource = new Vector3[headings];
+        targetSource = new Vector3[headings];
+        weights = new float[headings];
+        for (int i = 0; i < headings; i++) {
+            movedSource[i] = new Vector3(r.nextFloat() - 0.5f, r.nextFloat() - 0.5f, r.nextFloat() - 0.5f);
+            targetSource[i] = rot.applyToCopy(movedSource[i]);
+            moved[i] = movedSource[i].copy();
+            target[i] = targetSource[i].copy();
+            weights[i] = 0.5f + r.nextFloat();
+        }
+        packedMoved = new float[headings * 3];
+        packedTarget = new float[headings * 3];
+        ewbik.math.HeadingKernels.pack(movedSource, 0, headings, packedMoved, 0);
+        ewbik.math.HeadingKernels.pack(targetSource, 0, headings, packedTarget, 0);
+    }
+
+    @Benchmark
+    public Quaternion weightedSuperpose() {
+        if (translate) {
+            // translation recenters the inputs in place, so restore them first.
+            for (int i = 0; i < headings; i++) {
+                moved[i].set(movedSource[i]);
+                target[i].set(targetSource[i]);
+            }
+        }
+        return qcp.weightedSuperpose(moved, target, weights, translate, result);
+    }
+
+    @Benchmark
+    public Quaternion weightedSuperposePacked() {
+        // the packed overload never modifies its inputs, so there's nothing to restore.
+        return qcp.weightedSuperpose(packedMoved, 0, packedTarget, 0, weights, 0, headings, translate, result,
+                translation);
+    }
+}
@@ -0,0 +1,64 @@
+package ewbik.benchmark;
+
+import ik.Bone;
+import org.openjdk.jmh.annotations.*;
+import processing.Skeleton3D;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Skeleton3D.snapAllToConstraints on the bundled humanoid rig, against
+ * snapping each bone with Bone.snapToConstraints in breadth first order. Every
+ * bone is twisted and swung out of its limits before each call, as after a
+ * pose import.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkeletonSnapBenchmark {
+
+    @Param({ "Humanoid_Holding_Item.json" })
+    public String rigPath;
+
+    Skeleton3D skeleton;
+    ArrayList<Bone> breadthFirst = new ArrayList<>();
+    int frame = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        skeleton = ewbik.processing.IO.LoadArmature(rigPath);
+        breadthFirst.add(skeleton.getRootBone());
+        for (int i = 0; i < breadthFirst.size(); i++) {
+            breadthFirst.addAll(breadthFirst.get(i).getChildren());
+        }
+    }
+
+    void perturb() {
+        frame++;
+        float sign = (frame % 2 == 0) ? 1f : -1f;
+        for (Bone b : breadthFirst) {
+            b.localAxes().rotateAboutX(0.6f * sign, true);
+            b.localAxes().rotateAboutY(1.2f * sign, true);
+        }
+    }
+
+    @Benchmark
+    public Skeleton3D snapAllToConstraints() {
+        perturb();
+        skeleton.snapAllToConstraints();
+        return skeleton;
+    }
+
+    @Benchmark
+    public Skeleton3D snapEachBone() {
+        perturb();
+        for (Bone b : breadthFirst) {
+            b.snapToConstraints();
+        }
+        return skeleton;
+    }
+}
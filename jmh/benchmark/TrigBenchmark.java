@@ -0,0 +1,47 @@
+package ewbik.benchmark;
+
+import ewbik.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures MathUtils.sin / cos under each TrigBackend, over angles in the range
+ * the solver produces (dampening and returnfulness half angles, constraint
+ * radii).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrigBenchmark {
+
+    @Param({ "EXACT", "LUT", "POLY" })
+    public MathUtils.TrigBackend backend;
+
+    float[] angles = new float[1024];
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MathUtils.setTrigBackend(backend);
+        Random r = new Random(7);
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = (r.nextFloat() * 2f - 1f) * MathUtils.PI2;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MathUtils.setTrigBackend(MathUtils.TrigBackend.EXACT);
+    }
+
+    @Benchmark
+    public float sinCos() {
+        float a = angles[next++ & 1023];
+        return MathUtils.sin(a) + MathUtils.cos(a);
+    }
+}
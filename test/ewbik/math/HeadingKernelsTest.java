@@ -0,0 +1,209 @@
+package ewbik.math;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks HeadingKernels' packed kernels against the Vector3 code paths they
+ * replace in QCP and ShadowNode3D.
+ */
+public class HeadingKernelsTest {
+
+    static final int OFFSET = 2;
+    static final int MAX_COUNT = 12;
+
+    final Random random = new Random(7);
+
+    Vector3[] headings(int count) {
+        Vector3[] headings = new Vector3[count];
+        for (int i = 0; i < count; i++) {
+            headings[i] = new Vector3(random.nextFloat() * 20f - 10f, random.nextFloat() * 20f - 10f,
+                    random.nextFloat() * 20f - 10f);
+        }
+        return headings;
+    }
+
+    float[] weights(int count) {
+        float[] weights = new float[count];
+        for (int i = 0; i < count; i++) {
+            weights[i] = random.nextFloat();
+        }
+        return weights;
+    }
+
+    /**
+     * @return the headings packed starting at OFFSET * 3.
+     */
+    static float[] packed(Vector3[] headings) {
+        float[] packed = new float[(headings.length + OFFSET) * 3];
+        HeadingKernels.pack(headings, 0, headings.length, packed, OFFSET * 3);
+        return packed;
+    }
+
+    static float[] offsetWeights(float[] weights) {
+        if (weights == null)
+            return null;
+        float[] offset = new float[weights.length + OFFSET];
+        System.arraycopy(weights, 0, offset, OFFSET, weights.length);
+        return offset;
+    }
+
+    static Vector3[] copies(Vector3[] headings) {
+        Vector3[] copies = new Vector3[headings.length];
+        for (int i = 0; i < headings.length; i++) {
+            copies[i] = headings[i].copy();
+        }
+        return copies;
+    }
+
+    static void assertClose(float expected, float actual, String message) {
+        assertEquals(expected, actual, 1e-5f * Math.max(1f, Math.abs(expected)), message);
+    }
+
+    static void assertClose(Vector3 expected, Vector3 actual, String message) {
+        assertClose(expected.x, actual.x, message);
+        assertClose(expected.y, actual.y, message);
+        assertClose(expected.z, actual.z, message);
+    }
+
+    @Test
+    public void packAndUnpackRoundTrip() {
+        Vector3[] headings = headings(MAX_COUNT);
+        Vector3[] unpacked = new Vector3[MAX_COUNT];
+        for (int i = 0; i < MAX_COUNT; i++) {
+            unpacked[i] = new Vector3();
+        }
+        HeadingKernels.unpack(packed(headings), OFFSET * 3, MAX_COUNT, unpacked, 0);
+        for (int i = 0; i < MAX_COUNT; i++) {
+            assertEquals(headings[i].x, unpacked[i].x);
+            assertEquals(headings[i].y, unpacked[i].y);
+            assertEquals(headings[i].z, unpacked[i].z);
+        }
+    }
+
+    @Test
+    public void weightedCenterMatchesQCP() {
+        for (int count = 1; count <= MAX_COUNT; count++) {
+            for (boolean weighted : new boolean[] { false, true }) {
+                Vector3[] headings = headings(count);
+                float[] weights = weighted ? weights(count) : null;
+
+                Vector3 expected = new Vector3();
+                new QCP(1e-6f, 1e-11f).moveToWeightedCenter(headings, weights, expected);
+                Vector3 actual = new Vector3();
+                float wsum = HeadingKernels.weightedCenter(packed(headings), OFFSET * 3, offsetWeights(weights),
+                        OFFSET, count, actual);
+
+                String message = count + " headings, weighted: " + weighted;
+                assertClose(expected, actual, message);
+                float expectedWsum = count;
+                if (weighted) {
+                    expectedWsum = 0f;
+                    for (float w : weights) {
+                        expectedWsum += w;
+                    }
+                }
+                assertClose(expectedWsum, wsum, message);
+            }
+        }
+    }
+
+    @Test
+    public void untranslateMatchesQCP() {
+        Vector3[] headings = headings(MAX_COUNT);
+        Vector3 by = new Vector3(1.5f, -2f, 0.25f);
+        float[] packed = packed(headings);
+
+        QCP.untranslate(by, headings);
+        HeadingKernels.untranslate(packed, OFFSET * 3, MAX_COUNT, by);
+        for (int i = 0; i < MAX_COUNT; i++) {
+            int h = (OFFSET + i) * 3;
+            assertClose(headings[i], new Vector3(packed[h], packed[h + 1], packed[h + 2]), "heading " + i);
+        }
+    }
+
+    @Test
+    public void innerProductMatchesVector3Sums() {
+        for (int count = 1; count <= MAX_COUNT; count++) {
+            for (boolean weighted : new boolean[] { false, true }) {
+                Vector3[] a = headings(count);
+                Vector3[] b = headings(count);
+                float[] weights = weighted ? weights(count) : null;
+
+                float[] expected = new float[9];
+                float g = 0f;
+                for (int i = 0; i < count; i++) {
+                    float w = weighted ? weights[i] : 1f;
+                    float[] ai = { a[i].x, a[i].y, a[i].z };
+                    float[] bi = { b[i].x, b[i].y, b[i].z };
+                    for (int r = 0; r < 3; r++) {
+                        for (int c = 0; c < 3; c++) {
+                            expected[r * 3 + c] += w * ai[r] * bi[c];
+                        }
+                    }
+                    g += w * (a[i].magSq() + b[i].magSq());
+                }
+
+                float[] actual = new float[9];
+                float e0 = HeadingKernels.innerProduct(packed(a), OFFSET * 3, packed(b), OFFSET * 3,
+                        offsetWeights(weights), OFFSET, count, actual);
+
+                String message = count + " headings, weighted: " + weighted;
+                for (int i = 0; i < 9; i++) {
+                    assertClose(expected[i], actual[i], message + ", term " + i);
+                }
+                assertClose(g * 0.5f, e0, message + ", e0");
+            }
+        }
+    }
+
+    @Test
+    public void packedSuperpositionMatchesVector3Superposition() {
+        for (int count = 1; count <= MAX_COUNT; count++) {
+            for (boolean translate : new boolean[] { false, true }) {
+                Vector3[] moved = headings(count);
+                Vector3[] target = headings(count);
+                float[] weights = weights(count);
+                float[] packedMoved = packed(moved);
+                float[] packedTarget = packed(target);
+
+                QCP vectorQCP = new QCP(1e-6f, 1e-11f);
+                Quaternion expected = new Quaternion();
+                // the Vector3 path translates its inputs in place.
+                vectorQCP.weightedSuperpose(copies(moved), copies(target), weights, translate, expected);
+                QCP packedQCP = new QCP(1e-6f, 1e-11f);
+                Quaternion actual = new Quaternion();
+                packedQCP.weightedSuperpose(packedMoved, OFFSET * 3, packedTarget, OFFSET * 3, offsetWeights(weights),
+                        OFFSET, count, translate, actual, null);
+
+                String message = count + " headings, translate: " + translate;
+                // q and -q are the same rotation.
+                float dot = Math.abs(expected.rotation.dotProduct(actual.rotation));
+                assertEquals(1f, dot, 1e-4f, message);
+                assertClose(vectorQCP.getRmsd(), packedQCP.getRmsd(), message);
+            }
+        }
+    }
+
+    @Test
+    public void weightedMSDMatchesVector3Distances() {
+        for (int count = 1; count <= MAX_COUNT; count++) {
+            Vector3[] tips = headings(count);
+            Vector3[] targets = headings(count);
+            float[] weights = weights(count);
+
+            float msd = 0f;
+            float wsum = 0f;
+            for (int i = 0; i < count; i++) {
+                msd += weights[i] * targets[i].distSq(tips[i]);
+                wsum += weights[i];
+            }
+            float actual = HeadingKernels.weightedMSD(packed(tips), OFFSET * 3, packed(targets), OFFSET * 3,
+                    offsetWeights(weights), OFFSET, count);
+            assertClose(msd / wsum, actual, count + " headings");
+        }
+    }
+}
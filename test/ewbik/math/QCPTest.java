@@ -0,0 +1,52 @@
+package ewbik.math;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks which warm start seeds QCP accepts for its Newton refinement.
+ */
+public class QCPTest {
+
+    /**
+     * (x + 6)(x - 1)(x - 2)(x - 3), which has a local maximum between its roots
+     * at 1 and 2, like the characteristic polynomial it has no cubic term.
+     */
+    static final float C2 = -25f, C1 = 60f, C0 = -36f;
+
+    @Test
+    public void seedsAboveTheLargestRootAreAccepted() {
+        assertTrue(QCP.isAboveLargestRoot(3f, C2, C1, C0));
+        assertTrue(QCP.isAboveLargestRoot(3.5f, C2, C1, C0));
+        assertTrue(QCP.isAboveLargestRoot(10f, C2, C1, C0));
+    }
+
+    @Test
+    public void seedsBelowTheLargestRootAreRejected() {
+        // negative between the two largest roots.
+        assertFalse(QCP.isAboveLargestRoot(2.5f, C2, C1, C0));
+        // positive and increasing between the third root and the local maximum
+        // above it, but concave, so Newton would head for the wrong root.
+        assertFalse(QCP.isAboveLargestRoot(1.2f, C2, C1, C0));
+        // positive but decreasing past the local maximum.
+        assertFalse(QCP.isAboveLargestRoot(1.8f, C2, C1, C0));
+    }
+
+    @Test
+    public void newtonFromAnAcceptedSeedReachesTheLargestRoot() {
+        for (float seed = 0f; seed < 10f; seed += 0.01f) {
+            if (!QCP.isAboveLargestRoot(seed, C2, C1, C0))
+                continue;
+            float x = seed;
+            for (int i = 0; i < 50; i++) {
+                float x2 = x * x;
+                float p = (x2 + C2) * x2 + C1 * x + C0;
+                float dp = (4f * x2 + 2f * C2) * x + C1;
+                x -= p / dp;
+            }
+            assertTrue(Math.abs(x - 3f) < 1e-4f, "from " + seed + " Newton reached " + x);
+        }
+    }
+}
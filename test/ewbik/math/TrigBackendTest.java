@@ -0,0 +1,69 @@
+package ewbik.math;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks MathUtils.sin and cos under each TrigBackend against Math.sin and
+ * Math.cos, to within the error bounds TrigBackend documents.
+ */
+public class TrigBackendTest {
+
+    static final int SAMPLES = 1_000_000;
+
+    @AfterEach
+    public void teardown() {
+        MathUtils.setTrigBackend(MathUtils.TrigBackend.EXACT);
+    }
+
+    /**
+     * asserts that sin and cos are within maxError of Math.sin and Math.cos at
+     * SAMPLES evenly spaced angles across [-range, range].
+     */
+    static void assertWithin(MathUtils.TrigBackend backend, float range, double maxError) {
+        MathUtils.setTrigBackend(backend);
+        double worstSin = 0d;
+        double worstCos = 0d;
+        float worstSinAt = 0f;
+        float worstCosAt = 0f;
+        for (int i = 0; i <= SAMPLES; i++) {
+            float radians = (float) (-range + 2d * range * i / SAMPLES);
+            double sinError = Math.abs(MathUtils.sin(radians) - Math.sin(radians));
+            double cosError = Math.abs(MathUtils.cos(radians) - Math.cos(radians));
+            if (sinError > worstSin) {
+                worstSin = sinError;
+                worstSinAt = radians;
+            }
+            if (cosError > worstCos) {
+                worstCos = cosError;
+                worstCosAt = radians;
+            }
+        }
+        assertTrue(worstSin < maxError, backend + " sin is off by " + worstSin + " at " + worstSinAt);
+        assertTrue(worstCos < maxError, backend + " cos is off by " + worstCos + " at " + worstCosAt);
+    }
+
+    @Test
+    public void lutIsWithinBounds() {
+        assertWithin(MathUtils.TrigBackend.LUT, MathUtils.PI2, 1e-6);
+    }
+
+    @Test
+    public void lutIsWithinBoundsForLargeAngles() {
+        assertWithin(MathUtils.TrigBackend.LUT, 50f, 1e-6);
+        assertWithin(MathUtils.TrigBackend.LUT, 1e5f, 1e-6);
+    }
+
+    @Test
+    public void polyIsWithinBounds() {
+        assertWithin(MathUtils.TrigBackend.POLY, MathUtils.PI2, 1e-7);
+    }
+
+    @Test
+    public void polyIsWithinBoundsForLargeAngles() {
+        assertWithin(MathUtils.TrigBackend.POLY, 50f, 1e-7);
+        assertWithin(MathUtils.TrigBackend.POLY, 1e5f, 1e-7);
+    }
+}
@@ -0,0 +1,72 @@
+package processing;
+
+import ewbik.math.Vector3;
+import ik.IKPin;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks what a time budgeted Skeleton3D.IKSolver call runs and reports.
+ */
+public class BudgetedSolveTest {
+
+    /**
+     * long enough that only convergence stops these solves.
+     */
+    static final long BUDGET = 10_000_000_000L;
+
+    Skeleton3D skeleton;
+    IKPin pin;
+
+    @BeforeEach
+    public void setup() {
+        skeleton = Rigs.humanoid();
+        pin = skeleton.getBoneName("left hand").getIKPin();
+    }
+
+    @Test
+    public void convergesWithoutATolerance() {
+        pin.translateBy_(new Vector3(20f, 10f, 0f));
+        Skeleton3D.SolveResult result = skeleton.IKSolver(skeleton.getRootBone(), BUDGET);
+        assertTrue(result.converged, result.toString());
+        assertTrue(result.iterations > 0, result.toString());
+    }
+
+    @Test
+    public void runsPastTheDefaultIterationCount() {
+        // a single default iteration can't catch up with this jump, so a budgeted
+        // solve has to keep going.
+        skeleton.setDefaultIterations(1);
+        pin.translateBy_(new Vector3(20f, 10f, 0f));
+        Skeleton3D.SolveResult result = skeleton.IKSolver(skeleton.getRootBone(), BUDGET);
+        assertTrue(result.iterations > 1, result.toString());
+    }
+
+    @Test
+    public void residualIsMeasuredWhenNothingIsSolved() {
+        skeleton.setSkipUnchangedChains(true);
+        Skeleton3D.SolveResult solved = skeleton.IKSolver(skeleton.getRootBone(), BUDGET);
+        Skeleton3D.SolveResult skipped = skeleton.IKSolver(skeleton.getRootBone(), BUDGET);
+        assertEquals(0, skipped.iterations);
+        assertEquals(solved.residual, skipped.residual, 1e-4f);
+    }
+
+    @Test
+    public void residualIsMeasuredOnCachedPoses() {
+        skeleton.setPoseCache(new PoseCache(8));
+        skeleton.setConvergenceTolerance(1e-3f);
+        Skeleton3D.SolveResult here = skeleton.IKSolver(skeleton.getRootBone(), BUDGET);
+        pin.translateBy_(new Vector3(20f, 10f, 0f));
+        skeleton.IKSolver(skeleton.getRootBone(), -1, 1, -1);
+        float away = skeleton.getLastResidual();
+        pin.translateBy_(new Vector3(-20f, -10f, 0f));
+        Skeleton3D.SolveResult restored = skeleton.IKSolver(skeleton.getRootBone(), BUDGET);
+
+        assertTrue(restored.fromCache);
+        assertEquals(here.residual, restored.residual, 1e-4f);
+        assertTrue(restored.residual < away, restored + ", " + away + " while away");
+    }
+}
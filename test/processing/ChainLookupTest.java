@@ -0,0 +1,42 @@
+package processing;
+
+import ewbik.ik.ShadowNode3D;
+import ik.Bone;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the bone to bonechain lookups the solver makes through the armature's
+ * bone index.
+ */
+public class ChainLookupTest {
+
+    @Test
+    public void indexAndMapAgree() {
+        Skeleton3D skeleton = Rigs.humanoid();
+        for (Bone b : skeleton.getBoneList()) {
+            ShadowNode3D chain = skeleton.getChainFor(b);
+            assertSame(chain, skeleton.boneSegmentMap.get(b), b.getTag());
+            if (chain != null) {
+                assertTrue(chain.bonechainList.contains(b), b.getTag());
+                assertSame(chain, skeleton.shadowNode3D.getChainFor(b), b.getTag());
+            }
+        }
+    }
+
+    @Test
+    public void unindexedBonesFailFast() {
+        Skeleton3D skeleton = Rigs.humanoid();
+        Bone hand = skeleton.getBoneName("left hand");
+        int index = hand.boneIndex;
+        hand.boneIndex = -1;
+        try {
+            assertThrows(IllegalStateException.class, () -> skeleton.shadowNode3D.getChainFor(hand));
+        } finally {
+            hand.boneIndex = index;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package processing;
+
+import ewbik.math.Vector3;
+import ik.Bone;
+import ik.IKPin;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that stopping early on convergence (see
+ * Skeleton3D.setConvergenceTolerance) only happens once the solve has actually
+ * brought the pinned tips towards their targets.
+ */
+public class ConvergenceTest {
+
+    static float distanceToTarget(Bone b) {
+        return b.localAxes().calculatePosition().dist(b.getPinnedAxes().calculatePosition());
+    }
+
+    @Test
+    public void solveApproachesTargetBeforeStopping() {
+        Skeleton3D skeleton = Rigs.humanoid();
+        skeleton.setConvergenceTolerance(1e-3f);
+        Bone hand = skeleton.getBoneName("left hand");
+        IKPin pin = hand.getIKPin();
+        Vector3 step = new Vector3(3f, 2f, 0f);
+
+        boolean iteratedMoreThanOnce = false;
+        for (int frame = 0; frame < 6; frame++) {
+            pin.translateBy_(step);
+            float before = distanceToTarget(hand);
+            skeleton.IKSolver(skeleton.getRootBone());
+            float after = distanceToTarget(hand);
+            assertTrue(after < before * 0.5f,
+                    "frame " + frame + ": hand went from " + before + " to " + after + " from its target");
+            assertTrue(skeleton.getLastResidual() < 0.1f,
+                    "frame " + frame + ": residual " + skeleton.getLastResidual());
+            iteratedMoreThanOnce |= skeleton.getLastIterationCount() > 1;
+        }
+        assertTrue(iteratedMoreThanOnce, "every solve stopped after its first iteration");
+    }
+
+    @Test
+    public void residualTracksTheTipDistance() {
+        Skeleton3D skeleton = Rigs.humanoid();
+        skeleton.setConvergenceTolerance(1e-3f);
+        Bone hand = skeleton.getBoneName("left hand");
+        skeleton.IKSolver(skeleton.getRootBone());
+        float settled = skeleton.getLastResidual();
+
+        // with only one iteration allowed the solve can't catch up with a large
+        // jump, and the residual has to show it.
+        hand.getIKPin().translateBy_(new Vector3(20f, 10f, 0f));
+        skeleton.IKSolver(skeleton.getRootBone(), -1, 1, -1);
+        float jumped = skeleton.getLastResidual();
+        assertTrue(jumped > settled, "residual " + jumped + " after a jump, " + settled + " before");
+    }
+
+    @Test
+    public void worseningResidualIsNotConvergence() {
+        float tolerance = 1e-3f;
+        assertFalse(Skeleton3D.hasConverged(0.5f, 0.2f, tolerance), "residual got worse");
+        assertFalse(Skeleton3D.hasConverged(0.1f, 0.2f, tolerance), "residual still improving");
+        assertTrue(Skeleton3D.hasConverged(0.2f + tolerance / 2f, 0.2f, tolerance), "residual settled above");
+        assertTrue(Skeleton3D.hasConverged(0.2f - tolerance / 2f, 0.2f, tolerance), "residual settled below");
+        assertTrue(Skeleton3D.hasConverged(tolerance / 2f, 0.2f, tolerance), "residual within tolerance");
+
+        // without a tolerance, budgeted solves settle relative to the residual.
+        assertFalse(Skeleton3D.hasConverged(0.5f, 0.2f, 0f), "residual got worse");
+        assertFalse(Skeleton3D.hasConverged(0.1f, 0.2f, 0f), "residual still improving");
+        assertTrue(Skeleton3D.hasConverged(0.2f * (1f + Skeleton3D.SETTLED_FRACTION / 2f), 0.2f, 0f),
+                "residual settled above");
+        assertTrue(Skeleton3D.hasConverged(0.2f, 0.2f, 0f), "residual unchanged");
+    }
+}
@@ -0,0 +1,131 @@
+package processing;
+
+import ewbik.math.Vector3;
+import ik.Bone;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a single chain far deeper than any call stack could recurse
+ * through can be built, segmented, solved and updated, and that the work which
+ * should be linear in the chain's length is. The chains are grown from the
+ * humanoid rig's left hand.
+ */
+public class DeepChainTest {
+
+    static final int BONE_COUNT = 3_000;
+    /**
+     * small enough that recursing once per bone would overflow it.
+     */
+    static final long STACK_SIZE = 128 * 1024;
+    static final int SMALL_CHAIN = 250;
+    static final int LARGE_CHAIN = 8 * SMALL_CHAIN;
+    /**
+     * how much longer the large chain may take than the small one. Linear work
+     * takes about 8 times as long, quadratic work 64 times, so this leaves room
+     * for timing noise either way.
+     */
+    static final float MAX_GROWTH = 24f;
+
+    interface Check {
+        void run() throws Throwable;
+    }
+
+    /**
+     * runs check on a thread with a STACK_SIZE stack, rethrowing whatever it
+     * throws.
+     */
+    static void onSmallStack(Check check) throws Throwable {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                check.run();
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        }, "deep chain", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    /**
+     * @return the humanoid rig with a chain of boneCount bones, pinned at its
+     *         tip, grown from its left hand.
+     */
+    static Skeleton3D withChain(int boneCount) {
+        Skeleton3D skeleton = Rigs.humanoid();
+        Bone tip = skeleton.getBoneName("left hand");
+        for (int i = 0; i < boneCount; i++) {
+            tip = new Bone(tip, "bone " + i, 0.1f);
+        }
+        tip.enablePin_(tip.getTip_().copy().add(new Vector3(10f, 0f, 0f)));
+        skeleton.updateBonechains();
+        return skeleton;
+    }
+
+    static Bone chainTip(Skeleton3D skeleton, int boneCount) {
+        return skeleton.getBoneName("bone " + (boneCount - 1));
+    }
+
+    /**
+     * resegments the skeleton, then moves its root and brings every global
+     * transform up to date.
+     *
+     * @return the fastest of several runs, in nanoseconds
+     */
+    static long timeLinearWork(Skeleton3D skeleton) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 15; run++) {
+            long start = System.nanoTime();
+            skeleton.updateBonechains();
+            skeleton.getRootBone().localAxes().translateByGlobal(new Vector3(0f, 1f, 0f));
+            skeleton.updateGlobalTransforms();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    @Test
+    public void deepChain() throws Throwable {
+        onSmallStack(() -> {
+            int rigBones = Rigs.humanoid().getBoneList().size();
+            Skeleton3D skeleton = withChain(BONE_COUNT);
+            Bone tip = chainTip(skeleton, BONE_COUNT);
+            assertEquals(rigBones + BONE_COUNT, skeleton.getBoneList().size());
+
+            Vector3 target = tip.getPinnedAxes().calculatePosition().copy();
+            float before = tip.getTip_().dist(target);
+            skeleton.IKSolver(skeleton.getRootBone(), -1, 1, -1);
+            float after = tip.getTip_().dist(target);
+            assertTrue(after < before, "the tip went from " + before + " to " + after + " from its target");
+
+            // moving the root has to reach the tip through every bone in between.
+            Vector3 tipBefore = tip.localAxes().calculatePosition().copy();
+            skeleton.getRootBone().localAxes().translateByGlobal(new Vector3(0f, 5f, 0f));
+            assertTrue(tip.localAxes().needsUpdate());
+            tip.localAxes().updateGlobal();
+            assertFalse(tip.localAxes().needsUpdate());
+            assertEquals(tipBefore.y + 5f, tip.localAxes().calculatePosition().y, 1e-2f);
+        });
+    }
+
+    @Test
+    public void segmentingAndUpdatingGrowLinearly() {
+        Skeleton3D small = withChain(SMALL_CHAIN);
+        Skeleton3D large = withChain(LARGE_CHAIN);
+        // warms both up first, so that neither is timed before it's compiled.
+        for (int i = 0; i < 3; i++) {
+            timeLinearWork(small);
+            timeLinearWork(large);
+        }
+        long smallTime = timeLinearWork(small);
+        long largeTime = timeLinearWork(large);
+        float growth = (float) largeTime / smallTime;
+        assertTrue(growth < MAX_GROWTH, "8 times the bones took " + growth + " times as long");
+    }
+}
@@ -0,0 +1,54 @@
+package processing;
+
+import ewbik.math.Vector3;
+import ik.IKPin;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that a warmed up IKSolver call on the bundled humanoid rig doesn't
+ * allocate. The left hand pin is nudged before every solve so the solver always
+ * has work to do.
+ */
+public class IKSolverAllocationTest {
+
+    static final int WARMUP_SOLVES = 5000;
+    static final int MEASURED_SOLVES = 20;
+
+    @Test
+    public void warmedUpSolveDoesNotAllocate() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Skeleton3D skeleton = Rigs.humanoid();
+        IKPin pin = skeleton.getBoneName("left hand").getIKPin();
+        Vector3 nudge = new Vector3();
+        long thread = Thread.currentThread().getId();
+
+        for (int frame = 0; frame < WARMUP_SOLVES; frame++) {
+            nudge.set((frame % 2 == 0) ? 1f : -1f, 0f, 0f);
+            pin.translateBy_(nudge);
+            skeleton.IKSolver(skeleton.getRootBone());
+        }
+
+        // the fewest bytes any single solve allocated, so that a GC or a late
+        // compilation during one measurement doesn't fail the test.
+        long fewest = Long.MAX_VALUE;
+        for (int frame = 0; frame < MEASURED_SOLVES; frame++) {
+            nudge.set((frame % 2 == 0) ? 1f : -1f, 0f, 0f);
+            pin.translateBy_(nudge);
+            long before = threads.getThreadAllocatedBytes(thread);
+            skeleton.IKSolver(skeleton.getRootBone());
+            long after = threads.getThreadAllocatedBytes(thread);
+            fewest = Math.min(fewest, after - before);
+        }
+        assertEquals(0, fewest, "bytes allocated by a warmed up IKSolver call");
+    }
+}
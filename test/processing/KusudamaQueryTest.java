@@ -0,0 +1,152 @@
+package processing;
+
+import ewbik.math.Vector3;
+import ewbik.processing.singlePrecision.Kusudama;
+import ewbik.processing.singlePrecision.LimitCone;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that Kusudama.pointInLimits and pointOnPathSequence answer the same
+ * with their lookup grid and pruned pair visits as by testing every pair of
+ * cones in order, which is how they used to answer.
+ */
+public class KusudamaQueryTest {
+
+    static final int QUERIES = 20_000;
+    static final int[] GRID_RESOLUTIONS = { 0, 8, 32, 128 };
+
+    /**
+     * control points and radii, as x, y, z, radius.
+     */
+    static final float[][][] LAYOUTS = {
+            // two overlapping cones.
+            { { 0, 1, 0, 0.6f }, { 1, 1, 0, 0.5f } },
+            // a path along the equator.
+            { { 1, 0, 0, 0.3f }, { 0, 0, 1, 0.4f }, { -1, 0, 0, 0.3f } },
+            // narrow cones far apart, so that the paths between them are long.
+            { { 0, 1, 0, 0.05f }, { 1, 0, 0, 0.1f }, { 0, -1, 0.2f, 0.05f }, { -1, 0, 0, 0.1f } },
+            // wide cones wrapping most of the way around, overlapping each other.
+            { { 1, 0.2f, 0, 1.2f }, { 0, 0.2f, 1, 1.0f }, { -1, 0.2f, 0, 1.2f }, { 0, 0.2f, -1, 1.0f },
+                    { 1, 0.3f, 0.1f, 0.8f } },
+            // a path which doubles back on itself.
+            { { 0, 0, 1, 0.3f }, { 0, 1, 1, 0.2f }, { 0.1f, 0, 1, 0.25f }, { 0, -1, 1, 0.2f },
+                    { 0.7f, 0.7f, 0, 0.3f } },
+    };
+
+    static Kusudama kusudama(float[][] layout, int gridResolution) {
+        Kusudama k = new Kusudama();
+        k.enableOrientationalLimits();
+        for (float[] cone : layout) {
+            k.addLimitConeAtIndex(-1, new Vector3(cone[0], cone[1], cone[2]).normalize(), cone[3]);
+        }
+        k.setLookupGridResolution(gridResolution);
+        return k;
+    }
+
+    /**
+     * pointInLimits as it was before the kernels: every pair of cones, in order,
+     * keeping the first of the closest collisions.
+     */
+    static Vector3 plainPointInLimits(Kusudama k, Vector3 inPoint, float[] inBounds) {
+        Vector3 point = inPoint.copy();
+        point.normalize();
+        inBounds[0] = -1;
+        ArrayList<LimitCone> cones = k.getLimitCones();
+        Vector3 closestCollisionPoint = null;
+        float closestCos = -2f;
+        for (int i = 0; i < cones.size() - 1; i++) {
+            Vector3 collisionPoint = new Vector3();
+            if (cones.get(i).inBoundsFromThisToNext(cones.get(i + 1), point, collisionPoint)) {
+                inBounds[0] = 1;
+            } else {
+                float thisCos = collisionPoint.dot(point);
+                if (closestCollisionPoint == null || thisCos > closestCos) {
+                    closestCollisionPoint = collisionPoint.copy();
+                    closestCos = thisCos;
+                }
+            }
+        }
+        return inBounds[0] == -1 ? closestCollisionPoint : point;
+    }
+
+    /**
+     * pointOnPathSequence as it was before the kernels.
+     */
+    static Vector3 plainPointOnPathSequence(Kusudama k, Vector3 inPoint, Node3D limitingNode3D) {
+        float closestPointDot = 0f;
+        Vector3 point = limitingNode3D.getLocalOf(inPoint);
+        point.normalize();
+        Vector3 result = point.copy();
+        ArrayList<LimitCone> cones = k.getLimitCones();
+        for (int i = 0; i < cones.size() - 1; i++) {
+            Vector3 closestPathPoint = cones.get(i).getClosestPathPoint(cones.get(i + 1), point);
+            float closeDot = closestPathPoint.dot(point);
+            if (closeDot > closestPointDot) {
+                result.set(closestPathPoint);
+                closestPointDot = closeDot;
+            }
+        }
+        return limitingNode3D.getGlobalOf(result);
+    }
+
+    static Vector3 randomDirection(Random random) {
+        return new Vector3((float) random.nextGaussian(), (float) random.nextGaussian(),
+                (float) random.nextGaussian());
+    }
+
+    @Test
+    public void prunedPathQueriesMatchThePlainPath() {
+        Random random = new Random(11);
+        Node3D limitingNode3D = new Node3D(new Vector3(), new Vector3(1, 0, 0), new Vector3(0, 1, 0),
+                new Vector3(0, 0, 1), true, null);
+        for (int layout = 0; layout < LAYOUTS.length; layout++) {
+            Kusudama k = kusudama(LAYOUTS[layout], 0);
+            for (int q = 0; q < QUERIES; q++) {
+                Vector3 direction = randomDirection(random);
+                Vector3 expected = plainPointOnPathSequence(k, direction, limitingNode3D);
+                Vector3 actual = k.pointOnPathSequence(direction, limitingNode3D);
+                String where = "layout " + layout + ", direction " + direction;
+                assertEquals(expected.x, actual.x, where);
+                assertEquals(expected.y, actual.y, where);
+                assertEquals(expected.z, actual.z, where);
+            }
+        }
+    }
+
+    @Test
+    public void griddedAndPrunedQueriesMatchThePlainPath() {
+        Random random = new Random(7);
+        float[] plainBounds = new float[1];
+        float[] bounds = new float[1];
+        for (int layout = 0; layout < LAYOUTS.length; layout++) {
+            Kusudama plain = kusudama(LAYOUTS[layout], 0);
+            Kusudama[] queried = new Kusudama[GRID_RESOLUTIONS.length];
+            for (int g = 0; g < GRID_RESOLUTIONS.length; g++) {
+                queried[g] = kusudama(LAYOUTS[layout], GRID_RESOLUTIONS[g]);
+            }
+            int inBounds = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                Vector3 direction = randomDirection(random);
+                Vector3 expected = plainPointInLimits(plain, direction, plainBounds);
+                if (plainBounds[0] > 0)
+                    inBounds++;
+                for (int g = 0; g < GRID_RESOLUTIONS.length; g++) {
+                    Vector3 actual = queried[g].pointInLimits(direction, bounds);
+                    String where = "layout " + layout + ", grid " + GRID_RESOLUTIONS[g] + ", direction " + direction;
+                    assertEquals(plainBounds[0], bounds[0], where);
+                    assertEquals(expected.x, actual.x, where);
+                    assertEquals(expected.y, actual.y, where);
+                    assertEquals(expected.z, actual.z, where);
+                }
+            }
+            // both answers have to have been compared for the layout to count.
+            assertTrue(inBounds > 0 && inBounds < QUERIES, "layout " + layout + " had " + inBounds + " in bounds");
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package processing;
+
+import ewbik.math.Quaternion;
+import ewbik.math.Vector3;
+import ewbik.processing.singlePrecision.CompiledKusudama;
+import ewbik.processing.singlePrecision.Kusudama;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the twist Kusudama extracts analytically against the swing/twist
+ * split it replaced, across the whole range of twists and up to swings which
+ * leave the twist barely defined.
+ */
+public class KusudamaTwistTest {
+
+    static final Vector3 Y_AXIS = new Vector3(0, 1, 0);
+    /**
+     * the float rounding in either extraction, relative to the length of the
+     * twist's (w, y) components, which shrinks as the swing approaches PI.
+     */
+    static final float TOLERANCE = 1e-5f;
+
+    static final float PI = (float) Math.PI;
+    static final float[] TWISTS = { -PI, -PI + 1e-6f, -PI + 1e-3f, -2.5f, -PI / 2, -0.3f, -1e-6f, 0f, 1e-6f, 0.3f,
+            PI / 2, 2.5f, PI - 1e-3f, PI - 1e-6f, PI };
+    static final float[] SWINGS = { 0f, 0.5f, PI / 2, 2.5f, PI - 1e-2f, PI - 1e-3f };
+
+    static Node3D node() {
+        return new Node3D(new Vector3(), new Vector3(1, 0, 0), new Vector3(0, 1, 0), new Vector3(0, 0, 1), true,
+                null);
+    }
+
+    static Quaternion randomRotation(Random random) {
+        Vector3 axis = new Vector3((float) random.nextGaussian(), (float) random.nextGaussian(),
+                (float) random.nextGaussian()).normalize();
+        return new Quaternion(axis, (float) (random.nextDouble() * 2 * Math.PI - Math.PI));
+    }
+
+    /**
+     * the twist of boneNode3D about limitingNode3D's y axis, as Kusudama found it
+     * before the analytic extraction.
+     */
+    static float swingTwistAngle(Node3D boneNode3D, Node3D limitingNode3D) {
+        Quaternion relative = limitingNode3D.getGlobalMBasis().getInverseRotation()
+                .applyTo(boneNode3D.getGlobalMBasis().rotation);
+        Quaternion twist = new Quaternion();
+        relative.getSwingTwist(Y_AXIS, null, twist);
+        Vector3 twistAxis = new Vector3();
+        twist.getAxis(twistAxis);
+        return twist.getAngle() * twistAxis.y;
+    }
+
+    static float wrappedDifference(float a, float b) {
+        double d = Math.IEEEremainder((double) a - b, 2 * Math.PI);
+        return (float) Math.abs(d);
+    }
+
+    @Test
+    public void analyticTwistMatchesSwingTwist() {
+        Random random = new Random(3);
+        Kusudama k = new Kusudama();
+        k.enableAxialLimits();
+        k.setAxialLimits(0.3f, 1.4f);
+        CompiledKusudama compiled = k.compiled();
+        Node3D limitingNode3D = node();
+        Node3D boneNode3D = node();
+
+        for (int frame = 0; frame < 20; frame++) {
+            limitingNode3D.setGlobalOrientationTo(randomRotation(random));
+            for (float swing : SWINGS) {
+                float allowed = TOLERANCE / (float) Math.cos(swing / 2);
+                for (float twist : TWISTS) {
+                    float swingAngle = (float) (random.nextDouble() * 2 * Math.PI);
+                    Vector3 swingAxis = new Vector3((float) Math.cos(swingAngle), 0f, (float) Math.sin(swingAngle));
+                    Quaternion relative = new Quaternion(swingAxis, swing).applyTo(new Quaternion(Y_AXIS, twist));
+                    limitingNode3D.updateGlobal();
+                    boneNode3D.setGlobalOrientationTo(limitingNode3D.getGlobalMBasis().rotation.applyTo(relative));
+                    boneNode3D.updateGlobal();
+
+                    // angleToTwistCenter is the twist shifted and wrapped, so
+                    // shifting and wrapping the old twist the same way compares them.
+                    float expected = CompiledKusudama.twistToCenter(compiled,
+                            swingTwistAngle(boneNode3D, limitingNode3D));
+                    float actual = k.angleToTwistCenter(boneNode3D, limitingNode3D);
+                    float difference = wrappedDifference(expected, actual);
+                    assertTrue(difference <= allowed, "swing " + swing + ", twist " + twist + ": expected "
+                            + expected + " but was " + actual);
+                }
+            }
+        }
+    }
+}
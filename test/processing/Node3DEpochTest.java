@@ -0,0 +1,107 @@
+package processing;
+
+import ewbik.math.Vector3;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that Node3D's lazy global updates stay correct as nodes move between
+ * hierarchies, each of which keeps its own write epoch.
+ */
+public class Node3DEpochTest {
+
+    static Node3D node(Node3D parent, float x) {
+        return new Node3D(new Vector3(x, 0, 0), new Vector3(1, 0, 0), new Vector3(0, 1, 0), new Vector3(0, 0, 1),
+                true, parent);
+    }
+
+    @Test
+    public void writesElsewhereDontStaleAHierarchy() {
+        Node3D a = node(null, 0f);
+        Node3D aChild = node(a, 1f);
+        Node3D b = node(null, 0f);
+        aChild.updateGlobal();
+
+        b.translateByGlobal(new Vector3(5f, 0, 0));
+        assertFalse(aChild.needsUpdate());
+        a.translateByGlobal(new Vector3(2f, 0, 0));
+        assertTrue(aChild.needsUpdate());
+        assertEquals(3f, aChild.calculatePosition().x, 1e-6f);
+    }
+
+    @Test
+    public void movedSubtreesFollowTheirNewHierarchy() {
+        Node3D a = node(null, 0f);
+        Node3D b = node(null, 10f);
+        Node3D bChild = node(b, 11f);
+        Node3D bGrandchild = node(bChild, 12f);
+        bGrandchild.updateGlobal();
+
+        // bChild keeps its global position, so it moves with a from here on.
+        bChild.setParent(a);
+        a.translateByGlobal(new Vector3(1f, 0, 0));
+        assertEquals(12f, bChild.calculatePosition().x, 1e-5f);
+        assertEquals(13f, bGrandchild.calculatePosition().x, 1e-5f);
+
+        // and no longer with b.
+        b.translateByGlobal(new Vector3(100f, 0, 0));
+        assertEquals(13f, bGrandchild.calculatePosition().x, 1e-5f);
+
+        bChild.emancipate();
+        a.translateByGlobal(new Vector3(1f, 0, 0));
+        assertEquals(13f, bGrandchild.calculatePosition().x, 1e-5f);
+        bChild.translateByGlobal(new Vector3(1f, 0, 0));
+        assertEquals(14f, bGrandchild.calculatePosition().x, 1e-5f);
+    }
+
+    @Test
+    public void nodesOutliveTheirCollectedParents() throws InterruptedException {
+        Node3D parent = node(null, 5f);
+        Node3D clean = node(parent, 6f);
+        Node3D dirty = node(parent, 6f);
+        clean.updateGlobal();
+        dirty.updateGlobal();
+        dirty.translateByLocal(new Vector3(1f, 0, 0));
+
+        parent = null;
+        for (int i = 0; i < 100 && clean.getParentAxes() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(clean.getParentAxes() == null, "the parent wasn't collected");
+
+        // a clean node stays where it was, and moves as a root from then on.
+        assertEquals(6f, clean.calculatePosition().x, 1e-6f);
+        clean.translateByLocal(new Vector3(1f, 0, 0));
+        assertEquals(7f, clean.calculatePosition().x, 1e-6f);
+        // a dirty node's local transform is taken as global.
+        assertEquals(2f, dirty.calculatePosition().x, 1e-6f);
+    }
+
+    @Test
+    public void deepSubtreesJoinTheirNewHierarchy() {
+        Node3D a = node(null, 0f);
+        Node3D b = node(null, 0f);
+        // nodes only refer to each other weakly, so the chain is held here.
+        Node3D[] chain = new Node3D[201];
+        chain[0] = b;
+        for (int i = 1; i < chain.length; i++) {
+            chain[i] = node(chain[i - 1], i);
+        }
+        Node3D tip = chain[chain.length - 1];
+        tip.updateGlobal();
+
+        b.setParent(a);
+        a.translateByGlobal(new Vector3(1f, 0, 0));
+        assertTrue(tip.needsUpdate());
+        assertEquals(201f, tip.calculatePosition().x, 1e-3f);
+
+        tip.updateGlobal();
+        a.markDependentsDirty();
+        assertTrue(tip.needsUpdate());
+        assertEquals(201f, tip.calculatePosition().x, 1e-3f);
+    }
+}
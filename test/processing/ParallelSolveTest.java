@@ -0,0 +1,110 @@
+package processing;
+
+import ewbik.math.Vector3;
+import ik.Bone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that solving sibling bonechains concurrently (see
+ * Skeleton3D.setParallelSolve) gives the same pose as solving them one after
+ * another.
+ */
+public class ParallelSolveTest {
+
+    /**
+     * longer than Node3D's recursion limit, so that updates along these branches
+     * take the iterative path.
+     */
+    static final int BRANCH_LENGTH = 80;
+
+    ForkJoinPool pool;
+
+    @BeforeEach
+    public void setup() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterEach
+    public void teardown() {
+        pool.shutdown();
+    }
+
+    /**
+     * the humanoid rig, with two long pinned branches forking from the left
+     * hand.
+     */
+    static Skeleton3D forkedRig() {
+        Skeleton3D skeleton = Rigs.humanoid();
+        Bone hand = skeleton.getBoneName("left hand");
+        for (int branch = 0; branch < 2; branch++) {
+            Bone b = new Bone(hand, branch == 0 ? 0.3f : -0.3f, 0f, 0f, "branch " + branch + " 0", 0.5f);
+            for (int i = 1; i < BRANCH_LENGTH; i++) {
+                b = new Bone(b, "branch " + branch + " " + i, 0.5f);
+            }
+            b.enablePin_(b.getTip_().copy().add(new Vector3(branch == 0 ? 3f : -3f, 1f, 0f)));
+        }
+        return skeleton;
+    }
+
+    static void step(Skeleton3D skeleton, int frame) {
+        float sign = (frame % 2 == 0) ? 1f : -1f;
+        skeleton.getBoneName("branch 0 " + (BRANCH_LENGTH - 1)).getIKPin().translateBy_(new Vector3(sign, 0.5f, 0f));
+        skeleton.getBoneName("branch 1 " + (BRANCH_LENGTH - 1)).getIKPin().translateBy_(new Vector3(0f, sign, 0.5f));
+        skeleton.IKSolver(skeleton.getRootBone());
+    }
+
+    @Test
+    public void parallelSolveMatchesSerialSolve() {
+        Skeleton3D serial = forkedRig();
+        Skeleton3D parallel = forkedRig();
+        parallel.setParallelSolve(true, 1, pool);
+
+        for (int frame = 0; frame < 10; frame++) {
+            step(serial, frame);
+            step(parallel, frame);
+        }
+        assertSamePose(serial, parallel);
+    }
+
+    /**
+     * solving from a worker of some other pool (a SkeletonBatchSolver's, say)
+     * still runs the sibling chains on the skeleton's own pool.
+     */
+    @Test
+    public void parallelSolveFromAnotherPoolMatchesSerialSolve() {
+        Skeleton3D serial = forkedRig();
+        Skeleton3D parallel = forkedRig();
+        parallel.setParallelSolve(true, 1, pool);
+
+        ForkJoinPool other = new ForkJoinPool(2);
+        try {
+            for (int frame = 0; frame < 10; frame++) {
+                int f = frame;
+                step(serial, frame);
+                other.submit(() -> step(parallel, f)).join();
+            }
+        } finally {
+            other.shutdown();
+        }
+        assertSamePose(serial, parallel);
+    }
+
+    static void assertSamePose(Skeleton3D serial, Skeleton3D parallel) {
+        // by position in the bone list, since the rig has two bones tagged
+        // "right lower arm".
+        for (int i = 0; i < serial.getBoneList().size(); i++) {
+            Bone b = serial.getBoneList().get(i);
+            Vector3 expected = b.localAxes().calculatePosition();
+            Vector3 actual = parallel.getBoneList().get(i).localAxes().calculatePosition();
+            assertEquals(expected.x, actual.x, 1e-4f, b.getTag());
+            assertEquals(expected.y, actual.y, 1e-4f, b.getTag());
+            assertEquals(expected.z, actual.z, 1e-4f, b.getTag());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package processing;
+
+import ewbik.math.Vector3;
+import ik.Bone;
+import ik.IKPin;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks what Skeleton3D.IKSolver does with a PoseCache attached.
+ */
+public class PoseCacheTest {
+
+    Skeleton3D skeleton;
+    IKPin pin;
+    PoseCache cache;
+
+    @BeforeEach
+    public void setup() {
+        skeleton = Rigs.humanoid();
+        skeleton.setConvergenceTolerance(1e-3f);
+        pin = skeleton.getBoneName("left hand").getIKPin();
+        cache = new PoseCache(8);
+        skeleton.setPoseCache(cache);
+    }
+
+    float[] globalPositions() {
+        float[] positions = new float[skeleton.getBoneList().size() * 3];
+        int i = 0;
+        for (Bone b : skeleton.getBoneList()) {
+            Vector3 p = b.localAxes().calculatePosition();
+            positions[i++] = p.x;
+            positions[i++] = p.y;
+            positions[i++] = p.z;
+        }
+        return positions;
+    }
+
+    @Test
+    public void restoredPoseFinishesLikeASolve() {
+        skeleton.setSkipUnchangedChains(true);
+        Vector3 there = new Vector3(4f, 2f, 0f);
+        Vector3 back = new Vector3(-4f, -2f, 0f);
+
+        skeleton.IKSolver(skeleton.getRootBone());
+        float[] solved = globalPositions();
+        pin.translateBy_(there);
+        skeleton.IKSolver(skeleton.getRootBone());
+        pin.translateBy_(back);
+        skeleton.IKSolver(skeleton.getRootBone());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // the global transforms were brought up to date along with the pose.
+        for (Bone b : skeleton.getBoneList()) {
+            assertFalse(b.localAxes().needsUpdate(), b.getTag() + " wasn't updated");
+        }
+        float[] restored = globalPositions();
+        for (int i = 0; i < solved.length; i++) {
+            assertEquals(solved[i], restored[i], 1e-4f);
+        }
+
+        // and the restored pose was recorded as solved, so with the cache gone
+        // nothing needs solving.
+        skeleton.setPoseCache(null);
+        skeleton.IKSolver(skeleton.getRootBone());
+        assertEquals(0, skeleton.getLastIterationCount());
+    }
+
+    @Test
+    public void pinSettingsArePartOfTheKey() {
+        skeleton.IKSolver(skeleton.getRootBone());
+        skeleton.IKSolver(skeleton.getRootBone());
+        assertEquals(1, cache.getHits());
+
+        pin.setPinWeight(pin.getPinWeight() * 0.5f);
+        skeleton.IKSolver(skeleton.getRootBone());
+        assertEquals(1, cache.getHits());
+
+        float yPriority = pin.getYPriority() == 0f ? 0.5f : 0f;
+        pin.setTargetPriorities(pin.getXPriority(), yPriority, pin.getZPriority());
+        skeleton.IKSolver(skeleton.getRootBone());
+        assertEquals(1, cache.getHits());
+
+        pin.setDepthFalloff(pin.getDepthFalloff() == 0.5f ? 0.25f : 0.5f);
+        skeleton.IKSolver(skeleton.getRootBone());
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+
+        skeleton.IKSolver(skeleton.getRootBone());
+        assertEquals(2, cache.getHits());
+    }
+}
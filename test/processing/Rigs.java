@@ -0,0 +1,35 @@
+package processing;
+
+import ik.Bone;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the rigs the tests run on.
+ */
+final class Rigs {
+
+    /**
+     * nodes only refer to their parents weakly, and the nodes some of the
+     * humanoid's pins are parented to aren't referred to by anything else once
+     * it's loaded, so they're kept here (as ItemHolding keeps its world node).
+     */
+    private static final List<Node3D> pinParents = new ArrayList<>();
+
+    private Rigs() {
+    }
+
+    /**
+     * @return a freshly loaded copy of the bundled humanoid rig.
+     */
+    static synchronized Skeleton3D humanoid() {
+        Skeleton3D skeleton = ewbik.processing.IO.LoadArmature("Humanoid_Holding_Item.json");
+        pinParents.add(skeleton.localAxes().getParentAxes());
+        for (Bone b : skeleton.getBoneList()) {
+            if (b.getIKPin() != null)
+                pinParents.add(b.getIKPin().getAxes().getParentAxes());
+        }
+        return skeleton;
+    }
+}
@@ -0,0 +1,45 @@
+package processing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks how SkeletonBatchSolver reports an armature which fails to solve.
+ */
+public class SkeletonBatchSolverTest {
+
+    SkeletonBatchSolver solver;
+
+    @BeforeEach
+    public void setup() {
+        solver = new SkeletonBatchSolver(2);
+    }
+
+    @AfterEach
+    public void teardown() {
+        solver.shutdown();
+    }
+
+    @Test
+    public void failuresAreRethrown() {
+        List<Skeleton3D> batch = new ArrayList<>();
+        batch.add(Rigs.humanoid());
+        batch.add(null);
+        batch.add(Rigs.humanoid());
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> solver.solve(batch));
+        assertInstanceOf(NullPointerException.class, thrown.getCause());
+
+        // and the solver can still be used afterwards.
+        batch.remove(1);
+        assertEquals(2, solver.solve(batch).skeletonCount);
+    }
+}
@@ -0,0 +1,150 @@
+package processing;
+
+import ewbik.math.Quaternion;
+import ewbik.math.Vector3;
+import ewbik.processing.singlePrecision.Kusudama;
+import ik.Bone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that Skeleton3D.snapAllToConstraints leaves the armature as snapping
+ * each bone in turn, parents first, would.
+ */
+public class SnapToConstraintsTest {
+
+    /**
+     * more than Skeleton3D.SNAP_TASK_SIZE, so that the level they're on is split
+     * across the pool.
+     */
+    static final int FAN_BONES = 40;
+    static final float RELATIVE_TOLERANCE = 1e-5f;
+
+    ForkJoinPool pool;
+
+    @BeforeEach
+    public void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterEach
+    public void stopPool() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return the humanoid rig with FAN_BONES constrained bones added below one
+     *         of its spine bones, all on the same level.
+     */
+    static Skeleton3D fannedRig() {
+        Skeleton3D skeleton = Rigs.humanoid();
+        Bone spine = skeleton.getBoneName("c4");
+        for (int i = 0; i < FAN_BONES; i++) {
+            Bone b = new Bone(spine, "fan " + i, 0.5f);
+            Kusudama k = new Kusudama(b);
+            k.addLimitConeAtIndex(-1, new Vector3(0, 1, 0), 0.4f);
+            k.addLimitConeAtIndex(-1, new Vector3(1, 1, 0).normalize(), 0.2f);
+            k.setAxialLimits(-0.5f, 1f);
+            k.optimizeLimitingAxes();
+        }
+        return skeleton;
+    }
+
+    /**
+     * turns every bone by the same random rotations, well past most of their
+     * limits.
+     */
+    static void scramble(Skeleton3D skeleton, long seed) {
+        Random random = new Random(seed);
+        for (Bone b : skeleton.getBoneList()) {
+            Vector3 axis = new Vector3((float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian()).normalize();
+            b.localAxes().rotateByLocal(new Quaternion(axis, (float) (random.nextDouble() * 2.5)));
+        }
+    }
+
+    /**
+     * snaps each bone in turn, breadth first.
+     */
+    static void snapEachBone(Skeleton3D skeleton) {
+        List<Bone> queue = new ArrayList<>();
+        queue.add(skeleton.getRootBone());
+        for (int i = 0; i < queue.size(); i++) {
+            Bone b = queue.get(i);
+            b.snapToConstraints();
+            queue.addAll(b.getChildren());
+        }
+    }
+
+    static void assertSamePose(Skeleton3D expected, Skeleton3D actual) {
+        List<Bone> expectedBones = expected.getBoneList();
+        List<Bone> actualBones = actual.getBoneList();
+        Vector3 offset = new Vector3(0.3f, 1f, 0.7f);
+        // snapAllToConstraints works on detached copies of the globals, so the
+        // two only agree to float rounding, which grows with the rig's scale.
+        float scale = 1f;
+        for (Bone b : expectedBones) {
+            scale = Math.max(scale, b.localAxes().calculatePosition().mag());
+        }
+        float tolerance = RELATIVE_TOLERANCE * scale;
+        // by index, since the rig has a duplicate tag.
+        for (int i = 0; i < expectedBones.size(); i++) {
+            Node3D e = expectedBones.get(i).localAxes();
+            Node3D a = actualBones.get(i).localAxes();
+            String tag = expectedBones.get(i).getTag();
+            assertEquals(0f, e.calculatePosition().dist(a.calculatePosition()), tolerance, tag);
+            assertEquals(0f, e.getGlobalOf(offset).dist(a.getGlobalOf(offset)), tolerance, tag);
+        }
+    }
+
+    static int movedBones(Skeleton3D before, Skeleton3D after) {
+        int moved = 0;
+        Vector3 offset = new Vector3(0.3f, 1f, 0.7f);
+        for (int i = 0; i < before.getBoneList().size(); i++) {
+            Node3D b = before.getBoneList().get(i).localAxes();
+            Node3D a = after.getBoneList().get(i).localAxes();
+            if (b.getGlobalOf(offset).dist(a.getGlobalOf(offset)) > 1e-3f)
+                moved++;
+        }
+        return moved;
+    }
+
+    @Test
+    public void snappingAllMatchesSnappingEachBone() {
+        for (long seed = 0; seed < 5; seed++) {
+            Skeleton3D scrambled = Rigs.humanoid();
+            Skeleton3D eachBone = Rigs.humanoid();
+            Skeleton3D all = Rigs.humanoid();
+            scramble(scrambled, seed);
+            scramble(eachBone, seed);
+            scramble(all, seed);
+
+            snapEachBone(eachBone);
+            all.snapAllToConstraints();
+            assertTrue(movedBones(scrambled, eachBone) > 0, "nothing needed snapping");
+            assertSamePose(eachBone, all);
+        }
+    }
+
+    @Test
+    public void snappingAllOnThePoolMatchesSnappingEachBone() {
+        Skeleton3D eachBone = fannedRig();
+        Skeleton3D all = fannedRig();
+        all.setParallelSolve(true, 1, pool);
+        scramble(eachBone, 1);
+        scramble(all, 1);
+
+        snapEachBone(eachBone);
+        all.snapAllToConstraints();
+        assertSamePose(eachBone, all);
+    }
+}
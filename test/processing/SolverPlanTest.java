@@ -0,0 +1,71 @@
+package processing;
+
+import ewbik.ik.ShadowNode3D;
+import ewbik.ik.SolverPlan;
+import ewbik.math.Vector3;
+import ik.Bone;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks the ranges a compiled SolverPlan describes against the ShadowNode3D
+ * hierarchy it was compiled from.
+ */
+public class SolverPlanTest {
+
+    static boolean descendsFrom(ShadowNode3D chain, ShadowNode3D ancestor) {
+        for (ShadowNode3D c = chain; c != null; c = c.getBonechainParent()) {
+            if (c == ancestor)
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void subtreeRangesHoldExactlyTheDescendants() {
+        // the forked rig has chains nested several levels deep.
+        SolverPlan plan = ParallelSolveTest.forkedRig().solverPlan;
+        for (int c = 0; c < plan.chains.length; c++) {
+            assertEquals(c, plan.chains[c].planIndex);
+            int parent = plan.chainParent[c];
+            if (parent != -1) {
+                assertSame(plan.chains[parent], plan.chains[c].getBonechainParent());
+            }
+            for (int d = 0; d < plan.chains.length; d++) {
+                boolean inRange = d >= c && d < plan.chainSubtreeEnd[c];
+                assertEquals(descendsFrom(plan.chains[d], plan.chains[c]), inRange,
+                        "chain " + d + " in the subtree of chain " + c);
+            }
+        }
+    }
+
+    @Test
+    public void solveLeavesThePlanCurrentAndTheRestLazy() {
+        Skeleton3D skeleton = ParallelSolveTest.forkedRig();
+        ParallelSolveTest.step(skeleton, 0);
+        skeleton.IKSolver(skeleton.getRootBone());
+
+        SolverPlan plan = skeleton.solverPlan;
+        for (ShadowNode3D.ShadowBone sb : plan.bones) {
+            assertFalse(sb.forBone().localAxes().needsUpdate(), sb.forBone().getTag() + " wasn't updated");
+        }
+
+        // whatever was left stale reads the same lazily as after a full sweep.
+        ArrayList<Vector3> lazy = new ArrayList<>();
+        for (Bone b : skeleton.getBoneList()) {
+            lazy.add(b.localAxes().calculatePosition().copy());
+            lazy.add(b.getMajorRotationAxes().calculatePosition().copy());
+        }
+        skeleton.updateGlobalTransforms();
+        int i = 0;
+        for (Bone b : skeleton.getBoneList()) {
+            assertEquals(0f, lazy.get(i++).dist(b.localAxes().calculatePosition()), 1e-5f);
+            assertEquals(0f, lazy.get(i++).dist(b.getMajorRotationAxes().calculatePosition()), 1e-5f);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package processing;
+
+import ewbik.math.Vector3;
+import ik.Bone;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the tip headings a bonechain hands to QCP.
+ */
+public class TipHeadingsTest {
+
+    /**
+     * the first heading of each pinned tip is the tip's position relative to
+     * the bone being solved, which the solver moves towards the target's.
+     */
+    @Test
+    public void tipPositionIsTheFirstHeading() {
+        Skeleton3D skeleton = Rigs.humanoid();
+        Bone hand = skeleton.getBoneName("left hand");
+        ewbik.ik.ShadowNode3D chain = skeleton.getChainFor(hand);
+        chain.alignSimulationAxesToBones();
+
+        Vector3[] headings = new Vector3[64];
+        for (int i = 0; i < headings.length; i++) {
+            headings[i] = new Vector3(Float.NaN, Float.NaN, Float.NaN);
+        }
+        Node3D from = hand.getParent().getParent().localAxes();
+        chain.upateTipHeadings(headings, from);
+
+        Vector3 expected = hand.localAxes().calculatePosition().copy().sub(from.calculatePosition());
+        assertEquals(expected.x, headings[0].x, 1e-4f);
+        assertEquals(expected.y, headings[0].y, 1e-4f);
+        assertEquals(expected.z, headings[0].z, 1e-4f);
+    }
+}